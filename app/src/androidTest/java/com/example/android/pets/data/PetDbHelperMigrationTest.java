@@ -0,0 +1,243 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.pets.data.PetContract.PetChangeEntry;
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.PetStatsEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Upgrades a database with the version 1 schema and its pets through every migration step of
+ * PetDbHelper, and checks that the pets survive with the indexes, search index, statistics,
+ * columns and change log of the current version
+ */
+@RunWith(AndroidJUnit4.class)
+public class PetDbHelperMigrationTest {
+
+    /* Shelter of the migrated database, so the database of the default shelter is left alone */
+    private static final long SHELTER_ID = PetEntry.MAX_SHELTER_ID;
+
+    /* Version of the database once every migration step has run */
+    private static final int CURRENT_VERSION = 8;
+
+    private Context mContext;
+    private String mDatabaseName;
+    private PetDbHelper mDbHelper;
+
+    @Before
+    public void createVersion1Database() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mDatabaseName = PetDbHelper.getShelterDatabaseName(SHELTER_ID);
+        mContext.deleteDatabase(mDatabaseName);
+
+        // The pets table as the first version of the app created it
+        SQLiteDatabase db = mContext.openOrCreateDatabase(mDatabaseName, Context.MODE_PRIVATE,
+                null);
+        try {
+            db.execSQL("CREATE TABLE " + PetEntry.TABLE_NAME + " ("
+                    + PetEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                    + PetEntry.COLUMN_PET_NAME + " TEXT NOT NULL, "
+                    + PetEntry.COLUMN_PET_BREED + " TEXT, "
+                    + PetEntry.COLUMN_PET_GENDER + " INTEGER NOT NULL, "
+                    + PetEntry.COLUMN_PET_WEIGHT + " INTEGER NOT NULL DEFAULT 0);");
+            insertPet(db, "Rex", "Labrador", PetEntry.GENDER_MALE, 30);
+            insertPet(db, "Bella", "Labrador", PetEntry.GENDER_FEMALE, 25);
+            insertPet(db, "Labby", null, PetEntry.GENDER_UNKNOWN, 10);
+            db.setVersion(1);
+        } finally {
+            db.close();
+        }
+
+        mDbHelper = new PetDbHelper(mContext, SHELTER_ID);
+    }
+
+    @After
+    public void deleteDatabase() {
+        mDbHelper.close();
+        mContext.deleteDatabase(mDatabaseName);
+    }
+
+    @Test
+    public void upgradeKeepsThePets() {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        assertEquals(CURRENT_VERSION, db.getVersion());
+        assertRows(db, "SELECT " + PetEntry._ID + ", " + PetEntry.COLUMN_PET_NAME + ", "
+                        + PetEntry.COLUMN_PET_BREED + ", " + PetEntry.COLUMN_PET_GENDER + ", "
+                        + PetEntry.COLUMN_PET_WEIGHT + " FROM " + PetEntry.TABLE_NAME
+                        + " ORDER BY " + PetEntry._ID,
+                "1|Rex|Labrador|1|30",
+                "2|Bella|Labrador|2|25",
+                "3|Labby|null|0|10");
+    }
+
+    @Test
+    public void upgradeCreatesTheCurrentIndexes() {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        List<String> indexes = readColumn(db, "SELECT name FROM sqlite_master"
+                + " WHERE type = 'index' AND sql IS NOT NULL");
+        assertTrue(indexes.containsAll(Arrays.asList(
+                "pets_name_index",
+                "pets_gender_deleted_weight_index",
+                "pets_breed_deleted_weight_index",
+                "pets_weight_index",
+                "pet_changes_pet_index")));
+
+        // Replaced by the indexes that include the deletion mark
+        assertFalse(indexes.contains("pets_breed_index"));
+        assertFalse(indexes.contains("pets_gender_weight_index"));
+        assertFalse(indexes.contains("pets_breed_weight_index"));
+    }
+
+    @Test
+    public void upgradeIndexesTheExistingPetsForSearch() {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        assertEquals(Arrays.asList("1", "2", "3"), search(db, "lab*"));
+        assertEquals(Arrays.asList("3"), search(db, PetEntry.COLUMN_PET_NAME + ":lab*"));
+        assertEquals(Arrays.asList("2"), search(db, "bella"));
+    }
+
+    @Test
+    public void upgradeComputesTheStatisticsOfTheExistingPets() {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        assertRows(db, "SELECT * FROM " + PetStatsEntry.GENDER_TABLE_NAME
+                        + " ORDER BY " + PetStatsEntry.COLUMN_GENDER,
+                "0|1|10|10|10",
+                "1|1|30|30|30",
+                "2|1|25|25|25");
+
+        // The pets without a breed are counted together
+        assertRows(db, "SELECT * FROM " + PetStatsEntry.BREED_TABLE_NAME
+                        + " ORDER BY " + PetStatsEntry.COLUMN_BREED,
+                "|1|10|10|10",
+                "Labrador|2|55|25|30");
+    }
+
+    @Test
+    public void upgradeAddsTheDeletedAndPhotoColumns() {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        List<String> columns = readColumn(db, "PRAGMA table_info(" + PetEntry.TABLE_NAME + ")",
+                1);
+        assertTrue(columns.contains(PetEntry.COLUMN_PET_DELETED));
+        assertTrue(columns.contains(PetEntry.COLUMN_PET_PHOTO));
+
+        // The existing pets are live and have no photo
+        assertRows(db, "SELECT " + PetEntry.COLUMN_PET_DELETED + ", " + PetEntry.COLUMN_PET_PHOTO
+                        + " FROM " + PetEntry.TABLE_NAME + " ORDER BY " + PetEntry._ID,
+                "0|null",
+                "0|null",
+                "0|null");
+    }
+
+    @Test
+    public void upgradeLogsTheExistingPetsAndTheirChanges() {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        String changes = "SELECT " + PetChangeEntry.COLUMN_PET_ID + ", "
+                + PetChangeEntry.COLUMN_OPERATION + " FROM " + PetChangeEntry.TABLE_NAME
+                + " ORDER BY " + PetChangeEntry.COLUMN_SEQUENCE;
+        int insert = PetChangeEntry.OPERATION_INSERT;
+        int update = PetChangeEntry.OPERATION_UPDATE;
+        int delete = PetChangeEntry.OPERATION_DELETE;
+        assertRows(db, changes, "1|" + insert, "2|" + insert, "3|" + insert);
+
+        // The triggers log every change from now on, and keep the statistics and the search
+        // index up to date
+        long id = insertPet(db, "Max", "Beagle", PetEntry.GENDER_MALE, 12);
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PET_WEIGHT, 31);
+        db.update(PetEntry.TABLE_NAME, values, PetEntry._ID + " = 1", null);
+        values.clear();
+        values.put(PetEntry.COLUMN_PET_DELETED, 1);
+        db.update(PetEntry.TABLE_NAME, values, PetEntry._ID + " = 2", null);
+
+        // Removing a pet that was marked deleted logs nothing more
+        db.delete(PetEntry.TABLE_NAME, PetEntry._ID + " = 2", null);
+
+        assertRows(db, changes, "1|" + insert, "2|" + insert, "3|" + insert,
+                id + "|" + insert, "1|" + update, "2|" + delete);
+        assertRows(db, "SELECT * FROM " + PetStatsEntry.BREED_TABLE_NAME
+                        + " ORDER BY " + PetStatsEntry.COLUMN_BREED,
+                "|1|10|10|10",
+                "Beagle|1|12|12|12",
+                "Labrador|1|31|31|31");
+        assertEquals(Arrays.asList(String.valueOf(id)), search(db, "beagle"));
+    }
+
+    private static long insertPet(SQLiteDatabase db, String name, String breed, int gender,
+                                  int weight) {
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PET_NAME, name);
+        values.put(PetEntry.COLUMN_PET_BREED, breed);
+        values.put(PetEntry.COLUMN_PET_GENDER, gender);
+        values.put(PetEntry.COLUMN_PET_WEIGHT, weight);
+        return db.insertOrThrow(PetEntry.TABLE_NAME, null, values);
+    }
+
+    /**
+     * Return the _IDs of the pets matching the given full-text query, in _ID order
+     */
+    private static List<String> search(SQLiteDatabase db, String match) {
+        return readColumn(db, "SELECT docid FROM " + PetEntry.SEARCH_TABLE_NAME + " WHERE "
+                + PetEntry.SEARCH_TABLE_NAME + " MATCH '" + match + "' ORDER BY docid");
+    }
+
+    /**
+     * Check that the given query returns the given rows, each with its columns joined by '|'
+     */
+    private static void assertRows(SQLiteDatabase db, String sql, String... rows) {
+        Cursor cursor = db.rawQuery(sql, null);
+        try {
+            List<String> actual = new ArrayList<String>();
+            while(cursor.moveToNext()) {
+                StringBuilder row = new StringBuilder();
+                for(int i = 0; i < cursor.getColumnCount(); i++) {
+                    if(i > 0) {
+                        row.append('|');
+                    }
+                    row.append(cursor.getString(i));
+                }
+                actual.add(row.toString());
+            }
+            assertEquals(Arrays.asList(rows), actual);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static List<String> readColumn(SQLiteDatabase db, String sql) {
+        return readColumn(db, sql, 0);
+    }
+
+    /**
+     * Return the values of the given column of the rows of the given query
+     */
+    private static List<String> readColumn(SQLiteDatabase db, String sql, int column) {
+        Cursor cursor = db.rawQuery(sql, null);
+        try {
+            List<String> values = new ArrayList<String>();
+            while(cursor.moveToNext()) {
+                values.add(cursor.getString(column));
+            }
+            return values;
+        } finally {
+            cursor.close();
+        }
+    }
+}
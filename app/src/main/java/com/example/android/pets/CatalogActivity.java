@@ -15,25 +15,44 @@
  */
 package com.example.android.pets;
 
+import android.app.AlertDialog;
 import android.app.LoaderManager;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.Context;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.Loader;
-import android.content.CursorLoader;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
 import android.support.design.widget.FloatingActionButton;
+import android.support.v4.view.MenuItemCompat;
 import android.support.v7.app.AppCompatActivity;
-import android.util.Log;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
+import android.text.TextUtils;
+import android.util.SparseArray;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
-import android.widget.AdapterView;
-import android.widget.ListView;
+import android.view.ViewTreeObserver;
+import android.widget.ArrayAdapter;
+import android.widget.EditText;
+import android.widget.Spinner;
+import android.widget.Toast;
 
 import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetQuery;
+import com.example.android.pets.data.PetReader;
+import com.example.android.pets.data.PetSnapshot;
+import com.example.android.pets.data.PetStartup;
+import com.example.android.pets.data.PetWriteQueue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * Displays list of pets that were entered and stored in the app.
@@ -41,15 +60,106 @@ import com.example.android.pets.data.PetContract.PetEntry;
 public class CatalogActivity extends AppCompatActivity implements
         LoaderManager.LoaderCallbacks<Cursor> {
 
-    /* Identifier for the pet data loader */
+    /* Identifier for the loader of the first page of pets, page n uses PET_LOADER + n */
     private static final int PET_LOADER = 0;
 
-    /* Adapter for the ListView */
+    /* Identifier for the loader of the pets matching the search text */
+    private static final int SEARCH_LOADER = -1;
+
+    /* Maximum number of ranked matches loaded for the search text */
+    private static final int SEARCH_LIMIT = 100;
+
+    /* Delay after the last keystroke before the search text is queried, in milliseconds */
+    private static final long SEARCH_DEBOUNCE_MILLIS = 300;
+
+    /* Maximum number of pets loaded by each page */
+    private static final int PAGE_SIZE = PetEntry.CATALOG_PAGE_SIZE;
+
+    /* Number of remaining rows below the visible ones at which the next page gets loaded */
+    private static final int PREFETCH_DISTANCE = 20;
+
+    /* Number of pages kept loaded on each side of the visible ones, the others are dropped */
+    private static final int PAGE_WINDOW = 2;
+
+    /* Key for the _ID each page starts after in the saved instance state */
+    private static final String STATE_PAGE_STARTS = "page_starts";
+
+    /* Key for the sort values of the pet each page after the first starts after */
+    private static final String STATE_PAGE_START_VALUES = "page_start_values";
+
+    /* Key for the filters and sort order of the catalog in the saved instance state */
+    private static final String STATE_QUERY = "query";
+
+    /* Request code for picking the file of pets to import */
+    private static final int REQUEST_IMPORT_PETS = 1;
+
+    /* Adapter for the RecyclerView */
     PetCursorAdapter mCursorAdapter;
 
+    /* Empty view shown when the list has 0 items */
+    private View mEmptyView;
+
+    /* Filters and sort order of the pets shown in the catalog */
+    private PetQuery mQuery;
+
+    /* _ID after which each page starts, indexed by page number */
+    private final ArrayList<Long> mPageStarts = new ArrayList<Long>();
+
+    /* Sort values of the pet each page starts after, indexed by page number
+     * They keep the pages in place once that pet is deleted, null when they are not known */
+    private final ArrayList<String[]> mPageStartValues = new ArrayList<String[]>();
+
+    /* Cursor of each page that has finished loading, indexed by page number */
+    private final SparseArray<PetListCursor> mPageCursors = new SparseArray<PetListCursor>();
+
+    /* Rows standing in for each page whose loader was dropped, indexed by page number
+     * They keep the rows of the following pages in place until the page is loaded again */
+    private final SparseArray<PetListCursor> mPagePlaceholders =
+            new SparseArray<PetListCursor>();
+
+    /* Pages of the first and last visible rows, as of the last scroll */
+    private int mFirstVisiblePage;
+    private int mLastVisiblePage;
+
+    /* Runnable that loads the pages around the visible ones and drops the others
+     * It is posted by the scroll listener, since the list cannot change during a scroll */
+    private final Runnable mPageWindowRunnable = new Runnable() {
+        @Override
+        public void run() {
+            updatePageWindow();
+        }
+    };
+
+    /* Merge of the pages last swapped into the adapter, null if a single page was swapped in */
+    private PetListCursor mMergedCursor;
+
+    /* Rows of the snapshot of the first page, shown until the first page is loaded */
+    private PetListCursor mSnapshotCursor;
+
+    /* Whether the first rows of pets were shown since the activity was created */
+    private boolean mFirstRowsShown;
+
+    /* Text the catalog is currently searching for (null when showing all the pets) */
+    private String mSearchText;
+
+    /* Handler that delays the search until the user stops typing */
+    private final Handler mSearchHandler = new Handler();
+
+    /* Text typed in the search box that is waiting for the debounce delay */
+    private String mPendingSearchText;
+
+    /* Runnable that applies the pending search text once the user stops typing */
+    private final Runnable mSearchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            search(mPendingSearchText);
+        }
+    };
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        PetStartup.mark(PetStartup.MARK_CATALOG_CREATED);
         setContentView(R.layout.activity_catalog);
 
         // Setup FAB to open EditorActivity
@@ -62,24 +172,21 @@ public class CatalogActivity extends AppCompatActivity implements
             }
         });
 
-        // Find the ListView which will be populated with the pet data
-        ListView petListView = (ListView) findViewById(R.id.list);
+        // Find the RecyclerView which will be populated with the pet data
+        RecyclerView petListView = (RecyclerView) findViewById(R.id.list);
+        final LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        petListView.setLayoutManager(layoutManager);
 
-        // Find and set empty view on the ListView
-        // So that it only shows when the list has 0 items
-        View emptyView = findViewById(R.id.empty_view);
-        petListView.setEmptyView(emptyView);
+        // Find the empty view, so that it only shows when the list has 0 items
+        mEmptyView = findViewById(R.id.empty_view);
 
         // Setup an Adapter to create a list item for each row of pet data in the Cursor
-        // There is no pet data yet (until the loader finishes) so pass in null for the Cursor.
-        mCursorAdapter = new PetCursorAdapter(this, null);
-        petListView.setAdapter(mCursorAdapter);
-
+        // There is no pet data yet (until the loader finishes)
         // Setup the item click listener
-        petListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        mCursorAdapter = new PetCursorAdapter(this, new PetCursorAdapter.OnPetClickListener() {
 
             @Override
-            public void onItemClick(AdapterView<?> adapterView, View view, int position, long id) {
+            public void onPetClick(long id) {
 
                 // Create the new intent to go to EditorActivity
                 Intent intent = new Intent(CatalogActivity.this, EditorActivity.class);
@@ -97,10 +204,481 @@ public class CatalogActivity extends AppCompatActivity implements
             }
 
         });
+        petListView.setAdapter(mCursorAdapter);
+
+        // Show or hide the empty view whenever rows are added to or removed from the list
+        mCursorAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+
+            @Override
+            public void onChanged() {
+                updateEmptyView();
+            }
+
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
+
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
+
+        });
+
+        // Load the next page of pets when the user scrolls close to the end of the loaded ones
+        // and only keep the pages around the visible rows loaded
+        // This is also called when the visible rows change after a layout
+        petListView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                int lastVisiblePosition = layoutManager.findLastVisibleItemPosition();
+                if(lastVisiblePosition >= mCursorAdapter.getItemCount() - PREFETCH_DISTANCE) {
+                    loadNextPage();
+                }
+
+                int firstVisiblePosition = layoutManager.findFirstVisibleItemPosition();
+                if(firstVisiblePosition != RecyclerView.NO_POSITION) {
+                    mFirstVisiblePage = getPageAt(firstVisiblePosition);
+                    mLastVisiblePage = getPageAt(lastVisiblePosition);
+                    recyclerView.removeCallbacks(mPageWindowRunnable);
+                    recyclerView.post(mPageWindowRunnable);
+                }
+            }
+
+        });
+
+        // Restore the filters and sort order, and the pages that were loaded before the activity
+        // was recreated
+        // Otherwise, start with the first page of all the pets
+        Bundle queryState = savedInstanceState == null
+                ? null : savedInstanceState.getBundle(STATE_QUERY);
+        mQuery = queryState == null
+                ? new PetQuery.Builder().build() : PetQuery.fromBundle(queryState);
+        long[] pageStarts = savedInstanceState == null
+                ? null : savedInstanceState.getLongArray(STATE_PAGE_STARTS);
+        if(pageStarts == null) {
+            pageStarts = new long[] { 0 };
+        }
+        for(long pageStart : pageStarts) {
+            mPageStarts.add(pageStart);
+        }
+
+        // The sort values of the pages after the first one follow each other
+        int sortColumnCount = mQuery.getSortColumns().length;
+        String[] pageStartValues = savedInstanceState == null
+                ? null : savedInstanceState.getStringArray(STATE_PAGE_START_VALUES);
+        if(pageStartValues != null
+                && pageStartValues.length != (pageStarts.length - 1) * sortColumnCount) {
+            pageStartValues = null;
+        }
+        mPageStartValues.add(null);
+        for(int page = 1; page < pageStarts.length; page++) {
+            mPageStartValues.add(pageStartValues == null ? null : Arrays.copyOfRange(
+                    pageStartValues, (page - 1) * sortColumnCount, page * sortColumnCount));
+        }
+
+        // On a cold launch, draw the first page as it was when the pets last changed, before
+        // the database is opened. The loaded page then replaces it, only updating the rows
+        // that differ
+        if(mQuery.equals(new PetQuery.Builder().build())
+                && getLoaderManager().getLoader(PET_LOADER) == null) {
+            Cursor snapshot = PetSnapshot.read(this);
+            if(snapshot != null) {
+                // The snapshot is already in memory, so its rows are read right away
+                mSnapshotCursor = new PetListCursor(snapshot);
+                swapPages();
+                checkFirstRowsShown();
+            }
+        }
+
+        // Initiate a loader for each page
+        for(int page = 0; page < mPageStarts.size(); page++) {
+            getLoaderManager().initLoader(PET_LOADER + page, null, this);
+        }
+
+    }
+
+    /**
+     * Show the empty view only when the list has 0 items
+     */
+    private void updateEmptyView() {
+        mEmptyView.setVisibility(mCursorAdapter.getItemCount() == 0 ? View.VISIBLE : View.GONE);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+
+        // Drop any search that is still waiting for the debounce delay
+        mSearchHandler.removeCallbacks(mSearchRunnable);
+
+        // Drop any change to the loaded pages that is still waiting
+        findViewById(R.id.list).removeCallbacks(mPageWindowRunnable);
+
+        // Release the displayed cursor, the loaders may hand it to the next instance of the activity
+        mCursorAdapter.swapCursor(null);
+        dropMergedCursor();
+        dropSnapshot();
+        dropPlaceholders();
+    }
+
+    /**
+     * Close the snapshot of the first page, once the page itself is loaded or another query
+     * is shown
+     * The adapter keeps it open for as long as it still displays it
+     */
+    private void dropSnapshot() {
+        if(mSnapshotCursor != null) {
+            mSnapshotCursor.close();
+            mSnapshotCursor = null;
+        }
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+
+        // The photos are decoded again when they are shown
+        if(level >= TRIM_MEMORY_MODERATE) {
+            PetPhotoLoader.getInstance(this).clearCache();
+        }
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+
+        // Remember where each loaded page starts so they can be restored
+        long[] pageStarts = new long[mPageStarts.size()];
+        for(int page = 0; page < pageStarts.length; page++) {
+            pageStarts[page] = mPageStarts.get(page);
+        }
+        outState.putLongArray(STATE_PAGE_STARTS, pageStarts);
+
+        // Only saved if they are known for every page
+        int sortColumnCount = mQuery.getSortColumns().length;
+        String[] pageStartValues = new String[(pageStarts.length - 1) * sortColumnCount];
+        for(int page = 1; page < pageStarts.length; page++) {
+            String[] values = mPageStartValues.get(page);
+            if(values == null) {
+                pageStartValues = null;
+                break;
+            }
+            System.arraycopy(values, 0, pageStartValues, (page - 1) * sortColumnCount,
+                    sortColumnCount);
+        }
+        outState.putStringArray(STATE_PAGE_START_VALUES, pageStartValues);
+        outState.putBundle(STATE_QUERY, mQuery.toBundle());
+    }
+
+    /**
+     * Start loading the page that follows the last loaded one
+     * Nothing is done if the last page is still loading or if it reached the end of the table
+     */
+    private void loadNextPage() {
+        // Search results are not paged
+        if(mSearchText != null) {
+            return;
+        }
+
+        int lastPage = mPageStarts.size() - 1;
+        PetListCursor lastCursor = mPageCursors.get(lastPage);
+        if(lastCursor == null || lastCursor.getIds().length < PAGE_SIZE) {
+            return;
+        }
+
+        // The next page starts after the last pet of the current last page, at its sort
+        // values, which stay valid once that pet is deleted
+        long[] lastIds = lastCursor.getIds();
+        mPageStarts.add(lastIds[lastIds.length - 1]);
+        lastCursor.moveToPosition(lastIds.length - 1);
+        mPageStartValues.add(mQuery.readSortValues(lastCursor));
+
+        // Bound the current last page so it never overlaps the new one when it reloads
+        PetListLoader lastLoader =
+                (PetListLoader) getLoaderManager().<Cursor>getLoader(PET_LOADER + lastPage);
+        if(lastLoader != null) {
+            boundPage(lastLoader, lastPage);
+        }
+
+        getLoaderManager().initLoader(PET_LOADER + lastPage + 1, null, this);
+    }
+
+    /**
+     * Restrict the loader of the given page to the pets before the start of the next page
+     * This keeps the pages from overlapping when rows of a page are deleted
+     */
+    private void boundPage(PetListLoader loader, int page) {
+        if(page + 1 < mPageStarts.size()) {
+            loader.setUpperBound(mPageStarts.get(page + 1), mPageStartValues.get(page + 1));
+        }
+    }
+
+    /**
+     * Return the page of the row at the given position of the pages
+     * Positions past the rows of the pages belong to the last page
+     */
+    private int getPageAt(int position) {
+        int lastPage = mPageStarts.size() - 1;
+        for(int page = 0; page < lastPage; page++) {
+            PetListCursor cursor = mPageCursors.get(page);
+            if(cursor == null) {
+                cursor = mPagePlaceholders.get(page);
+            }
+            if(cursor == null) {
+                return page;
+            }
+            position -= cursor.getIds().length;
+            if(position < 0) {
+                return page;
+            }
+        }
+        return lastPage;
+    }
+
+    /**
+     * Keep the pages within PAGE_WINDOW pages of the visible ones loaded, and drop the loaders
+     * of the others, along with their cursors and observers
+     * The rows of a dropped page stay in the list as placeholders, and the page is loaded
+     * again from its start once it comes back within the window
+     */
+    private void updatePageWindow() {
+        // Search results are not paged
+        if(mSearchText != null) {
+            return;
+        }
+
+        for(int page = 0; page < mPageStarts.size(); page++) {
+            boolean inWindow = page >= mFirstVisiblePage - PAGE_WINDOW
+                    && page <= mLastVisiblePage + PAGE_WINDOW;
+            PetListCursor cursor = mPageCursors.get(page);
+            if(!inWindow && cursor != null) {
+                // The placeholder is swapped in when the loader is reset
+                mPagePlaceholders.put(page, PetListCursor.placeholder(cursor.getIds()));
+                getLoaderManager().destroyLoader(PET_LOADER + page);
+            } else if(inWindow && mPagePlaceholders.get(page) != null
+                    && getLoaderManager().getLoader(PET_LOADER + page) == null) {
+                getLoaderManager().initLoader(PET_LOADER + page, null, this);
+            }
+        }
+    }
+
+    /**
+     * Close the placeholder of the given page, if it has one
+     * The adapter keeps it open for as long as it still displays it
+     */
+    private void dropPlaceholder(int page) {
+        PetListCursor placeholder = mPagePlaceholders.get(page);
+        if(placeholder != null) {
+            placeholder.close();
+            mPagePlaceholders.remove(page);
+        }
+    }
+
+    /**
+     * Close the placeholders of every page
+     */
+    private void dropPlaceholders() {
+        for(int i = 0; i < mPagePlaceholders.size(); i++) {
+            mPagePlaceholders.valueAt(i).close();
+        }
+        mPagePlaceholders.clear();
+    }
+
+    /**
+     * Swap the consecutive pages that have finished loading into the adapter as a single cursor
+     * Pages whose loader was dropped are swapped in as their placeholders
+     */
+    private void swapPages() {
+        // While searching, the adapter shows the search results instead of the pages
+        if(mSearchText != null) {
+            return;
+        }
+
+        ArrayList<PetListCursor> cursors = new ArrayList<PetListCursor>();
+        for(int page = 0; page < mPageStarts.size(); page++) {
+            PetListCursor cursor = mPageCursors.get(page);
+            if(cursor == null) {
+                cursor = mPagePlaceholders.get(page);
+            }
+            if(cursor == null) {
+                break;
+            }
+            cursors.add(cursor);
+        }
+
+        // The page cursors are owned by their loaders, so only the previous merge of them is
+        // closed here, which the adapter keeps open for as long as it still displays it
+        // Until the first page is loaded, its snapshot is shown instead
+        PetListCursor previousMergedCursor = mMergedCursor;
+        mMergedCursor = null;
+        if(cursors.isEmpty() && mSnapshotCursor != null) {
+            mCursorAdapter.swapCursor(mSnapshotCursor);
+        } else if(cursors.isEmpty()) {
+            mCursorAdapter.swapCursor(null);
+        } else if(cursors.size() == 1) {
+            mCursorAdapter.swapCursor(cursors.get(0));
+        } else {
+            mMergedCursor =
+                    PetListCursor.merge(cursors.toArray(new PetListCursor[cursors.size()]));
+            mCursorAdapter.swapCursor(mMergedCursor);
+        }
+        if(previousMergedCursor != null) {
+            previousMergedCursor.close();
+        }
+    }
+
+    /**
+     * Close the merge of the pages, once the adapter no longer shows the pages
+     */
+    private void dropMergedCursor() {
+        if(mMergedCursor != null) {
+            mMergedCursor.close();
+            mMergedCursor = null;
+        }
+    }
+
+    /**
+     * Show the pets of the given query, from its first page
+     * The loader of the first page is kept and queries the new filters and sort order, so the
+     * current pets stay on screen until the new ones are loaded
+     */
+    private void applyQuery(PetQuery query) {
+        if(query.equals(mQuery)) {
+            return;
+        }
+        mQuery = query;
+
+        // The following pages are loaded again as the user scrolls
+        for(int page = mPageStarts.size() - 1; page > 0; page--) {
+            getLoaderManager().destroyLoader(PET_LOADER + page);
+        }
+        mPageStarts.clear();
+        mPageStarts.add(0L);
+        mPageStartValues.clear();
+        mPageStartValues.add(null);
+        dropPlaceholders();
+
+        // The cursor of the first page stays on screen, but no page follows it until the
+        // new query is loaded
+        mPageCursors.remove(0);
+        dropSnapshot();
+
+        PetListLoader loader =
+                (PetListLoader) getLoaderManager().<Cursor>getLoader(PET_LOADER);
+        if(loader != null) {
+            loader.setQuery(query);
+        } else {
+            getLoaderManager().initLoader(PET_LOADER, null, this);
+        }
+    }
+
+    /**
+     * Sort the pets by the given column, or in the order they were added if it is null
+     */
+    private void sortBy(String column) {
+        PetQuery.Builder builder = mQuery.buildUpon().clearSortKeys();
+        if(column != null) {
+            builder.addSortKey(column, false);
+        }
+        applyQuery(builder.build());
+    }
+
+    /**
+     * Let the user choose the filters of the pets shown in the catalog
+     */
+    private void showFilterDialog() {
+        View view = getLayoutInflater().inflate(R.layout.dialog_filter, null);
+        final Spinner genderSpinner = (Spinner) view.findViewById(R.id.spinner_filter_gender);
+        final EditText minWeightEditText =
+                (EditText) view.findViewById(R.id.edit_filter_min_weight);
+        final EditText maxWeightEditText =
+                (EditText) view.findViewById(R.id.edit_filter_max_weight);
+        final EditText breedEditText = (EditText) view.findViewById(R.id.edit_filter_breed);
+        final EditText namePrefixEditText =
+                (EditText) view.findViewById(R.id.edit_filter_name_prefix);
+
+        // The first option keeps every gender, the others follow the gender constants
+        ArrayAdapter genderSpinnerAdapter = ArrayAdapter.createFromResource(this,
+                R.array.array_gender_filter_options, android.R.layout.simple_spinner_item);
+        genderSpinnerAdapter.setDropDownViewResource(android.R.layout.simple_dropdown_item_1line);
+        genderSpinner.setAdapter(genderSpinnerAdapter);
+
+        // Start from the current filters
+        if(mQuery.getGender() != null) {
+            genderSpinner.setSelection(mQuery.getGender() + 1);
+        }
+        if(mQuery.getMinWeight() != null) {
+            minWeightEditText.setText(String.valueOf(mQuery.getMinWeight()));
+        }
+        if(mQuery.getMaxWeight() != null) {
+            maxWeightEditText.setText(String.valueOf(mQuery.getMaxWeight()));
+        }
+        breedEditText.setText(mQuery.getBreed());
+        namePrefixEditText.setText(mQuery.getNamePrefix());
+
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle(R.string.filter_dialog_title);
+        builder.setView(view);
+        builder.setPositiveButton(R.string.apply, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int id) {
+                // User clicked the "Apply" button
+                PetQuery.Builder queryBuilder = mQuery.buildUpon().clearFilters();
+                int genderPosition = genderSpinner.getSelectedItemPosition();
+                if(genderPosition > 0) {
+                    queryBuilder.setGender(genderPosition - 1);
+                }
+                Integer minWeight = parseWeight(minWeightEditText);
+                if(minWeight != null) {
+                    queryBuilder.setMinWeight(minWeight);
+                }
+                Integer maxWeight = parseWeight(maxWeightEditText);
+                if(maxWeight != null) {
+                    queryBuilder.setMaxWeight(maxWeight);
+                }
+                String breed = breedEditText.getText().toString().trim();
+                if(!TextUtils.isEmpty(breed)) {
+                    queryBuilder.setBreed(breed);
+                }
+                queryBuilder.setNamePrefix(namePrefixEditText.getText().toString().trim());
+                applyQuery(queryBuilder.build());
+            }
+        });
+        builder.setNeutralButton(R.string.clear, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int id) {
+                // User clicked the "Clear" button
+                applyQuery(mQuery.buildUpon().clearFilters().build());
+            }
+        });
+        builder.setNegativeButton(R.string.cancel, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int id) {
+                // User clicked the "Cancel" button, keep the current filters
+                if (dialog != null) {
+                    dialog.dismiss();
+                }
+            }
+        });
 
-        // Initiate the loader
-        getLoaderManager().initLoader(PET_LOADER, null, this);
+        // Create and show the AlertDialog
+        AlertDialog alertDialog = builder.create();
+        alertDialog.show();
+    }
 
+    /**
+     * Return the weight typed in the given field, null if it is empty or not a number
+     */
+    private static Integer parseWeight(EditText editText) {
+        String text = editText.getText().toString().trim();
+        if(TextUtils.isEmpty(text)) {
+            return null;
+        }
+        try {
+            return Integer.parseInt(text);
+        } catch(NumberFormatException e) {
+            return null;
+        }
     }
 
     /**
@@ -123,12 +701,67 @@ public class CatalogActivity extends AppCompatActivity implements
         Uri newUri = getContentResolver().insert(PetEntry.CONTENT_URI, values);
     }
 
+    /**
+     * Let the user pick a CSV or JSON file of pets to import
+     */
+    private void pickPetsToImport() {
+        Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
+        intent.setType("*/*");
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        startActivityForResult(intent, REQUEST_IMPORT_PETS);
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        if(requestCode == REQUEST_IMPORT_PETS) {
+            // Import the picked file in the background, the catalog updates as chunks commit
+            if(resultCode == RESULT_OK && data != null && data.getData() != null) {
+                Intent intent = new Intent(this, PetImportService.class);
+                intent.setData(data.getData());
+                intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+                startService(intent);
+            }
+            return;
+        }
+        super.onActivityResult(requestCode, resultCode, data);
+    }
+
     /**
      * Helper method to delete all pets in the database
+     * The pets are deleted by the write queue, and a toast shows the result once it is done
      */
     private void deleteAllPets() {
-        int rowsDeleted = getContentResolver().delete(PetEntry.CONTENT_URI, null, null);
-        Log.v("CatalogActivity", rowsDeleted + " rows deleted from pet database");
+        // The application context is used, since the activity may be gone by then
+        final Context context = getApplicationContext();
+        PetWriteQueue.getInstance(this).deleteAll(new PetWriteQueue.Callback() {
+            @Override
+            public void onWriteFinished(boolean success) {
+                Toast.makeText(context, success ? R.string.catalog_delete_all_pets_successful
+                        : R.string.catalog_delete_all_pets_failed, Toast.LENGTH_SHORT).show();
+            }
+        });
+    }
+
+    /**
+     * Show the pets matching the given text, or all the pets if the text is empty
+     * The search runs in a loader, off the main thread
+     */
+    private void search(String text) {
+        text = text == null ? null : text.trim();
+        if(TextUtils.isEmpty(text)) {
+            if(mSearchText != null) {
+                // Go back to the pages of all the pets
+                mSearchText = null;
+                getLoaderManager().destroyLoader(SEARCH_LOADER);
+                swapPages();
+            }
+            return;
+        }
+
+        if(!text.equals(mSearchText)) {
+            mSearchText = text;
+            getLoaderManager().restartLoader(SEARCH_LOADER, null, this);
+        }
     }
 
     @Override
@@ -136,6 +769,48 @@ public class CatalogActivity extends AppCompatActivity implements
         // Inflate the menu options from the res/menu/menu_catalog.xml file.
         // This adds menu items to the app bar.
         getMenuInflater().inflate(R.menu.menu_catalog, menu);
+
+        // Search as the user types, once they pause for SEARCH_DEBOUNCE_MILLIS
+        SearchView searchView =
+                (SearchView) MenuItemCompat.getActionView(menu.findItem(R.id.action_search));
+        searchView.setQueryHint(getString(R.string.search_hint));
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                // Search right away when the user submits the text
+                mSearchHandler.removeCallbacks(mSearchRunnable);
+                search(query);
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                mPendingSearchText = newText;
+                mSearchHandler.removeCallbacks(mSearchRunnable);
+                mSearchHandler.postDelayed(mSearchRunnable, SEARCH_DEBOUNCE_MILLIS);
+                return true;
+            }
+
+        });
+        return true;
+    }
+
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        super.onPrepareOptionsMenu(menu);
+
+        // Check the current sort order
+        String sort = mQuery.getSort();
+        int sortItemId;
+        if(PetEntry.COLUMN_PET_NAME.equals(sort)) {
+            sortItemId = R.id.action_sort_name;
+        } else if(PetEntry.COLUMN_PET_WEIGHT.equals(sort)) {
+            sortItemId = R.id.action_sort_weight;
+        } else {
+            sortItemId = R.id.action_sort_date_added;
+        }
+        menu.findItem(sortItemId).setChecked(true);
         return true;
     }
 
@@ -143,10 +818,28 @@ public class CatalogActivity extends AppCompatActivity implements
     public boolean onOptionsItemSelected(MenuItem item) {
         // User clicked on a menu option in the app bar overflow menu
         switch (item.getItemId()) {
+            // Respond to a click on one of the "Sort by" menu options
+            case R.id.action_sort_date_added:
+                sortBy(null);
+                return true;
+            case R.id.action_sort_name:
+                sortBy(PetEntry.COLUMN_PET_NAME);
+                return true;
+            case R.id.action_sort_weight:
+                sortBy(PetEntry.COLUMN_PET_WEIGHT);
+                return true;
+            // Respond to a click on the "Filter" menu option
+            case R.id.action_filter:
+                showFilterDialog();
+                return true;
             // Respond to a click on the "Insert dummy data" menu option
             case R.id.action_insert_dummy_data:
                 insertPet();
                 return true;
+            // Respond to a click on the "Import pets" menu option
+            case R.id.action_import_pets:
+                pickPetsToImport();
+                return true;
             // Respond to a click on the "Delete all entries" menu option
             case R.id.action_delete_all_entries:
                 deleteAllPets();
@@ -157,31 +850,90 @@ public class CatalogActivity extends AppCompatActivity implements
 
     @Override
     public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
-        // Defines a projection that specifies the columns from the table
-        String[] projection = {
-                PetEntry._ID,
-                PetEntry.COLUMN_PET_NAME,
-                PetEntry.COLUMN_PET_BREED };
+        // Only the columns displayed by the list are queried
+        String[] projection = PetReader.LIST_COLUMNS;
+
+        // The search loader loads the best matches for the search text
+        if(i == SEARCH_LOADER) {
+            Uri searchUri = PetEntry.buildSearchUri(mSearchText).buildUpon()
+                    .appendQueryParameter(PetEntry.QUERY_PARAMETER_LIMIT,
+                            String.valueOf(SEARCH_LIMIT))
+                    .build();
+            return new PetListLoader(this, searchUri, projection, null, null, null);
+        }
+
+        // Each page only loads the pets of the query that follow the start of the page,
+        // in the sort order of the query
+        int page = i - PET_LOADER;
 
         // The loader will execute the ContentProvider's query method on a background thread
-        return new CursorLoader(this, // Parent activity context
-                PetEntry.CONTENT_URI, // Provider content URI to query
+        PetListLoader loader = new PetListLoader(this, // Parent activity context
                 projection, // Columns to include in the resulting Cursor
-                null, // No selection clause
-                null, // No selection arguments
-                null); // Default sort order
+                mQuery, // Filters and sort order of the pets
+                mPageStarts.get(page), // The page starts after this pet
+                mPageStartValues.get(page), // Sort values of that pet
+                PAGE_SIZE); // Maximum number of pets in the page
+        boundPage(loader, page);
+        return loader;
     }
 
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        // Update PetCursorAdapter with this new cursor containing updated pet data
-        mCursorAdapter.swapCursor(data);
+        // Show the search results in place of the pages
+        if(loader.getId() == SEARCH_LOADER) {
+            mCursorAdapter.swapCursor((PetListCursor) data);
+            dropMergedCursor();
+            return;
+        }
+
+        // Update PetCursorAdapter with the pages including this new cursor of updated pet data
+        // The first page replaces its snapshot, and a page that was dropped its placeholder
+        if(loader.getId() == PET_LOADER) {
+            dropSnapshot();
+        }
+        dropPlaceholder(loader.getId() - PET_LOADER);
+        mPageCursors.put(loader.getId() - PET_LOADER, (PetListCursor) data);
+        swapPages();
+        checkFirstRowsShown();
+    }
+
+    /**
+     * Record the startup marker of the first rows once the list is about to draw them, from
+     * the snapshot or from the first page
+     */
+    private void checkFirstRowsShown() {
+        if(mFirstRowsShown || mCursorAdapter.getItemCount() == 0) {
+            return;
+        }
+        mFirstRowsShown = true;
+
+        final View listView = findViewById(R.id.list);
+        listView.getViewTreeObserver().addOnPreDrawListener(
+                new ViewTreeObserver.OnPreDrawListener() {
+
+                    @Override
+                    public boolean onPreDraw() {
+                        listView.getViewTreeObserver().removeOnPreDrawListener(this);
+                        PetStartup.mark(PetStartup.MARK_FIRST_ROWS_DRAWN);
+                        return true;
+                    }
+
+                });
     }
 
     @Override
     public void onLoaderReset(Loader<Cursor> loader) {
+        // The search results are going away, the pages are swapped back in by search()
+        if(loader.getId() == SEARCH_LOADER) {
+            if(mSearchText != null) {
+                mCursorAdapter.swapCursor(null);
+            }
+            return;
+        }
+
         // Callback called when the data needs to be deleted
-        mCursorAdapter.swapCursor(null);
+        mPageCursors.remove(loader.getId() - PET_LOADER);
+        swapPages();
     }
 
 }
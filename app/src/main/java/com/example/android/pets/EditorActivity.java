@@ -17,7 +17,9 @@ package com.example.android.pets;
 
 import android.app.AlertDialog;
 import android.app.LoaderManager;
+import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.CursorLoader;
 import android.content.DialogInterface;
 import android.content.Intent;
@@ -35,10 +37,14 @@ import android.view.View;
 import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
 import android.widget.EditText;
+import android.widget.ImageView;
 import android.widget.Spinner;
 import android.widget.Toast;
 
+import com.example.android.pets.data.Pet;
 import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetReader;
+import com.example.android.pets.data.PetWriteQueue;
 
 /**
  * Allows user to create a new pet or edit an existing one.
@@ -49,9 +55,18 @@ public class EditorActivity extends AppCompatActivity implements
     /* Identifier for the pet data loader */
     private static final int EXISTING_PET_LOADER = 0;
 
+    /* Request code for picking a new photo of the pet */
+    private static final int REQUEST_PICK_PHOTO = 1;
+
+    /* Key for the picked photo in the saved instance state */
+    private static final String STATE_PICKED_PHOTO = "picked_photo";
+
     /* Content URI for the existing pet (null if it is a new pet) */
     private Uri mCurrentPetUri;
 
+    /* Reads the edited attributes of the pet, the only columns the loader queries */
+    private final PetReader mPetReader = new PetReader(PetReader.EDITOR_COLUMNS);
+
     /**
      * EditText field to enter the pet's name
      */
@@ -72,6 +87,17 @@ public class EditorActivity extends AppCompatActivity implements
      */
     private Spinner mGenderSpinner;
 
+    /**
+     * ImageView showing the pet's photo, tapped to pick a new one
+     */
+    private ImageView mPhotoImageView;
+
+    /* Size of mPhotoImageView in pixels, the photo is decoded at about that size */
+    private int mPhotoSize;
+
+    /* Image picked as the new photo of the pet (null to keep the current photo) */
+    private Uri mPickedPhotoUri;
+
     /**
      * Gender of the pet. The possible values are in PetContract.java file:
      * GENDER_UNKNOWN, GENDER_MALE or GENDER_FEMALE
@@ -126,14 +152,58 @@ public class EditorActivity extends AppCompatActivity implements
         mBreedEditText = (EditText) findViewById(R.id.edit_pet_breed);
         mWeightEditText = (EditText) findViewById(R.id.edit_pet_weight);
         mGenderSpinner = (Spinner) findViewById(R.id.spinner_gender);
+        mPhotoImageView = (ImageView) findViewById(R.id.image_pet_photo);
+        mPhotoSize = getResources().getDimensionPixelSize(R.dimen.editor_photo_size);
 
         // Setup OnTouchListener on all input fields
         mNameEditText.setOnTouchListener(mTouchListener);
         mBreedEditText.setOnTouchListener(mTouchListener);
         mGenderSpinner.setOnTouchListener(mTouchListener);
         mWeightEditText.setOnTouchListener(mTouchListener);
+        mPhotoImageView.setOnTouchListener(mTouchListener);
 
         setupSpinner();
+
+        // Let the user pick a new photo when tapping the current one
+        mPhotoImageView.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                Intent pickIntent = new Intent(Intent.ACTION_GET_CONTENT);
+                pickIntent.setType("image/*");
+                pickIntent.addCategory(Intent.CATEGORY_OPENABLE);
+                startActivityForResult(pickIntent, REQUEST_PICK_PHOTO);
+            }
+        });
+
+        // Show the photo that was picked before the activity was recreated
+        if(savedInstanceState != null) {
+            mPickedPhotoUri = savedInstanceState.getParcelable(STATE_PICKED_PHOTO);
+            if(mPickedPhotoUri != null) {
+                PetPhotoLoader.getInstance(this).loadImage(mPhotoImageView, mPickedPhotoUri,
+                        mPhotoSize);
+            }
+        }
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putParcelable(STATE_PICKED_PHOTO, mPickedPhotoUri);
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        if(requestCode == REQUEST_PICK_PHOTO) {
+            // Show the picked image, it is only copied to the provider when the pet is saved
+            if(resultCode == RESULT_OK && data != null && data.getData() != null) {
+                mPickedPhotoUri = data.getData();
+                mPetHasChanged = true;
+                PetPhotoLoader.getInstance(this).loadImage(mPhotoImageView, mPickedPhotoUri,
+                        mPhotoSize);
+            }
+            return;
+        }
+        super.onActivityResult(requestCode, resultCode, data);
     }
 
     /**
@@ -188,7 +258,7 @@ public class EditorActivity extends AppCompatActivity implements
         // Check if all the fields in the editor are blank
         if (mCurrentPetUri == null && TextUtils.isEmpty(nameString) &&
                 TextUtils.isEmpty(breedString) && TextUtils.isEmpty(weightString)
-                && mGender == PetEntry.GENDER_UNKNOWN) {
+                && mGender == PetEntry.GENDER_UNKNOWN && mPickedPhotoUri == null) {
             // Since no fields are modified, return early without creating a new pet
             return;
         }
@@ -211,37 +281,18 @@ public class EditorActivity extends AppCompatActivity implements
         // is null or not
         if (mCurrentPetUri == null) {
             // This is a new pet
-            // Insert a new pet into the provider
-            // Return the content URI for the new pet
-            Uri newUri = getContentResolver().insert(PetEntry.CONTENT_URI, values);
-
-            // Show a toast message depending on whether or not the insertion was successful
-            if (newUri == null) {
-                // If the new URI content is null, then there was an error inserting the new pet
-                Toast.makeText(this, getString(R.string.editor_insert_pet_failed),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                // Otherwise, the insertion was successful and a toast message is displayed
-                Toast.makeText(this, getString(R.string.editor_insert_pet_successful),
-                        Toast.LENGTH_SHORT).show();
-            }
+            // Queue the insertion of the new pet, the activity is closed without waiting for it
+            // The picked photo, if any, is copied once the pet is inserted
+            PetWriteQueue.getInstance(this).insert(values, mPickedPhotoUri,
+                    new ToastCallback(this, R.string.editor_insert_pet_successful,
+                            R.string.editor_insert_pet_failed));
         } else {
             // This is an existing pet
-            // Update the pet with content URI mCurrentPetUri and pass in the new ContentValues
-            // Pass in null for the selection and selectionArgs because mCurrentPetUri will
-            // already identify the correct row in the database that needs to be modified
-            int rowsAffected = getContentResolver().update(mCurrentPetUri, values, null, null);
-
-            // Show a toast message depending on whether or not the update was successful
-            if (rowsAffected == 0) {
-                // If no rows were affected, then there was an error updating the current pet
-                Toast.makeText(this, getString(R.string.editor_update_pet_failed),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                // Otherwise, the update was successful and a toast message is displayed
-                Toast.makeText(this, getString(R.string.editor_update_pet_successful),
-                        Toast.LENGTH_SHORT).show();
-            }
+            // Queue the update of the pet with content URI mCurrentPetUri, a previous save of
+            // the same pet that has not been written yet is merged with it
+            PetWriteQueue.getInstance(this).update(mCurrentPetUri, values, mPickedPhotoUri,
+                    new ToastCallback(this, R.string.editor_update_pet_successful,
+                            R.string.editor_update_pet_failed));
         }
     }
 
@@ -337,18 +388,10 @@ public class EditorActivity extends AppCompatActivity implements
 
     @Override
     public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
-        // Define a projection that contains all columns from the pets table
-        String[] projection = {
-                PetEntry._ID,
-                PetEntry.COLUMN_PET_NAME,
-                PetEntry.COLUMN_PET_BREED,
-                PetEntry.COLUMN_PET_GENDER,
-                PetEntry.COLUMN_PET_WEIGHT};
-
         // The loader will execute the ContentProvider's query method on a background thread
         return new CursorLoader(this, // Parent activity context
                 mCurrentPetUri, // Query the content URI for the current pet
-                projection, // Columns to include in the resulting cursor
+                mPetReader.getProjection(), // Only the columns shown in the editor
                 null, // No selection clause
                 null, // No selection arguments
                 null); // Default sort order
@@ -364,28 +407,20 @@ public class EditorActivity extends AppCompatActivity implements
         // Proceed with moving to the first row of the cursor and reading data from it
         // This should be the only row in the cursor
         if (cursor.moveToFirst()) {
-            // Find the columns of pet attributes
-            int nameColumnIndex = cursor.getColumnIndex(PetEntry.COLUMN_PET_NAME);
-            int breedColumnIndex = cursor.getColumnIndex(PetEntry.COLUMN_PET_BREED);
-            int genderColumnIndex = cursor.getColumnIndex(PetEntry.COLUMN_PET_GENDER);
-            int weightColumnIndex = cursor.getColumnIndex(PetEntry.COLUMN_PET_WEIGHT);
-
-            // Extract out the value from the cursor for the given column index
-            String name = cursor.getString(nameColumnIndex);
-            String breed = cursor.getString(breedColumnIndex);
-            int gender = cursor.getInt(genderColumnIndex);
-            int weight = cursor.getInt(weightColumnIndex);
+            // Read the pet attributes, the reader finds their columns once per cursor
+            Pet pet = mPetReader.read(cursor);
 
             // Update the views on the screen with the values from the database
-            mNameEditText.setText(name);
-            mBreedEditText.setText(breed);
-            mWeightEditText.setText(weight);
+            mNameEditText.setText(pet.getName());
+            mBreedEditText.setText(pet.getBreed());
+            // The weight is shown as text, not looked up as a string resource
+            mWeightEditText.setText(String.valueOf(pet.getWeight()));
 
             // Gender options are in a dropdown spinner
             // Map the constant value from the database into one of the dropdown options
             // (0 is UNKNOWN, 1 is MALE, 2 is FEMALE)
             // Then call setSelection() so that option is displayed on screen as the current selection
-            switch (gender) {
+            switch (pet.getGender()) {
                 case PetEntry.GENDER_MALE:
                     mGenderSpinner.setSelection(1);
                     break;
@@ -396,6 +431,12 @@ public class EditorActivity extends AppCompatActivity implements
                     mGenderSpinner.setSelection(0);
                     break;
             }
+
+            // Show the thumbnail of the current photo, unless a new one was picked
+            if(mPickedPhotoUri == null) {
+                PetPhotoLoader.getInstance(this).loadThumbnail(mPhotoImageView,
+                        ContentUris.parseId(mCurrentPetUri), pet.getPhoto(), mPhotoSize);
+            }
         }
     }
 
@@ -406,6 +447,9 @@ public class EditorActivity extends AppCompatActivity implements
         mBreedEditText.setText("");
         mWeightEditText.setText("");
         mGenderSpinner.setSelection(0); // Set "UNKNOWN" as the default gender
+        if(mPickedPhotoUri == null) {
+            PetPhotoLoader.getInstance(this).loadImage(mPhotoImageView, null, mPhotoSize);
+        }
     }
 
     private void showUnsavedChangesDialog(
@@ -466,26 +510,37 @@ public class EditorActivity extends AppCompatActivity implements
     private void deletePet() {
         // Only perform the delete if this is an existing pet
         if(mCurrentPetUri != null) {
-            // Call the ContentResolver to delete the pet at the given content URI
-            // Pass in null for the selection and selectionArgs because the
-            // mCurrentPetUri content URI already identifies the pet to delete
-            int rowsDeleted = getContentResolver().delete(mCurrentPetUri, null, null);
-
-            // Show a toast message depending on whether or not the delete was successful
-            if(rowsDeleted == 0) {
-                // If no rows were deleted, then there was an error deleting the current pet
-                Toast.makeText(this, getString(R.string.editor_delete_pet_failed),
-                        Toast.LENGTH_SHORT).show();
-            }
-            else {
-                // Otherwise, the delete was successful and a toast message is displayed
-                Toast.makeText(this, getString(R.string.editor_delete_pet_successful),
-                        Toast.LENGTH_SHORT).show();
-            }
+            // Queue the deletion of the pet at the given content URI, after any pending
+            // save of the same pet
+            PetWriteQueue.getInstance(this).delete(mCurrentPetUri,
+                    new ToastCallback(this, R.string.editor_delete_pet_successful,
+                            R.string.editor_delete_pet_failed));
         }
 
         // Close the activity
         finish();
     }
 
-}
\ No newline at end of file
+    /**
+     * Shows a toast message depending on whether or not a queued write was successful
+     * The application context is used, since the activity is usually finished by then
+     */
+    private static class ToastCallback implements PetWriteQueue.Callback {
+
+        private final Context mContext;
+        private final int mSuccessMessage;
+        private final int mFailureMessage;
+
+        ToastCallback(Context context, int successMessage, int failureMessage) {
+            mContext = context.getApplicationContext();
+            mSuccessMessage = successMessage;
+            mFailureMessage = failureMessage;
+        }
+
+        @Override
+        public void onWriteFinished(boolean success) {
+            Toast.makeText(mContext, success ? mSuccessMessage : mFailureMessage,
+                    Toast.LENGTH_SHORT).show();
+        }
+    }
+}
@@ -1,81 +1,307 @@
 package com.example.android.pets;
 
 import android.content.Context;
-import android.database.Cursor;
-import android.text.TextUtils;
+import android.database.CharArrayBuffer;
+import android.os.AsyncTask;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.CursorAdapter;
+import android.widget.ImageView;
 import android.widget.TextView;
 
-import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetReader;
 
 /**
  * Created by hanssi on 9/19/16.
  */
 
 /**
- * PetCursorAdapter is an adapter for a list view that uses a Cursor of pet data as its
- * data source. This adapter will create list items for each row of pet data in the
+ * PetCursorAdapter is an adapter for a recycler view that uses a PetListCursor of pet data as
+ * its data source. This adapter will create list items for each row of pet data in the
  * Cursor
+ *
+ * When a new cursor is swapped in, the rows that were inserted, removed or changed are found
+ * on a background thread by their _ID, and only those list items are updated
+ * The photos are shown as thumbnails loaded by PetPhotoLoader, never decoded at full size
  */
-public class PetCursorAdapter extends CursorAdapter {
+public class PetCursorAdapter extends RecyclerView.Adapter<PetCursorAdapter.ViewHolder> {
+
+    /* Initial capacity of the buffers that the name and breed of a pet are copied into */
+    private static final int TEXT_BUFFER_SIZE = 64;
+
+    /* Rows of a list without any pet */
+    private static final long[] NO_ROWS = new long[0];
+
+    /**
+     * Interface to be notified when a pet of the list is clicked
+     */
+    public interface OnPetClickListener {
+        /**
+         * Called when the list item of the pet with the given _ID is clicked
+         */
+        void onPetClick(long id);
+    }
+
+    /* Context of this app */
+    private final Context mContext;
+
+    /* Listener notified when a list item is clicked */
+    private final OnPetClickListener mClickListener;
+
+    /* Text shown when the breed of a pet is unknown, loaded once for all the rows */
+    private final char[] mUnknownBreed;
+
+    /* Cursor currently displayed, null if there is none */
+    private PetListCursor mCursor;
+
+    /* _ID and hash of the displayed attributes of each row currently displayed */
+    private long[] mIds = NO_ROWS;
+    private long[] mHashes = NO_ROWS;
+
+    /* Loads the thumbnails of the photos, and size of the views they are shown in */
+    private final PetPhotoLoader mPhotoLoader;
+    private final int mPhotoSize;
+
+    /* Copies the name and breed of the rows, finding their columns once per cursor */
+    private final PetReader mPetReader = new PetReader(PetReader.LIST_COLUMNS);
+
+    /* Incremented by every swap, so the result of an outdated comparison is dropped */
+    private int mSwapGeneration;
 
     /**
      * Constructs a new PetCursorAdapter
      * @param context The context
-     * @param cursor The cursor from which to get data
+     * @param clickListener The listener to notify when a pet is clicked
      */
-    public PetCursorAdapter(Context context, Cursor cursor) {
-        super(context, cursor, 0 /* flags */);
+    public PetCursorAdapter(Context context, OnPetClickListener clickListener) {
+        mContext = context;
+        mClickListener = clickListener;
+        mUnknownBreed = context.getString(R.string.unknown_breed).toCharArray();
+        mPhotoLoader = PetPhotoLoader.getInstance(context);
+        mPhotoSize = context.getResources().getDimensionPixelSize(R.dimen.list_photo_size);
+        setHasStableIds(true);
+    }
+
+    /**
+     * Swap in a new cursor
+     * The rows of the old and new cursors are compared on a background thread, then the new
+     * cursor is displayed and only the list items that differ are updated
+     * The cursors are owned by their loaders, the displayed cursor is only retained so it stays
+     * open until it is replaced
+     * @param newCursor The new cursor to be used, may be null
+     */
+    public void swapCursor(PetListCursor newCursor) {
+        if(newCursor == mCursor) {
+            return;
+        }
+        mSwapGeneration++;
+
+        // Without a new cursor there is nothing to compare, just clear the list
+        if(newCursor == null) {
+            if(mCursor != null) {
+                mCursor.release();
+            }
+            mCursor = null;
+            mIds = NO_ROWS;
+            mHashes = NO_ROWS;
+            notifyDataSetChanged();
+            return;
+        }
+
+        // Without any displayed row, every row is new and there is nothing to compare
+        if(mIds.length == 0) {
+            applyCursor(newCursor, null);
+            return;
+        }
+
+        new DiffTask(mSwapGeneration, newCursor, mIds, mHashes).execute();
+    }
+
+    /**
+     * Display the given cursor, once its rows have been compared to the displayed ones
+     * The diff is null when no row was displayed, then all the rows are inserted
+     */
+    private void applyCursor(PetListCursor cursor, DiffUtil.DiffResult diff) {
+        // Keep the new cursor open while it is displayed, and let the old one be closed
+        cursor.retain();
+        if(mCursor != null) {
+            mCursor.release();
+        }
+        mCursor = cursor;
+        mIds = cursor.getIds();
+        mHashes = cursor.getHashes();
+
+        if(diff == null) {
+            notifyItemRangeInserted(0, mIds.length);
+        } else {
+            diff.dispatchUpdatesTo(this);
+        }
+    }
+
+    @Override
+    public int getItemCount() {
+        return mIds.length;
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return mIds[position];
     }
 
     /**
      * Make a new blank list item view
      * No data is set to the views yet
-     * @param context Context of this app
-     * @param cursor The cursor from which to get data, it is already moved to the correct row
      * @param parent The parent to which the new view is attached to
-     * @return the newly created list item view
+     * @param viewType The view type of the new view, there is only one
+     * @return the holder of the newly created list item view
      */
     @Override
-    public View newView(Context context, Cursor cursor, ViewGroup parent) {
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
 
         // Inflate a list item view using the layout specified in list_item.xml
-        return LayoutInflater.from(context).inflate(R.layout.list_item, parent, false);
+        View view = LayoutInflater.from(mContext).inflate(R.layout.list_item, parent, false);
+
+        // Find the individual views once and keep them in the holder
+        return new ViewHolder(view);
     }
 
     /**
-     * This method binds the pet data (in the current row pointed to by the cursor) to the given
+     * This method binds the pet data (in the given row of the cursor) to the given
      * list item layout.
-     * @param view Returned by newView() method
-     * @param context Context of this app
-     * @param cursor The cursor from which to get data, it is already moved to the correct row
+     * @param holder Returned by onCreateViewHolder() method
+     * @param position The position of the row in the cursor
      */
     @Override
-    public void bindView(View view, Context context, Cursor cursor) {
+    public void onBindViewHolder(ViewHolder holder, int position) {
+        if(!mCursor.moveToPosition(position)) {
+            return;
+        }
 
-        // Find individual views to modify in the list item layout
-        TextView nameTextView = (TextView) view.findViewById(R.id.name);
-        TextView summaryTextView = (TextView) view.findViewById(R.id.summary);
+        // The rows of a page that is not loaded are left blank until it is loaded again
+        if(mHashes[position] == PetListCursor.PLACEHOLDER_HASH) {
+            holder.mNameTextView.setText(null);
+            holder.mSummaryTextView.setText(null);
+            mPhotoLoader.loadThumbnail(holder.mPhotoImageView, mIds[position], null, mPhotoSize);
+            return;
+        }
 
-        // Find the columns of pet attributes
-        int nameColumnIndex = cursor.getColumnIndex(PetEntry.COLUMN_PET_NAME);
-        int breedColumnIndex = cursor.getColumnIndex(PetEntry.COLUMN_PET_BREED);
+        // Copy the pet attributes from the Cursor for the current pet into the buffers of
+        // this list item, so no String is created for the row
+        mPetReader.copyName(mCursor, holder.mNameBuffer);
+        mPetReader.copyBreed(mCursor, holder.mBreedBuffer);
 
-        // Read the pet attributes from the Cursor for the current pet
-        String petName = cursor.getString(nameColumnIndex);
-        String petBreed = cursor.getString(breedColumnIndex);
+        // Update the TextViews with the attributes for the current pet
+        // The buffers are only changed right before the next setText() on the same view
+        holder.mNameTextView.setText(holder.mNameBuffer.data, 0, holder.mNameBuffer.sizeCopied);
 
         // If the pet breed is empty string or null, then use the default string
-        if(TextUtils.isEmpty(petBreed)) {
-            petBreed = context.getString(R.string.unknown_breed);
+        if(holder.mBreedBuffer.sizeCopied == 0) {
+            holder.mSummaryTextView.setText(mUnknownBreed, 0, mUnknownBreed.length);
+        } else {
+            holder.mSummaryTextView.setText(holder.mBreedBuffer.data, 0,
+                    holder.mBreedBuffer.sizeCopied);
         }
 
-        // Update the TextViews with the attributes for the current pet
-        nameTextView.setText(petName);
-        summaryTextView.setText(petBreed);
+        // Show the thumbnail of the photo, from the memory cache or once it is decoded
+        mPhotoLoader.loadThumbnail(holder.mPhotoImageView, mIds[position],
+                mPetReader.readPhoto(mCursor), mPhotoSize);
+    }
+
+    /**
+     * Views and text buffers of a single list item
+     */
+    class ViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
+
+        /* TextView that displays the name of the pet */
+        final TextView mNameTextView;
+
+        /* TextView that displays the breed of the pet */
+        final TextView mSummaryTextView;
+
+        /* ImageView that displays the photo of the pet */
+        final ImageView mPhotoImageView;
+
+        /* Buffers the name and breed of the pet are copied into */
+        final CharArrayBuffer mNameBuffer = new CharArrayBuffer(TEXT_BUFFER_SIZE);
+        final CharArrayBuffer mBreedBuffer = new CharArrayBuffer(TEXT_BUFFER_SIZE);
+
+        ViewHolder(View view) {
+            super(view);
+            mNameTextView = (TextView) view.findViewById(R.id.name);
+            mSummaryTextView = (TextView) view.findViewById(R.id.summary);
+            mPhotoImageView = (ImageView) view.findViewById(R.id.photo);
+            view.setOnClickListener(this);
+        }
 
+        @Override
+        public void onClick(View view) {
+            // Ignore clicks on a list item that is being removed
+            if(getAdapterPosition() != RecyclerView.NO_POSITION) {
+                mClickListener.onPetClick(getItemId());
+            }
+        }
+    }
+
+    /**
+     * Compares the rows of a new cursor to the displayed ones on a background thread,
+     * then displays the new cursor on the main thread
+     * The new cursor is retained until then, so it stays open even if its result is dropped
+     */
+    private class DiffTask extends AsyncTask<Void, Void, DiffUtil.DiffResult> {
+
+        private final int mGeneration;
+        private final PetListCursor mNewCursor;
+        private final long[] mOldIds;
+        private final long[] mOldHashes;
+
+        DiffTask(int generation, PetListCursor newCursor, long[] oldIds, long[] oldHashes) {
+            mGeneration = generation;
+            mNewCursor = newCursor;
+            mOldIds = oldIds;
+            mOldHashes = oldHashes;
+            newCursor.retain();
+        }
+
+        @Override
+        protected DiffUtil.DiffResult doInBackground(Void... params) {
+            // Only the _ID and hash arrays are read here, never the cursors themselves
+            final long[] newIds = mNewCursor.getIds();
+            final long[] newHashes = mNewCursor.getHashes();
+            return DiffUtil.calculateDiff(new DiffUtil.Callback() {
+
+                @Override
+                public int getOldListSize() {
+                    return mOldIds.length;
+                }
+
+                @Override
+                public int getNewListSize() {
+                    return newIds.length;
+                }
+
+                @Override
+                public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+                    return mOldIds[oldItemPosition] == newIds[newItemPosition];
+                }
+
+                @Override
+                public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+                    return mOldHashes[oldItemPosition] == newHashes[newItemPosition];
+                }
+
+            }, false);
+        }
+
+        @Override
+        protected void onPostExecute(DiffUtil.DiffResult diff) {
+            // Drop the result if another cursor was swapped in since this one
+            // The cursor is retained again by applyCursor while it is displayed
+            if(mGeneration == mSwapGeneration) {
+                applyCursor(mNewCursor, diff);
+            }
+            mNewCursor.release();
+        }
     }
 }
@@ -0,0 +1,79 @@
+package com.example.android.pets;
+
+import android.app.IntentService;
+import android.app.NotificationManager;
+import android.content.Intent;
+import android.net.Uri;
+import android.support.v4.app.NotificationCompat;
+import android.util.Log;
+
+import com.example.android.pets.data.PetImporter;
+
+import java.io.IOException;
+
+/**
+ * Imports the pets of the CSV or JSON file given as data of the intent, in the background
+ * The progress is shown in a notification
+ * If the process is killed, the intent is delivered again and the import resumes after its
+ * last committed chunk of pets
+ */
+public class PetImportService extends IntentService {
+
+    /* Tag for the log messages */
+    private static final String LOG_TAG = PetImportService.class.getSimpleName();
+
+    /* ID of the notification showing the progress and result of the imports */
+    private static final int NOTIFICATION_ID = 1;
+
+    public PetImportService() {
+        super(PetImportService.class.getSimpleName());
+        setIntentRedelivery(true);
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        Uri source = intent.getData();
+        final NotificationCompat.Builder builder = new NotificationCompat.Builder(this)
+                .setSmallIcon(android.R.drawable.stat_sys_download)
+                .setContentTitle(getString(R.string.import_notification_title))
+                .setProgress(0, 0, true)
+                .setOngoing(true);
+        final NotificationManager notificationManager =
+                (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
+
+        // Keep the process alive while importing
+        startForeground(NOTIFICATION_ID, builder.build());
+
+        String result;
+        try {
+            final long[] skipped = new long[1];
+            long imported = new PetImporter(this).importPets(source,
+                    new PetImporter.ProgressListener() {
+                        @Override
+                        public void onProgress(long recordsRead, long petsImported,
+                                               long petsSkipped) {
+                            skipped[0] = petsSkipped;
+                            builder.setContentText(getString(R.string.import_progress,
+                                    recordsRead));
+                            notificationManager.notify(NOTIFICATION_ID, builder.build());
+                        }
+                    });
+            result = getString(R.string.import_finished, imported, skipped[0]);
+        } catch(IOException e) {
+            Log.e(LOG_TAG, "Failed to import " + source, e);
+            result = getString(R.string.import_failed);
+        } catch(SecurityException e) {
+            // The permission to read the file is gone, such as after a reboot
+            Log.e(LOG_TAG, "Cannot read " + source, e);
+            result = getString(R.string.import_failed);
+        }
+
+        // Replace the progress by the result once the service is no longer in the foreground
+        stopForeground(true);
+        notificationManager.notify(NOTIFICATION_ID, new NotificationCompat.Builder(this)
+                .setSmallIcon(android.R.drawable.stat_sys_download_done)
+                .setContentTitle(getString(R.string.import_notification_title))
+                .setContentText(result)
+                .build());
+    }
+}
@@ -0,0 +1,243 @@
+package com.example.android.pets;
+
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.database.DataSetObserver;
+import android.database.MatrixCursor;
+import android.database.MergeCursor;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetReader;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Cursor of pets for the catalog, along with the _ID and a hash of the displayed attributes of
+ * each row. They are computed once on the loader thread, so PetCursorAdapter can find the rows
+ * that changed between two cursors without reading either of them again
+ *
+ * PetCursorAdapter keeps displaying a cursor until the rows of its replacement have been
+ * compared, which can be after the loader closed it. While the adapter retains a cursor, closing
+ * it is deferred until the adapter releases it
+ * A merged cursor is owned by whoever merged it. Closing it leaves the cursors it was merged
+ * from open, and only drops the observers it registered on them
+ */
+public class PetListCursor extends CursorWrapper {
+
+    /* Initial capacity of the buffer the displayed attributes are copied into */
+    private static final int TEXT_BUFFER_SIZE = 64;
+
+    /* Parameters of the 64-bit FNV-1a hash */
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /* Hash of the rows of a placeholder, which have no attributes to display */
+    public static final long PLACEHOLDER_HASH = 0;
+
+    /* _ID of each row of the cursor */
+    private final long[] mIds;
+
+    /* Hash of the displayed attributes of each row of the cursor */
+    private final long[] mHashes;
+
+    /* Cursors this one was merged from, null if it was loaded directly */
+    private final PetListCursor[] mParts;
+
+    /* Number of times the cursor is retained, only used on the main thread */
+    private int mRetainCount;
+
+    /* Whether the cursor was closed while retained */
+    private boolean mClosePending;
+
+    /**
+     * Wrap the given cursor of pets and read the _ID and displayed attributes of every row
+     * Must be called off the main thread, the cursor is moved back before its first row afterwards
+     * @param cursor The cursor from which to get data
+     */
+    public PetListCursor(Cursor cursor) {
+        super(cursor);
+        mParts = null;
+
+        int count = cursor.getCount();
+        mIds = new long[count];
+        mHashes = new long[count];
+
+        PetReader reader = new PetReader(PetReader.LIST_COLUMNS);
+        CharArrayBuffer buffer = new CharArrayBuffer(TEXT_BUFFER_SIZE);
+
+        for(int position = 0; position < count && cursor.moveToPosition(position); position++) {
+            mIds[position] = reader.readId(cursor);
+
+            long hash = FNV_OFFSET_BASIS;
+            reader.copyName(cursor, buffer);
+            hash = hash(hash, buffer);
+            reader.copyBreed(cursor, buffer);
+            hash = hash(hash, buffer);
+            reader.copyPhoto(cursor, buffer);
+            hash = hash(hash, buffer);
+            mHashes[position] = hash;
+        }
+        cursor.moveToPosition(-1);
+    }
+
+    /**
+     * Wrap the given cursor whose _IDs and hashes are already known
+     * @param parts Cursors the given cursor merges, null if it is not a merge
+     */
+    private PetListCursor(Cursor cursor, PetListCursor[] parts, long[] ids, long[] hashes) {
+        super(cursor);
+        mParts = parts;
+        mIds = ids;
+        mHashes = hashes;
+    }
+
+    /**
+     * Return a cursor standing in for the rows with the given _IDs while they are not loaded
+     * Its rows only have an _ID and the PLACEHOLDER_HASH, so they keep their place in the list
+     * and are updated once they are loaded again
+     */
+    public static PetListCursor placeholder(long[] ids) {
+        // Same columns as the loaded pages, since a merge takes the columns of its first part
+        String[] columns = PetReader.LIST_COLUMNS;
+        int idIndex = Arrays.asList(columns).indexOf(PetEntry._ID);
+        MatrixCursor cursor = new MatrixCursor(columns, ids.length);
+        for(long id : ids) {
+            Object[] row = new Object[columns.length];
+            row[idIndex] = id;
+            cursor.addRow(row);
+        }
+        long[] hashes = new long[ids.length];
+        Arrays.fill(hashes, PLACEHOLDER_HASH);
+        return new PetListCursor(cursor, null, ids, hashes);
+    }
+
+    /**
+     * Return a single cursor with the rows of all the given cursors, one after the other
+     * The given cursors stay owned by their loaders, retaining the returned cursor retains them
+     * The returned cursor must be closed once it is replaced, so the observers it registered
+     * on the given cursors do not pile up
+     */
+    public static PetListCursor merge(PetListCursor[] cursors) {
+        int count = 0;
+        for(PetListCursor cursor : cursors) {
+            count += cursor.mIds.length;
+        }
+
+        long[] ids = new long[count];
+        long[] hashes = new long[count];
+        int offset = 0;
+        for(PetListCursor cursor : cursors) {
+            System.arraycopy(cursor.mIds, 0, ids, offset, cursor.mIds.length);
+            System.arraycopy(cursor.mHashes, 0, hashes, offset, cursor.mHashes.length);
+            offset += cursor.mIds.length;
+        }
+        Cursor[] parts = new Cursor[cursors.length];
+        for(int i = 0; i < cursors.length; i++) {
+            parts[i] = new Part(cursors[i]);
+        }
+        return new PetListCursor(new MergeCursor(parts), cursors, ids, hashes);
+    }
+
+    /**
+     * Cursor merged by a MergeCursor, which registers an observer on each of its cursors
+     * Closing it unregisters that observer but leaves the merged cursor open for its loader
+     */
+    private static final class Part extends CursorWrapper {
+
+        private final List<DataSetObserver> mObservers = new ArrayList<DataSetObserver>(1);
+
+        Part(Cursor cursor) {
+            super(cursor);
+        }
+
+        @Override
+        public void registerDataSetObserver(DataSetObserver observer) {
+            super.registerDataSetObserver(observer);
+            mObservers.add(observer);
+        }
+
+        @Override
+        public void unregisterDataSetObserver(DataSetObserver observer) {
+            if(mObservers.remove(observer)) {
+                super.unregisterDataSetObserver(observer);
+            }
+        }
+
+        @Override
+        public void close() {
+            for(DataSetObserver observer : mObservers) {
+                super.unregisterDataSetObserver(observer);
+            }
+            mObservers.clear();
+        }
+    }
+
+    /**
+     * Keep the cursor open until release() is called, even if it gets closed in the meantime
+     * Retaining a merged cursor also retains the cursors it was merged from
+     */
+    public void retain() {
+        mRetainCount++;
+        if(mParts != null) {
+            for(PetListCursor part : mParts) {
+                part.retain();
+            }
+        }
+    }
+
+    /**
+     * Undo a previous call to retain(), and close the cursor if it was closed in the meantime
+     * A merged cursor is closed before the cursors it was merged from
+     */
+    public void release() {
+        if(--mRetainCount == 0 && mClosePending) {
+            mClosePending = false;
+            super.close();
+        }
+        if(mParts != null) {
+            for(PetListCursor part : mParts) {
+                part.release();
+            }
+        }
+    }
+
+    /**
+     * Close the cursor, or defer it until the cursor is released if it is retained
+     */
+    @Override
+    public void close() {
+        if(mRetainCount > 0) {
+            mClosePending = true;
+        } else {
+            super.close();
+        }
+    }
+
+    /**
+     * Return the _ID of each row of the cursor, the array must not be modified
+     */
+    public long[] getIds() {
+        return mIds;
+    }
+
+    /**
+     * Return the hash of the displayed attributes of each row, the array must not be modified
+     */
+    public long[] getHashes() {
+        return mHashes;
+    }
+
+    /**
+     * Mix the characters copied into the given buffer into the given hash
+     */
+    private static long hash(long hash, CharArrayBuffer buffer) {
+        for(int i = 0; i < buffer.sizeCopied; i++) {
+            hash = (hash ^ buffer.data[i]) * FNV_PRIME;
+        }
+        // Separate the attributes, so "ab" + "c" and "a" + "bc" hash differently
+        return (hash ^ buffer.sizeCopied) * FNV_PRIME;
+    }
+}
@@ -0,0 +1,226 @@
+package com.example.android.pets;
+
+import android.content.Context;
+import android.content.CursorLoader;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.OperationCanceledException;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetQuery;
+
+/**
+ * CursorLoader that delivers its pets as a PetListCursor, so the _ID and displayed attributes
+ * of every row are read on the loader thread
+ *
+ * Instead of reloading on every change to the pets table, the loader reads the IDs of the
+ * changed pets from the change notifications and only reloads a page of pets when one of
+ * its rows, or a pet that now belongs to it, has changed
+ */
+public class PetListLoader extends CursorLoader {
+
+    /* Observes every change to the pets table, including the changes to single pets */
+    private final ContentObserver mObserver = new ContentObserver(new Handler()) {
+        @Override
+        public boolean deliverSelfNotifications() {
+            return true;
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            long[] changedIds = PetEntry.getChangedIds(uri);
+            if(changedIds == null || isAffectedBy(changedIds)) {
+                onContentChanged();
+            }
+        }
+    };
+
+    /* Whether mObserver is registered with the content resolver */
+    private boolean mObserverRegistered;
+
+    /* Greatest _ID of the page, Long.MAX_VALUE if the page is not bounded */
+    private long mUpperBound = Long.MAX_VALUE;
+
+    /* _IDs of the rows of the last delivered cursor, in _ID order for a page */
+    private long[] mLoadedIds;
+
+    /* Query of the page, its start and its size, null for the loaders of other queries */
+    private PetQuery mQuery;
+    private long mAfterId;
+    private int mLimit;
+
+    /* Sort values of the pet the page starts after, null to read them from that pet */
+    private String[] mAfterValues;
+
+    /* Projection of the page, before the sort columns of its query are added */
+    private String[] mPageProjection;
+
+    /* Cancels the query in progress */
+    private CancellationSignal mCancellationSignal;
+
+    public PetListLoader(Context context, Uri uri, String[] projection, String selection,
+                         String[] selectionArgs, String sortOrder) {
+        super(context, uri, projection, selection, selectionArgs, sortOrder);
+    }
+
+    /**
+     * Create the loader of a page of at most limit pets of the given query, that follow the pet
+     * with the given afterId in the sort order of the query (0 for the first page)
+     * The rows also have the sort columns of the query, so PetQuery.readSortValues() can tell
+     * where the next page starts
+     * @param afterValues Sort values of the pet with afterId, see PetQuery.readSortValues()
+     */
+    public PetListLoader(Context context, String[] projection, PetQuery query, long afterId,
+                         String[] afterValues, int limit) {
+        super(context, query.buildPageUri(afterId, afterValues, limit),
+                query.addSortColumns(projection), query.getSelection(),
+                query.getSelectionArgs(), null);
+        mQuery = query;
+        mAfterId = afterId;
+        mAfterValues = afterValues;
+        mLimit = limit;
+        mPageProjection = projection;
+    }
+
+    /**
+     * Restrict this page to the pets up to the given _ID, so it never overlaps the next page
+     * @param values Sort values of the pet with that _ID, see PetQuery.readSortValues()
+     */
+    public void setUpperBound(long id, String[] values) {
+        mUpperBound = id;
+        if(mQuery != null) {
+            // The page ends at that pet in the sort order of the query
+            setUri(mQuery.buildPageUri(mAfterId, mAfterValues, id, values, mLimit));
+        } else {
+            setSelection(PetEntry._ID + "<=?");
+            setSelectionArgs(new String[] { String.valueOf(id) });
+        }
+    }
+
+    /**
+     * Load the first page of the given query in place of the current one
+     * The loader keeps its cursor until the new one is delivered, so the list does not go
+     * blank while the new filters or sort order are queried
+     */
+    public void setQuery(PetQuery query) {
+        mQuery = query;
+        mAfterId = 0;
+        mAfterValues = null;
+        mUpperBound = Long.MAX_VALUE;
+        mLoadedIds = null;
+        setUri(query.buildPageUri(0, mLimit));
+        setProjection(query.addSortColumns(mPageProjection));
+        setSelection(query.getSelection());
+        setSelectionArgs(query.getSelectionArgs());
+        onContentChanged();
+    }
+
+    /**
+     * Query the provider without registering the content observer of CursorLoader,
+     * the changes are observed by mObserver instead
+     */
+    @Override
+    public Cursor loadInBackground() {
+        synchronized(this) {
+            if(isLoadInBackgroundCanceled()) {
+                throw new OperationCanceledException();
+            }
+            mCancellationSignal = new CancellationSignal();
+        }
+        try {
+            Cursor cursor = getContext().getContentResolver().query(getUri(), getProjection(),
+                    getSelection(), getSelectionArgs(), getSortOrder(), mCancellationSignal);
+            if(cursor == null) {
+                return null;
+            }
+            try {
+                return new PetListCursor(cursor);
+            } catch(RuntimeException e) {
+                cursor.close();
+                throw e;
+            }
+        } finally {
+            synchronized(this) {
+                mCancellationSignal = null;
+            }
+        }
+    }
+
+    @Override
+    public void cancelLoadInBackground() {
+        super.cancelLoadInBackground();
+        synchronized(this) {
+            if(mCancellationSignal != null) {
+                mCancellationSignal.cancel();
+            }
+        }
+    }
+
+    @Override
+    public void deliverResult(Cursor cursor) {
+        if(!isReset()) {
+            mLoadedIds = cursor == null ? null : ((PetListCursor) cursor).getIds();
+        }
+        super.deliverResult(cursor);
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if(!mObserverRegistered) {
+            getContext().getContentResolver().registerContentObserver(
+                    PetEntry.CONTENT_URI, true, mObserver);
+            mObserverRegistered = true;
+        }
+        super.onStartLoading();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        if(mObserverRegistered) {
+            getContext().getContentResolver().unregisterContentObserver(mObserver);
+            mObserverRegistered = false;
+        }
+        mLoadedIds = null;
+    }
+
+    /**
+     * Return whether a change to the pets with the given IDs can change the rows of this loader
+     * Only a page of pets in _ID order can tell, any change may alter the other queries such
+     * as searches, or move a pet between the pages of a sorted query
+     */
+    private boolean isAffectedBy(long[] changedIds) {
+        String afterIdParameter = getUri().getQueryParameter(PetEntry.QUERY_PARAMETER_AFTER_ID);
+        String limitParameter = getUri().getQueryParameter(PetEntry.QUERY_PARAMETER_LIMIT);
+        if(afterIdParameter == null || mLoadedIds == null
+                || getUri().getQueryParameter(PetEntry.QUERY_PARAMETER_SORT) != null) {
+            return true;
+        }
+        long afterId = Long.parseLong(afterIdParameter);
+        long limit = limitParameter == null ? Long.MAX_VALUE : Long.parseLong(limitParameter);
+
+        for(long id : changedIds) {
+            // Pets outside the range of _IDs of this page belong to other pages
+            if(id <= afterId || id > mUpperBound) {
+                continue;
+            }
+
+            // Within a bounded or partly filled page, the pet is or becomes one of its rows
+            if(mUpperBound != Long.MAX_VALUE || mLoadedIds.length < limit) {
+                return true;
+            }
+
+            // The last page is full, so pets after its last row will be loaded with the next
+            // page, but any pet up to that row is or becomes one of its rows
+            // New pets do not always come last, a pet inserted into the default shelter gets
+            // an _ID below the pets of the other shelters
+            if(mLoadedIds.length != 0 && id <= mLoadedIds[mLoadedIds.length - 1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,240 @@
+package com.example.android.pets;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.os.Process;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Loads the photos of the pets into ImageViews, decoded off the main thread
+ *
+ * The decoded images are kept in a memory cache bounded by their size in bytes, so the rows
+ * scrolled back into view show their photo right away. On a miss, the image is read from
+ * PetProvider, which keeps small thumbnails of the photos on disk, and decoded at about the
+ * size of the view by a small pool of background threads
+ * A view only shows the image of its latest request, and the requests of views that were
+ * bound to another pet in the meantime are dropped before they are decoded
+ */
+public final class PetPhotoLoader {
+
+    /* Tag for the log messages */
+    private static final String LOG_TAG = PetPhotoLoader.class.getSimpleName();
+
+    /* Number of threads decoding the images */
+    private static final int THREAD_COUNT = 2;
+
+    /* Share of the maximum memory of the app used by the cache, 1 / CACHE_FRACTION */
+    private static final int CACHE_FRACTION = 8;
+
+    private static PetPhotoLoader sInstance;
+
+    private final ContentResolver mResolver;
+
+    /* Decoded images by key, bounded by their size in bytes */
+    private final LruCache<String, Bitmap> mCache;
+
+    /* Decodes the images */
+    private final ExecutorService mExecutor;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /* Latest request of each view that is still loading, only used on the main thread */
+    private final HashMap<ImageView, Request> mRequests = new HashMap<ImageView, Request>();
+
+    /**
+     * Return the loader of the application
+     */
+    public static synchronized PetPhotoLoader getInstance(Context context) {
+        if(sInstance == null) {
+            sInstance = new PetPhotoLoader(context.getApplicationContext().getContentResolver());
+        }
+        return sInstance;
+    }
+
+    private PetPhotoLoader(ContentResolver resolver) {
+        mResolver = resolver;
+        int cacheSize = (int) Math.min(Integer.MAX_VALUE,
+                Runtime.getRuntime().maxMemory() / CACHE_FRACTION);
+        mCache = new LruCache<String, Bitmap>(cacheSize) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+        };
+        mExecutor = Executors.newFixedThreadPool(THREAD_COUNT, new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, LOG_TAG);
+            }
+        });
+    }
+
+    /**
+     * Show the thumbnail of the photo of the pet with the given ID in the view
+     * Must be called on the main thread
+     * @param photo Name of the photo of the pet, from COLUMN_PET_PHOTO, null if it has none
+     * @param size Size of the view in pixels, the image is decoded at about that size
+     */
+    public void loadThumbnail(ImageView view, long id, String photo, int size) {
+        // A new photo always has a new name, so the name alone identifies the image
+        load(view, photo == null ? null : photo + "@" + size, PetEntry.buildThumbnailUri(id),
+                size);
+    }
+
+    /**
+     * Show the image at the given URI in the view, such as an image picked as a new photo
+     * Must be called on the main thread
+     * @param size Size of the view in pixels, the image is decoded at about that size
+     */
+    public void loadImage(ImageView view, Uri uri, int size) {
+        load(view, uri == null ? null : uri + "@" + size, uri, size);
+    }
+
+    private void load(ImageView view, String key, Uri uri, int size) {
+        Request current = mRequests.get(view);
+        if(current != null) {
+            if(current.mKey.equals(key)) {
+                // Already loading into this view
+                return;
+            }
+            current.mCancelled = true;
+            mRequests.remove(view);
+        }
+
+        // Without an image, the view shows its background
+        if(key == null) {
+            view.setImageDrawable(null);
+            return;
+        }
+
+        Bitmap bitmap = mCache.get(key);
+        if(bitmap != null) {
+            view.setImageBitmap(bitmap);
+            return;
+        }
+
+        view.setImageDrawable(null);
+        Request request = new Request(view, key, uri, size);
+        mRequests.put(view, request);
+        mExecutor.execute(request);
+    }
+
+    /**
+     * Drop every cached image, such as when the system runs low on memory
+     */
+    public void clearCache() {
+        mCache.evictAll();
+    }
+
+    /**
+     * Decode the image at the given URI, skipping pixels so that its smaller side stays at
+     * least the given size
+     * Return null if the image cannot be read or decoded
+     */
+    private Bitmap decode(Uri uri, int size) {
+        try {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            decode(uri, options);
+            int smallerSide = Math.min(options.outWidth, options.outHeight);
+            if(smallerSide <= 0) {
+                return null;
+            }
+
+            options.inJustDecodeBounds = false;
+            options.inSampleSize = 1;
+            while(smallerSide / (options.inSampleSize * 2) >= size) {
+                options.inSampleSize *= 2;
+            }
+            return decode(uri, options);
+        } catch(FileNotFoundException e) {
+            // Such as a pet whose photo was removed meanwhile
+            return null;
+        } catch(IOException e) {
+            Log.e(LOG_TAG, "Failed to read " + uri, e);
+            return null;
+        } catch(SecurityException e) {
+            Log.e(LOG_TAG, "Not allowed to read " + uri, e);
+            return null;
+        }
+    }
+
+    private Bitmap decode(Uri uri, BitmapFactory.Options options) throws IOException {
+        ParcelFileDescriptor descriptor = mResolver.openFileDescriptor(uri, "r");
+        if(descriptor == null) {
+            throw new FileNotFoundException("Cannot open " + uri);
+        }
+        try {
+            return BitmapFactory.decodeFileDescriptor(descriptor.getFileDescriptor(), null,
+                    options);
+        } finally {
+            descriptor.close();
+        }
+    }
+
+    /**
+     * Request to decode an image into a view, run on the background pool
+     */
+    private final class Request implements Runnable {
+
+        private final ImageView mView;
+        private final String mKey;
+        private final Uri mUri;
+        private final int mSize;
+
+        /* Set once the view asked for another image */
+        private volatile boolean mCancelled;
+
+        Request(ImageView view, String key, Uri uri, int size) {
+            mView = view;
+            mKey = key;
+            mUri = uri;
+            mSize = size;
+        }
+
+        @Override
+        public void run() {
+            if(mCancelled) {
+                return;
+            }
+            final Bitmap bitmap = decode(mUri, mSize);
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if(bitmap != null) {
+                        mCache.put(mKey, bitmap);
+                    }
+                    if(mRequests.get(mView) == Request.this) {
+                        mRequests.remove(mView);
+                        if(bitmap != null) {
+                            mView.setImageBitmap(bitmap);
+                        }
+                    }
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.android.pets.data;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+/**
+ * Immutable values of a single row of the pets table
+ */
+public final class Pet {
+
+    /* Unique ID number of the pet */
+    private final long mId;
+
+    /* Name of the pet */
+    private final String mName;
+
+    /* Breed of the pet, may be null or empty if unknown */
+    private final String mBreed;
+
+    /* Gender of the pet, one of the PetEntry.GENDER_* values */
+    private final int mGender;
+
+    /* Weight of the pet in kg */
+    private final int mWeight;
+
+    /* Name of the photo file of the pet, null if it has no photo */
+    private final String mPhoto;
+
+    /**
+     * Construct a new Pet with the given values
+     */
+    public Pet(long id, String name, String breed, int gender, int weight, String photo) {
+        mId = id;
+        mName = name;
+        mBreed = breed;
+        mGender = gender;
+        mWeight = weight;
+        mPhoto = photo;
+    }
+
+    public long getId() {
+        return mId;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public String getBreed() {
+        return mBreed;
+    }
+
+    public int getGender() {
+        return mGender;
+    }
+
+    public int getWeight() {
+        return mWeight;
+    }
+
+    public String getPhoto() {
+        return mPhoto;
+    }
+
+    /**
+     * Return the value of the given column of the pets table, or throw an
+     * IllegalArgumentException if the column is not one of the pet columns
+     */
+    public Object getColumnValue(String column) {
+        if(PetEntry._ID.equals(column)) {
+            return mId;
+        } else if(PetEntry.COLUMN_PET_NAME.equals(column)) {
+            return mName;
+        } else if(PetEntry.COLUMN_PET_BREED.equals(column)) {
+            return mBreed;
+        } else if(PetEntry.COLUMN_PET_GENDER.equals(column)) {
+            return mGender;
+        } else if(PetEntry.COLUMN_PET_WEIGHT.equals(column)) {
+            return mWeight;
+        } else if(PetEntry.COLUMN_PET_PHOTO.equals(column)) {
+            return mPhoto;
+        }
+        throw new IllegalArgumentException("Unknown pet column " + column);
+    }
+}
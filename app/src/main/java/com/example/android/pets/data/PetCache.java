@@ -0,0 +1,95 @@
+package com.example.android.pets.data;
+
+import android.util.LruCache;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of the most recently used pets, keyed by _ID
+ * Lets PetProvider answer queries for a single pet without touching the database
+ *
+ * Every write to the pets table invalidates the affected entries. Each invalidation also
+ * starts a new generation, so a row read from the database before a write completes is
+ * never put in the cache after the write has invalidated it
+ */
+final class PetCache {
+
+    /* Cached pets by _ID */
+    private final LruCache<Long, Pet> mPets;
+
+    /* Number of lookups that found the pet in the cache */
+    private final AtomicLong mHits = new AtomicLong();
+
+    /* Number of lookups that had to go to the database */
+    private final AtomicLong mMisses = new AtomicLong();
+
+    /* Incremented by every invalidation, guarded by this */
+    private long mGeneration;
+
+    /**
+     * Construct a new cache that holds at most maxSize pets
+     */
+    PetCache(int maxSize) {
+        mPets = new LruCache<Long, Pet>(maxSize);
+    }
+
+    /**
+     * Return the cached pet with the given _ID, or null if it is not in the cache
+     */
+    Pet get(long id) {
+        Pet pet = mPets.get(id);
+        if(pet == null) {
+            mMisses.incrementAndGet();
+        } else {
+            mHits.incrementAndGet();
+        }
+        return pet;
+    }
+
+    /**
+     * Return the current generation, to be passed to put() along with the pets read after it
+     */
+    synchronized long generation() {
+        return mGeneration;
+    }
+
+    /**
+     * Cache the given pet, which was read from the database during the given generation
+     * The pet is dropped if the cache was invalidated since then
+     */
+    synchronized void put(Pet pet, long generation) {
+        if(generation == mGeneration) {
+            mPets.put(pet.getId(), pet);
+        }
+    }
+
+    /**
+     * Remove the pet with the given _ID from the cache
+     */
+    synchronized void invalidate(long id) {
+        mGeneration++;
+        mPets.remove(id);
+    }
+
+    /**
+     * Remove every pet from the cache
+     */
+    synchronized void invalidateAll() {
+        mGeneration++;
+        mPets.evictAll();
+    }
+
+    /**
+     * Return the number of lookups that found the pet in the cache
+     */
+    long getHitCount() {
+        return mHits.get();
+    }
+
+    /**
+     * Return the number of lookups that did not find the pet in the cache
+     */
+    long getMissCount() {
+        return mMisses.get();
+    }
+}
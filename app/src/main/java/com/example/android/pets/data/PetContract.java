@@ -2,8 +2,11 @@ package com.example.android.pets.data;
 
 import android.net.Uri;
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.provider.BaseColumns;
 
+import java.util.List;
+
 /**
  * Created by hanssi on 9/17/16.
  */
@@ -38,6 +41,130 @@ public final class PetContract {
      */
     public static final String PATH_PETS = "pets";
 
+    /**
+     * Possible path to search pet data (appended to the pets content URI)
+     */
+    public static final String PATH_SEARCH = "search";
+
+    /**
+     * Possible path to export pet data as a file (appended to the pets content URI)
+     */
+    public static final String PATH_EXPORT = "export";
+
+    /**
+     * Possible paths to statistics of the pet data (appended to the pets content URI),
+     * for all the pets or grouped by gender or breed
+     */
+    public static final String PATH_STATS = "stats";
+    public static final String PATH_STATS_GENDER = "gender";
+    public static final String PATH_STATS_BREED = "breed";
+
+    /**
+     * Possible paths to the photo of a pet as a file (appended to the content URI of the pet),
+     * at its full size or as a small thumbnail
+     */
+    public static final String PATH_PHOTO = "photo";
+    public static final String PATH_THUMBNAIL = "thumbnail";
+
+    /**
+     * Possible path to the changes made to the pet data (appended to the pets content URI)
+     */
+    public static final String PATH_CHANGES = "changes";
+
+    /**
+     * Name of the provider method that returns the hit and miss counts of the cache of
+     * single pets, to be used with ContentResolver.call() on BASE_CONTENT_URI
+     * The returned Bundle holds the counts under KEY_CACHE_HITS and KEY_CACHE_MISSES
+     */
+    public static final String METHOD_GET_CACHE_STATS = "get_cache_stats";
+
+    /* Key of the number of queries served from the cache of single pets */
+    public static final String KEY_CACHE_HITS = "cache_hits";
+
+    /* Key of the number of queries for a single pet that had to read the database */
+    public static final String KEY_CACHE_MISSES = "cache_misses";
+
+    /**
+     * Name of the provider method that starts or stops recording the metrics of the provider
+     * operations, with "true" or "false" as argument
+     * Recording starts from cleared metrics and is stopped when the provider is created
+     */
+    public static final String METHOD_SET_METRICS_ENABLED = "set_metrics_enabled";
+
+    /**
+     * Name of the provider method that returns a snapshot of the recorded metrics
+     * The returned Bundle holds one Bundle per kind of URI and operation, under names such as
+     * "pets.query" or "pet_id.update", with the count, rows, total and maximum latency and
+     * latency histogram of the operation
+     * The notifications sent by the provider are under KEY_METRICS_NOTIFICATIONS
+     */
+    public static final String METHOD_GET_METRICS = "get_metrics";
+
+    /* Key of whether the metrics are being recorded */
+    public static final String KEY_METRICS_ENABLED = "enabled";
+
+    /* Key of the number of operations, or of notifications */
+    public static final String KEY_METRICS_COUNT = "count";
+
+    /* Key of the number of rows returned or changed by the operations */
+    public static final String KEY_METRICS_ROWS = "rows";
+
+    /* Key of the total and maximum latency of the operations, in nanoseconds */
+    public static final String KEY_METRICS_TOTAL_NANOS = "total_nanos";
+    public static final String KEY_METRICS_MAX_NANOS = "max_nanos";
+
+    /**
+     * Key of the latency histogram of the operations, a long array whose element i counts the
+     * operations that took less than 2^i microseconds and at least 2^(i-1)
+     * The last element also counts every slower operation
+     */
+    public static final String KEY_METRICS_LATENCY_HISTOGRAM = "latency_histogram";
+
+    /* Key of the Bundle with the metrics of the change notifications */
+    public static final String KEY_METRICS_NOTIFICATIONS = "notifications";
+
+    /* Key of the number of pets listed by the change notifications */
+    public static final String KEY_METRICS_NOTIFIED_PETS = "notified_pets";
+
+    /* Key of the number of change notifications for the whole pets table */
+    public static final String KEY_METRICS_TABLE_NOTIFICATIONS = "table_notifications";
+
+    /**
+     * Name of the provider method that turns group commit of the single-pet writes on or off,
+     * with "true" or "false" as argument
+     * While it is on, the inserts, updates and deletes issued concurrently are committed together
+     * in one transaction, and each call returns once its group has committed
+     * The extras may hold KEY_GROUP_COMMIT_WINDOW_MILLIS and KEY_GROUP_COMMIT_MAX_WRITES
+     */
+    public static final String METHOD_SET_GROUP_COMMIT = "set_group_commit";
+
+    /**
+     * Key of how long a group waits for more writes once it can commit, in milliseconds
+     * 0 by default, the writes issued while another group commits are still gathered
+     */
+    public static final String KEY_GROUP_COMMIT_WINDOW_MILLIS = "window_millis";
+
+    /* Key of the number of writes that commits a group without waiting for the window to end */
+    public static final String KEY_GROUP_COMMIT_MAX_WRITES = "max_writes";
+
+    /**
+     * Name of the provider method that runs the next step of the database maintenance:
+     * removing a batch of deleted pets, then freeing the unused pages of the database file,
+     * then refreshing the statistics of the query planner
+     * The returned Bundle holds KEY_MAINTENANCE_PENDING, true until every step is done
+     */
+    public static final String METHOD_RUN_MAINTENANCE_STEP = "run_maintenance_step";
+
+    /* Key of whether more maintenance steps remain to run */
+    public static final String KEY_MAINTENANCE_PENDING = "maintenance_pending";
+
+    /**
+     * Provider method returning the startup markers reached so far in the process
+     * The returned Bundle holds the time of each marker of PetStartup, in milliseconds since
+     * the process started
+     */
+    public static final String METHOD_GET_STARTUP_MARKS = "get_startup_marks";
+
     /**
      * Inner class that defines the constant values for the pets
      * database table
@@ -60,9 +187,291 @@ public final class PetContract {
         public static final String CONTENT_ITEM_TYPE =
                 ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_PETS;
 
+        /**
+         * Query parameter on CONTENT_URI to limit the number of pets returned by a query
+         */
+        public static final String QUERY_PARAMETER_LIMIT = "limit";
+
+        /**
+         * Query parameter on CONTENT_URI to only return the pets with an _ID greater than
+         * the given one, in ascending _ID order
+         * With QUERY_PARAMETER_SORT, the pets that follow the pet with the given _ID in the
+         * sort order are returned instead, 0 standing for the start of the order
+         * Used together with QUERY_PARAMETER_LIMIT to page through the pets table by _ID
+         */
+        public static final String QUERY_PARAMETER_AFTER_ID = "after_id";
+
+        /**
+         * Query parameter on CONTENT_URI to sort the pets by the given comma separated columns,
+         * each one prefixed by '-' for descending order, such as "name" or "-weight,name"
+         * The columns are _ID, COLUMN_PET_NAME (compared case-insensitively) and COLUMN_PET_WEIGHT
+         * Pets that compare equal are sorted by _ID, in the direction of the last column
+         * When it is used, QUERY_PARAMETER_AFTER_ID and QUERY_PARAMETER_UNTIL_ID follow this
+         * order instead of the _ID order, and no sort order may be passed to the query
+         */
+        public static final String QUERY_PARAMETER_SORT = "sort";
+
+        /**
+         * Query parameter on CONTENT_URI to only return the pets up to the pet with the given
+         * _ID included, in the sort order of the query
+         * Used to keep a page from overlapping the page that follows it
+         */
+        public static final String QUERY_PARAMETER_UNTIL_ID = "until_id";
+
+        /**
+         * Query parameter on CONTENT_URI giving the sort values of the pet of
+         * QUERY_PARAMETER_AFTER_ID, repeated once for each column of QUERY_PARAMETER_SORT
+         * before the _ID
+         * The pet is then not read, so the page still starts at the right place once that pet
+         * was deleted and purged. Without it, the values are read from the pet
+         */
+        public static final String QUERY_PARAMETER_AFTER_VALUE = "after_value";
+
+        /**
+         * Query parameter on CONTENT_URI giving the sort values of the pet of
+         * QUERY_PARAMETER_UNTIL_ID, in the same way as QUERY_PARAMETER_AFTER_VALUE
+         */
+        public static final String QUERY_PARAMETER_UNTIL_VALUE = "until_value";
+
+        /**
+         * Query parameter on CONTENT_URI to only query, insert into, update or delete from the
+         * pets of the shelter with the given ID
+         * Each shelter is stored in a database of its own, so writes to different shelters do
+         * not wait for each other. Without this parameter, queries and multi-row updates or
+         * deletes span every shelter, and inserts go to DEFAULT_SHELTER_ID. Queries spanning
+         * several shelters merge their pets in the order of QUERY_PARAMETER_SORT, or in _ID
+         * order, and searches in the order of their ranking. A sort order given to them may
+         * only list pet columns, each one optionally followed by COLLATE NOCASE or
+         * COLLATE BINARY and by ASC or DESC
+         * The statistics and the change log cover a single shelter. Without this parameter
+         * they read DEFAULT_SHELTER_ID, and they are rejected once there are several shelters
+         */
+        public static final String QUERY_PARAMETER_SHELTER = "shelter";
+
+        /* ID of the shelter the pets belong to when no shelter is given */
+        public static final long DEFAULT_SHELTER_ID = 0;
+
+        /* Greatest ID of a shelter */
+        public static final long MAX_SHELTER_ID = 0xFFFF;
+
+        /**
+         * Number of low bits of a pet _ID numbering the pets within their shelter, the high
+         * bits hold the ID of the shelter, so the _ID of a pet is unique across shelters
+         */
+        public static final int SHELTER_ID_SHIFT = 40;
+
+        /**
+         * Returns the ID of the shelter of the pet with the given _ID
+         */
+        public static long getShelterId(long petId) {
+            return petId >>> SHELTER_ID_SHIFT;
+        }
+
+        /**
+         * Returns the content URI of the pets of the shelter with the given ID
+         */
+        public static Uri buildShelterUri(long shelterId) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_SHELTER, String.valueOf(shelterId))
+                    .build();
+        }
+
+        /**
+         * Number of pets in each page of the catalog
+         * The first page, buildPageUri(0, CATALOG_PAGE_SIZE) with the columns of
+         * PetReader.LIST_COLUMNS, is read ahead by the provider when the process starts
+         */
+        public static final int CATALOG_PAGE_SIZE = 50;
+
+        /**
+         * Returns the content URI for a page of at most limit pets that follow the pet
+         * with the given afterId (use 0 for the first page)
+         */
+        public static Uri buildPageUri(long afterId, int limit) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_AFTER_ID, String.valueOf(afterId))
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit))
+                    .build();
+        }
+
+        /**
+         * Returns the content URI that searches the names and breeds of the pets for the given text
+         * The resulting pets are ranked with the ones whose name matches first
+         */
+        public static Uri buildSearchUri(String text) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(PATH_SEARCH)
+                    .appendPath(text)
+                    .build();
+        }
+
+        /**
+         * Query parameter of the change notifications on CONTENT_URI that lists the comma
+         * separated _IDs of the pets changed by a multi-row operation
+         * Changes to a single pet are notified on its own content URI instead, and a
+         * notification on CONTENT_URI without this parameter means any pet may have changed
+         */
+        public static final String QUERY_PARAMETER_IDS = "ids";
+
+        /**
+         * Returns the URI to notify for a change to the pets with the given IDs
+         */
+        public static Uri buildChangeUri(long[] ids) {
+            if(ids.length == 1) {
+                return ContentUris.withAppendedId(CONTENT_URI, ids[0]);
+            }
+            StringBuilder value = new StringBuilder();
+            for(long id : ids) {
+                if(value.length() != 0) {
+                    value.append(',');
+                }
+                value.append(id);
+            }
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_IDS, value.toString())
+                    .build();
+        }
+
+        /**
+         * Returns the IDs of the pets changed according to the given notification URI,
+         * or null if the URI does not tell which pets changed
+         */
+        public static long[] getChangedIds(Uri uri) {
+            if(uri == null) {
+                return null;
+            }
+            try {
+                // Change to a single pet, notified on the content URI of that pet
+                List<String> segments = uri.getPathSegments();
+                if(segments.size() == 2 && PATH_PETS.equals(segments.get(0))) {
+                    return new long[] { Long.parseLong(segments.get(1)) };
+                }
+
+                // Change to many pets, listed on CONTENT_URI
+                String value = uri.getQueryParameter(QUERY_PARAMETER_IDS);
+                if(value == null) {
+                    return null;
+                }
+                String[] values = value.split(",");
+                long[] ids = new long[values.length];
+                for(int i = 0; i < values.length; i++) {
+                    ids[i] = Long.parseLong(values[i]);
+                }
+                return ids;
+            } catch(NumberFormatException e) {
+                return null;
+            }
+        }
+
+        /**
+         * Query parameter of the export URI with the format of the exported file,
+         * FORMAT_CSV (the default) or FORMAT_JSON
+         */
+        public static final String QUERY_PARAMETER_FORMAT = "format";
+
+        /**
+         * Query parameter of the export URI with the comma separated columns to export,
+         * all the columns of the pets table if it is missing
+         */
+        public static final String QUERY_PARAMETER_COLUMNS = "columns";
+
+        /**
+         * Query parameters of the export URI with the selection of the pets to export, every pet
+         * if it is missing, and its arguments, one parameter per argument in order
+         */
+        public static final String QUERY_PARAMETER_SELECTION = "selection";
+        public static final String QUERY_PARAMETER_SELECTION_ARG = "selection_arg";
+
+        /**
+         * Possible formats of the exported file
+         * CSV files start with a header line naming the columns, JSON files hold an array of objects
+         */
+        public static final String FORMAT_CSV = "csv";
+        public static final String FORMAT_JSON = "json";
+
+        /**
+         * The MIME types of the exported files
+         */
+        public static final String CSV_TYPE = "text/csv";
+        public static final String JSON_TYPE = "application/json";
+
+        /**
+         * Returns the content URI of a file with the given columns of every pet in the given format
+         * The file is streamed by the provider as it is read, see ContentResolver.openInputStream()
+         * @param format FORMAT_CSV or FORMAT_JSON
+         * @param columns Columns to export, or null for all the columns of the pets table
+         */
+        public static Uri buildExportUri(String format, String[] columns) {
+            return buildExportUri(format, columns, null, null);
+        }
+
+        /**
+         * Returns the content URI of a file with the given columns of the pets matching the given
+         * selection, in the given format
+         * @param selection Filter of the pets to export, as passed to a query of CONTENT_URI,
+         *                  or null for every pet
+         * @param selectionArgs Arguments of the selection
+         */
+        public static Uri buildExportUri(String format, String[] columns, String selection,
+                                         String[] selectionArgs) {
+            Uri.Builder builder = CONTENT_URI.buildUpon()
+                    .appendPath(PATH_EXPORT)
+                    .appendQueryParameter(QUERY_PARAMETER_FORMAT, format);
+            if(columns != null) {
+                StringBuilder value = new StringBuilder();
+                for(String column : columns) {
+                    if(value.length() != 0) {
+                        value.append(',');
+                    }
+                    value.append(column);
+                }
+                builder.appendQueryParameter(QUERY_PARAMETER_COLUMNS, value.toString());
+            }
+            if(selection != null) {
+                builder.appendQueryParameter(QUERY_PARAMETER_SELECTION, selection);
+                if(selectionArgs != null) {
+                    for(String arg : selectionArgs) {
+                        builder.appendQueryParameter(QUERY_PARAMETER_SELECTION_ARG, arg);
+                    }
+                }
+            }
+            return builder.build();
+        }
+
+        /**
+         * The MIME type of the thumbnail of a pet photo, re-encoded by the provider
+         */
+        public static final String THUMBNAIL_TYPE = "image/jpeg";
+
+        /**
+         * Returns the content URI of the photo of the pet with the given ID
+         * The photo is read with ContentResolver.openInputStream(), and replaced by writing the
+         * new image to ContentResolver.openOutputStream(), which sets COLUMN_PET_PHOTO once the
+         * stream is closed and the image could be decoded. Deleting the URI removes the photo
+         */
+        public static Uri buildPhotoUri(long id) {
+            return ContentUris.withAppendedId(CONTENT_URI, id).buildUpon()
+                    .appendPath(PATH_PHOTO)
+                    .build();
+        }
+
+        /**
+         * Returns the content URI of a thumbnail of the photo of the pet with the given ID,
+         * a JPEG image whose smaller side is at most a few hundred pixels
+         * The thumbnails are made once and cached on disk by the provider
+         */
+        public static Uri buildThumbnailUri(long id) {
+            return ContentUris.withAppendedId(CONTENT_URI, id).buildUpon()
+                    .appendPath(PATH_THUMBNAIL)
+                    .build();
+        }
+
         /* Name of the database table for pets */
         public final static String TABLE_NAME = "pets";
 
+        /* Name of the full-text search table that indexes the names and breeds of the pets */
+        public final static String SEARCH_TABLE_NAME = "pets_search";
+
         /**
          * Unique ID number for the pet (only used in database table)
          *
@@ -101,6 +510,25 @@ public final class PetContract {
          */
         public final static String COLUMN_PET_WEIGHT = "weight";
 
+        /**
+         * Whether the pet was deleted (only used in database table)
+         * Deleted pets are hidden from every query right away and removed from the table
+         * later by the maintenance job, this column cannot be inserted or updated
+         *
+         * Type: INTEGER, 0 or 1
+         */
+        public final static String COLUMN_PET_DELETED = "deleted";
+
+        /**
+         * Name of the file holding the photo of the pet, null if it has no photo
+         * The file is managed by the provider and read through buildPhotoUri() or
+         * buildThumbnailUri(), a new photo always gets a new name
+         * This column cannot be inserted or updated
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_PET_PHOTO = "photo";
+
         /**
          * Possible values for the gender of the pet
          */
@@ -119,4 +547,163 @@ public final class PetContract {
         }
 
     }
+
+    /**
+     * Inner class that defines the constant values for the statistics of the pets
+     * Each row holds the number of pets and their weight statistics, for all the pets or for
+     * a single gender or breed
+     * The statistics are kept up to date by the database as pets change, so reading them
+     * costs the same whatever the number of pets
+     * They cover the shelter of PetEntry.QUERY_PARAMETER_SHELTER, which is required once there
+     * are several shelters, or PetEntry.DEFAULT_SHELTER_ID
+     */
+    public static final class PetStatsEntry {
+
+        /* The content URI of the statistics of all the pets, a single row */
+        public static final Uri CONTENT_URI =
+                Uri.withAppendedPath(PetEntry.CONTENT_URI, PATH_STATS);
+
+        /* The content URI of the statistics of the pets of each gender, one row per gender */
+        public static final Uri GENDER_URI = Uri.withAppendedPath(CONTENT_URI, PATH_STATS_GENDER);
+
+        /* The content URI of the statistics of the pets of each breed, one row per breed */
+        public static final Uri BREED_URI = Uri.withAppendedPath(CONTENT_URI, PATH_STATS_BREED);
+
+        /**
+         * The MIME type of the statistics URIs
+         */
+        public static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE
+                + "/" + CONTENT_AUTHORITY + "/" + PATH_PETS + "/" + PATH_STATS;
+
+        /* Name of the database table with the statistics of each gender */
+        public final static String GENDER_TABLE_NAME = "pet_gender_stats";
+
+        /* Name of the database table with the statistics of each breed */
+        public final static String BREED_TABLE_NAME = "pet_breed_stats";
+
+        /**
+         * Gender of the pets of the row, only in the rows of GENDER_URI
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_GENDER = PetEntry.COLUMN_PET_GENDER;
+
+        /**
+         * Breed of the pets of the row, only in the rows of BREED_URI
+         * The pets without a breed are counted together under an empty breed
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_BREED = PetEntry.COLUMN_PET_BREED;
+
+        /**
+         * Number of pets
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_PET_COUNT = "pet_count";
+
+        /**
+         * Sum of the weights of the pets
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_WEIGHT_SUM = "weight_sum";
+
+        /**
+         * Average weight of the pets, null if there are none
+         *
+         * Type: REAL
+         */
+        public final static String COLUMN_AVERAGE_WEIGHT = "average_weight";
+
+        /**
+         * Minimum and maximum weight of the pets, null if there are none
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_MIN_WEIGHT = "min_weight";
+        public final static String COLUMN_MAX_WEIGHT = "max_weight";
+    }
+
+    /**
+     * Inner class that defines constant values for the change log of the pets
+     *
+     * Every insert, update and delete of a pet appends an entry with a new sequence number to
+     * the change log, in the same transaction as the change itself. Reading CONTENT_URI with
+     * QUERY_PARAMETER_SINCE returns one row for each pet changed after that sequence number,
+     * with its latest change and the current values of its columns, in sequence order, so a
+     * reader that keeps the greatest sequence number it has seen only reads the new changes
+     * The log of each shelter has its own sequence numbers, CONTENT_URI reads the log of the
+     * shelter of PetEntry.QUERY_PARAMETER_SHELTER, which is required once there are several
+     * shelters, or PetEntry.DEFAULT_SHELTER_ID
+     * Entries followed by a later change of the same pet are dropped by the maintenance, which
+     * never changes the rows returned for any sequence number
+     */
+    public static final class PetChangeEntry {
+
+        /* The content URI of the change log of the pets */
+        public static final Uri CONTENT_URI =
+                Uri.withAppendedPath(PetEntry.CONTENT_URI, PATH_CHANGES);
+
+        /**
+         * The MIME type of CONTENT_URI
+         */
+        public static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE
+                + "/" + CONTENT_AUTHORITY + "/" + PATH_PETS + "/" + PATH_CHANGES;
+
+        /**
+         * Query parameter on CONTENT_URI with the sequence number after which the changes
+         * are returned, 0 for every pet that exists
+         * At most PetEntry.QUERY_PARAMETER_LIMIT pets are returned if that parameter is given,
+         * the next ones follow the sequence number of the last row
+         */
+        public static final String QUERY_PARAMETER_SINCE = "since";
+
+        /**
+         * Returns the content URI for the changes after the given sequence number, for at
+         * most limit pets
+         */
+        public static Uri buildChangesUri(long since, int limit) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_SINCE, String.valueOf(since))
+                    .appendQueryParameter(PetEntry.QUERY_PARAMETER_LIMIT, String.valueOf(limit))
+                    .build();
+        }
+
+        /* Name of the database table of the change log */
+        public final static String TABLE_NAME = "pet_changes";
+
+        /**
+         * Sequence number of the latest change of the pet
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_SEQUENCE = "seq";
+
+        /**
+         * _ID of the changed pet
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_PET_ID = "pet_id";
+
+        /**
+         * Latest change of the pet, OPERATION_INSERT, OPERATION_UPDATE or OPERATION_DELETE
+         * A pet inserted and then updated after the sequence number is returned as updated,
+         * so inserts and updates are best applied alike
+         * The rows of the pets that are not deleted also hold the current values of their
+         * PetEntry columns, from COLUMN_PET_NAME to COLUMN_PET_PHOTO
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_OPERATION = "operation";
+
+        /**
+         * Possible values for the operation of a change
+         */
+        public static final int OPERATION_INSERT = 1;
+        public static final int OPERATION_UPDATE = 2;
+        public static final int OPERATION_DELETE = 3;
+    }
 }
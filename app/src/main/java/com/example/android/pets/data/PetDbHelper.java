@@ -3,8 +3,11 @@ package com.example.android.pets.data;
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
 
+import com.example.android.pets.data.PetContract.PetChangeEntry;
 import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.PetStatsEntry;
 
 /**
  * Created by hanssi on 9/17/16.
@@ -16,22 +19,204 @@ import com.example.android.pets.data.PetContract.PetEntry;
 public class PetDbHelper extends SQLiteOpenHelper {
     public final static String LOG_TAG = PetDbHelper.class.getSimpleName();
 
-    /* Name of the database file */
+    /* Name of the database file of the default shelter */
     private final static String DATABASE_NAME = "shelter.db";
 
+    /* Prefix and suffix of the names of the database files of the other shelters, which are
+     * followed by the ID of the shelter */
+    private final static String SHELTER_DATABASE_PREFIX = "shelter_";
+    private final static String SHELTER_DATABASE_SUFFIX = ".db";
+
     /* Database version. Must increment after changing database schema */
-    private final static int DATABASE_VERSION = 1;
+    private final static int DATABASE_VERSION = 8;
+
+    /* Name of the index on the pet names, compared case-insensitively */
+    private final static String INDEX_PET_NAME = "pets_name_index";
+
+    /* Name of the index on the pet breeds */
+    private final static String INDEX_PET_BREED = "pets_breed_index";
+
+    /* Name of the index on the pet genders and weights */
+    private final static String INDEX_PET_GENDER_WEIGHT = "pets_gender_weight_index";
+
+    /* Name of the index on the pet breeds and weights, which replaced the index on the breeds */
+    private final static String INDEX_PET_BREED_WEIGHT = "pets_breed_weight_index";
+
+    /* Names of the indexes on the pet genders or breeds, deletion marks and weights, which
+     * replaced the indexes on the genders or breeds and weights */
+    private final static String INDEX_PET_GENDER_DELETED_WEIGHT = "pets_gender_deleted_weight_index";
+    private final static String INDEX_PET_BREED_DELETED_WEIGHT = "pets_breed_deleted_weight_index";
+
+    /* Name of the index on the pet weights */
+    private final static String INDEX_PET_WEIGHT = "pets_weight_index";
+
+    /* Name of the index on the changed pets and sequence numbers of the change log */
+    private final static String INDEX_CHANGE_PET = "pet_changes_pet_index";
+
+    /* Trigger statement that appends a change of a pet to the change log, with %1$s for the
+     * _ID of the pet and %2$s for the operation */
+    private final static String SQL_LOG_CHANGE = "INSERT INTO " + PetChangeEntry.TABLE_NAME
+            + " (" + PetChangeEntry.COLUMN_PET_ID + ", " + PetChangeEntry.COLUMN_OPERATION
+            + ") VALUES (%1$s, %2$s);";
+
+    /* Key of the breed statistics of a pet, the pets without a breed are counted together */
+    private final static String BREED_STATS_KEY = "IFNULL(%s." + PetEntry.COLUMN_PET_BREED + ", '')";
+
+    /**
+     * Query of the minimum or maximum weight of the pets of the gender of the old pet,
+     * with %1$s for the MIN or MAX aggregate and %2$s for an extra condition on the pets
+     */
+    private final static String SQL_GENDER_WEIGHT = "(SELECT %1$s(" + PetEntry.COLUMN_PET_WEIGHT
+            + ") FROM " + PetEntry.TABLE_NAME + " WHERE " + PetEntry.COLUMN_PET_GENDER
+            + " = old." + PetEntry.COLUMN_PET_GENDER + "%2$s)";
+
+    /**
+     * Query of the minimum or maximum weight of the pets of the breed of the old pet,
+     * with %1$s for the MIN or MAX aggregate and %2$s for an extra condition on the pets
+     */
+    private final static String SQL_BREED_WEIGHT = "(CASE WHEN " + String.format(BREED_STATS_KEY, "old")
+            + " = '' THEN (SELECT %1$s(" + PetEntry.COLUMN_PET_WEIGHT + ") FROM " + PetEntry.TABLE_NAME
+            + " WHERE (" + PetEntry.COLUMN_PET_BREED + " IS NULL OR " + PetEntry.COLUMN_PET_BREED
+            + " = '')%2$s) ELSE (SELECT %1$s(" + PetEntry.COLUMN_PET_WEIGHT + ") FROM " + PetEntry.TABLE_NAME
+            + " WHERE " + PetEntry.COLUMN_PET_BREED + " = old." + PetEntry.COLUMN_PET_BREED + "%2$s) END)";
+
+    /* Condition on the pets that were not deleted, for the weight queries of the statistics */
+    private final static String SQL_LIVE_PET = " AND " + PetEntry.COLUMN_PET_DELETED + " = 0";
+
+    /* Trigger statement that removes the old version of a pet from the search index */
+    private final static String SQL_DELETE_SEARCH_ENTRY = "DELETE FROM "
+            + PetEntry.SEARCH_TABLE_NAME + " WHERE docid=old." + PetEntry._ID + ";";
+
+    /* Trigger statement that adds the new version of a pet to the search index */
+    private final static String SQL_INSERT_SEARCH_ENTRY = "INSERT INTO "
+            + PetEntry.SEARCH_TABLE_NAME + "(docid, "
+            + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED + ") VALUES(new."
+            + PetEntry._ID + ", new." + PetEntry.COLUMN_PET_NAME + ", new."
+            + PetEntry.COLUMN_PET_BREED + ");";
+
+    /* Names of the triggers that keep the search index in sync on updates */
+    private final static String TRIGGER_SEARCH_BEFORE_UPDATE = "pets_search_before_update";
+    private final static String TRIGGER_SEARCH_AFTER_UPDATE = "pets_search_after_update";
+
+    /* Page cache size of the primary connection, negative values are in KiB (here 2 MiB) */
+    private final static int PAGE_CACHE_SIZE_KIB = -2048;
+
+    /* Number of prepared statements each connection of the pool keeps compiled */
+    private final static int MAX_SQL_CACHE_SIZE = 50;
+
+    /* Compiled statements used by PetProvider on this database */
+    private final PetStatements mStatements = new PetStatements(this);
+
+    /* ID of the shelter whose pets are stored in this database */
+    private final long mShelterId;
 
     /**
-     * Construct a new instance of PetDbHelper.
+     * Construct a new instance of PetDbHelper for the default shelter.
      * @param context of the app
      */
     public PetDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, PetEntry.DEFAULT_SHELTER_ID);
+    }
+
+    /**
+     * Construct a new instance of PetDbHelper for the shelter with the given ID.
+     * @param context of the app
+     */
+    public PetDbHelper(Context context, long shelterId) {
+        super(context, getShelterDatabaseName(shelterId), null, DATABASE_VERSION);
+        mShelterId = shelterId;
+
+        // Use write-ahead logging so readers keep running while a write is in progress
+        // The connection pool then opens extra read-only connections for concurrent queries
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    /**
+     * Method onConfigure is called when the database connection is being configured,
+     * before the database is created, upgraded or opened
+     */
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+
+        // With write-ahead logging, NORMAL only syncs the log at checkpoints and still
+        // keeps the database consistent after a crash
+        // A power loss may undo the last commits, worth saving a sync on every pet written
+        db.execSQL("PRAGMA synchronous = NORMAL;");
+
+        // Keep more pages of the pets table and its indexes in memory
+        // The cache belongs to a connection and this only runs on the primary one, so it
+        // sizes the cache of the writes, the reads on the secondary connections of
+        // write-ahead logging keep the default cache
+        db.execSQL("PRAGMA cache_size = " + PAGE_CACHE_SIZE_KIB + ";");
+
+        // Keep the statements of the provider compiled on every pooled connection
+        db.setMaxSqlCacheSize(MAX_SQL_CACHE_SIZE);
+
+        // Let the maintenance job give the pages of purged pets back to the file system
+        // This only applies to a new database, PetMaintenance converts existing ones
+        db.execSQL("PRAGMA auto_vacuum = INCREMENTAL;");
+    }
+
+    /**
+     * Return the name of the database file of the shelter with the given ID
+     */
+    static String getShelterDatabaseName(long shelterId) {
+        if(shelterId == PetEntry.DEFAULT_SHELTER_ID) {
+            return DATABASE_NAME;
+        }
+        return SHELTER_DATABASE_PREFIX + shelterId + SHELTER_DATABASE_SUFFIX;
+    }
+
+    /**
+     * Return the ID of the shelter stored in the database file with the given name, or -1 if
+     * it is not the database of a shelter
+     */
+    static long parseShelterId(String databaseName) {
+        if(DATABASE_NAME.equals(databaseName)) {
+            return PetEntry.DEFAULT_SHELTER_ID;
+        }
+        if(!databaseName.startsWith(SHELTER_DATABASE_PREFIX)
+                || !databaseName.endsWith(SHELTER_DATABASE_SUFFIX)) {
+            return -1;
+        }
+        try {
+            long shelterId = Long.parseLong(databaseName.substring(
+                    SHELTER_DATABASE_PREFIX.length(),
+                    databaseName.length() - SHELTER_DATABASE_SUFFIX.length()));
+            return shelterId > 0 && shelterId <= PetEntry.MAX_SHELTER_ID ? shelterId : -1;
+        } catch(NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Return the ID of the shelter whose pets are stored in this database
+     */
+    long getShelterId() {
+        return mShelterId;
+    }
+
+    /**
+     * Return the compiled statements used by PetProvider on this database
+     */
+    PetStatements getStatements() {
+        return mStatements;
+    }
+
+    /**
+     * Close the compiled statements and the database
+     */
+    @Override
+    public synchronized void close() {
+        mStatements.clear();
+        super.close();
     }
 
     /**
      * Method onCreate is called when the database is created for the first time
+     * The version 1 schema is created first and then brought up to date with the same
+     * migration steps used by onUpgrade, so every step runs on each new install
      */
     @Override
     public void onCreate(SQLiteDatabase db) {
@@ -45,14 +230,309 @@ public class PetDbHelper extends SQLiteOpenHelper {
 
         // Execute the SQL statement
         db.execSQL(SQL_CREATE_PETS_TABLE);
+
+        // Migrate the version 1 schema to the current version
+        onUpgrade(db, 1, DATABASE_VERSION);
+
+        // Number the pets of the shelter after its ID, so their _IDs never collide with the
+        // pets of the other shelters
+        if(mShelterId != PetEntry.DEFAULT_SHELTER_ID) {
+            db.execSQL("INSERT INTO sqlite_sequence (name, seq) VALUES ('"
+                    + PetEntry.TABLE_NAME + "', " + (mShelterId << PetEntry.SHELTER_ID_SHIFT)
+                    + ");");
+        }
     }
 
     /**
      * Method onUpgrade is called when the database needs to be upgraded
+     * Each version in between is applied in order, one migration step at a time
      */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // Database is still at version 1, nothing to be done here
+        // Statements compiled against the old schema must not be reused
+        mStatements.clear();
+
+        for(int version = oldVersion + 1; version <= newVersion; version++) {
+            Log.i(LOG_TAG, "Upgrading database to version " + version);
+            upgradeToVersion(db, version);
+        }
+    }
+
+    /**
+     * Apply the migration step that brings the database from version - 1 to the given version
+     */
+    private void upgradeToVersion(SQLiteDatabase db, int version) {
+        switch(version) {
+            case 2:
+                // Index the columns the catalog filters and sorts on
+                db.execSQL("CREATE INDEX " + INDEX_PET_NAME + " ON " + PetEntry.TABLE_NAME
+                        + " (" + PetEntry.COLUMN_PET_NAME + " COLLATE NOCASE);");
+                db.execSQL("CREATE INDEX " + INDEX_PET_BREED + " ON " + PetEntry.TABLE_NAME
+                        + " (" + PetEntry.COLUMN_PET_BREED + ");");
+                db.execSQL("CREATE INDEX " + INDEX_PET_GENDER_WEIGHT + " ON " + PetEntry.TABLE_NAME
+                        + " (" + PetEntry.COLUMN_PET_GENDER + ", " + PetEntry.COLUMN_PET_WEIGHT + ");");
+                break;
+            case 3:
+                // Index the names and breeds for full-text search
+                // The search table reads its content from the pets table, so it only stores the index
+                db.execSQL("CREATE VIRTUAL TABLE " + PetEntry.SEARCH_TABLE_NAME + " USING fts4("
+                        + "content=\"" + PetEntry.TABLE_NAME + "\", "
+                        + PetEntry.COLUMN_PET_NAME + ", "
+                        + PetEntry.COLUMN_PET_BREED + ");");
+
+                // Keep the search index in sync with the pets table
+                // Old entries are removed before the row changes, new ones are added after
+                db.execSQL("CREATE TRIGGER " + TRIGGER_SEARCH_BEFORE_UPDATE + " BEFORE UPDATE ON "
+                        + PetEntry.TABLE_NAME + " BEGIN "
+                        + SQL_DELETE_SEARCH_ENTRY + " END;");
+                db.execSQL("CREATE TRIGGER pets_search_before_delete BEFORE DELETE ON "
+                        + PetEntry.TABLE_NAME + " BEGIN "
+                        + SQL_DELETE_SEARCH_ENTRY + " END;");
+                db.execSQL("CREATE TRIGGER " + TRIGGER_SEARCH_AFTER_UPDATE + " AFTER UPDATE ON "
+                        + PetEntry.TABLE_NAME + " BEGIN "
+                        + SQL_INSERT_SEARCH_ENTRY + " END;");
+                db.execSQL("CREATE TRIGGER pets_search_after_insert AFTER INSERT ON "
+                        + PetEntry.TABLE_NAME + " BEGIN "
+                        + SQL_INSERT_SEARCH_ENTRY + " END;");
+
+                // Index the pets that already exist
+                db.execSQL("INSERT INTO " + PetEntry.SEARCH_TABLE_NAME + "("
+                        + PetEntry.SEARCH_TABLE_NAME + ") VALUES('rebuild');");
+                break;
+            case 4:
+                // Keep the statistics of each gender and breed in their own tables, so they are
+                // read without going through the pets
+                createStatsTable(db, PetStatsEntry.GENDER_TABLE_NAME,
+                        PetStatsEntry.COLUMN_GENDER + " INTEGER PRIMARY KEY");
+                createStatsTable(db, PetStatsEntry.BREED_TABLE_NAME,
+                        PetStatsEntry.COLUMN_BREED + " TEXT PRIMARY KEY NOT NULL");
+
+                // The weights of a breed are found through this index when a pet with the
+                // minimum or maximum weight leaves the breed, it also serves the queries by breed
+                db.execSQL("CREATE INDEX " + INDEX_PET_BREED_WEIGHT + " ON " + PetEntry.TABLE_NAME
+                        + " (" + PetEntry.COLUMN_PET_BREED + ", " + PetEntry.COLUMN_PET_WEIGHT + ");");
+                db.execSQL("DROP INDEX " + INDEX_PET_BREED + ";");
+
+                // Keep the statistics in sync with the pets table
+                createStatsTriggers(db, PetStatsEntry.GENDER_TABLE_NAME,
+                        PetStatsEntry.COLUMN_GENDER, PetEntry.COLUMN_PET_GENDER,
+                        "%s." + PetEntry.COLUMN_PET_GENDER, SQL_GENDER_WEIGHT, false);
+                createStatsTriggers(db, PetStatsEntry.BREED_TABLE_NAME,
+                        PetStatsEntry.COLUMN_BREED, PetEntry.COLUMN_PET_BREED,
+                        BREED_STATS_KEY, SQL_BREED_WEIGHT, false);
+
+                // Compute the statistics of the pets that already exist
+                db.execSQL("INSERT INTO " + PetStatsEntry.GENDER_TABLE_NAME + " SELECT "
+                        + PetEntry.COLUMN_PET_GENDER + ", " + SQL_AGGREGATE_STATS
+                        + " FROM " + PetEntry.TABLE_NAME
+                        + " GROUP BY " + PetEntry.COLUMN_PET_GENDER + ";");
+                db.execSQL("INSERT INTO " + PetStatsEntry.BREED_TABLE_NAME + " SELECT "
+                        + String.format(BREED_STATS_KEY, PetEntry.TABLE_NAME) + ", "
+                        + SQL_AGGREGATE_STATS + " FROM " + PetEntry.TABLE_NAME
+                        + " GROUP BY 1;");
+                break;
+            case 5:
+                // Deleting a pet only marks it, the maintenance job removes it later
+                db.execSQL("ALTER TABLE " + PetEntry.TABLE_NAME + " ADD COLUMN "
+                        + PetEntry.COLUMN_PET_DELETED + " INTEGER NOT NULL DEFAULT 0;");
+
+                // Only reindex a pet for search when its name or breed changes, so marking it
+                // deleted does not touch the search index
+                db.execSQL("DROP TRIGGER " + TRIGGER_SEARCH_BEFORE_UPDATE + ";");
+                db.execSQL("DROP TRIGGER " + TRIGGER_SEARCH_AFTER_UPDATE + ";");
+                db.execSQL("CREATE TRIGGER " + TRIGGER_SEARCH_BEFORE_UPDATE + " BEFORE UPDATE OF "
+                        + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED + " ON "
+                        + PetEntry.TABLE_NAME + " BEGIN " + SQL_DELETE_SEARCH_ENTRY + " END;");
+                db.execSQL("CREATE TRIGGER " + TRIGGER_SEARCH_AFTER_UPDATE + " AFTER UPDATE OF "
+                        + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED + " ON "
+                        + PetEntry.TABLE_NAME + " BEGIN " + SQL_INSERT_SEARCH_ENTRY + " END;");
+
+                // The weights of the live pets of a gender or breed are found through these
+                // indexes without going over the deleted ones, they also serve the queries
+                // of the provider, which only select live pets
+                db.execSQL("CREATE INDEX " + INDEX_PET_GENDER_DELETED_WEIGHT + " ON "
+                        + PetEntry.TABLE_NAME + " (" + PetEntry.COLUMN_PET_GENDER + ", "
+                        + PetEntry.COLUMN_PET_DELETED + ", " + PetEntry.COLUMN_PET_WEIGHT + ");");
+                db.execSQL("DROP INDEX " + INDEX_PET_GENDER_WEIGHT + ";");
+                db.execSQL("CREATE INDEX " + INDEX_PET_BREED_DELETED_WEIGHT + " ON "
+                        + PetEntry.TABLE_NAME + " (" + PetEntry.COLUMN_PET_BREED + ", "
+                        + PetEntry.COLUMN_PET_DELETED + ", " + PetEntry.COLUMN_PET_WEIGHT + ");");
+                db.execSQL("DROP INDEX " + INDEX_PET_BREED_WEIGHT + ";");
+
+                // Count a pet out of the statistics when it is marked deleted rather than
+                // when it is removed
+                dropStatsTriggers(db, PetStatsEntry.GENDER_TABLE_NAME);
+                dropStatsTriggers(db, PetStatsEntry.BREED_TABLE_NAME);
+                createStatsTriggers(db, PetStatsEntry.GENDER_TABLE_NAME,
+                        PetStatsEntry.COLUMN_GENDER, PetEntry.COLUMN_PET_GENDER,
+                        "%s." + PetEntry.COLUMN_PET_GENDER, SQL_GENDER_WEIGHT, true);
+                createStatsTriggers(db, PetStatsEntry.BREED_TABLE_NAME,
+                        PetStatsEntry.COLUMN_BREED, PetEntry.COLUMN_PET_BREED,
+                        BREED_STATS_KEY, SQL_BREED_WEIGHT, true);
+                break;
+            case 6:
+                // Serves the pages of the pets sorted by weight, and the weight ranges, when they
+                // are not restricted to a gender or breed
+                // The deletion mark is left out, as an index starting with it would also be
+                // picked for the pages in _ID order, which the primary key serves better
+                db.execSQL("CREATE INDEX " + INDEX_PET_WEIGHT + " ON " + PetEntry.TABLE_NAME
+                        + " (" + PetEntry.COLUMN_PET_WEIGHT + ");");
+                break;
+            case 7:
+                // Photos are kept in files managed by the provider, only their names are
+                // stored so the rows stay small in the cursor windows
+                db.execSQL("ALTER TABLE " + PetEntry.TABLE_NAME + " ADD COLUMN "
+                        + PetEntry.COLUMN_PET_PHOTO + " TEXT;");
+                break;
+            case 8:
+                // Log every change to the pets in the same transaction as the change, so they
+                // can be read back in order from any sequence number
+                // Entries are only removed once a later one covers the same pet, so the
+                // greatest sequence number is never reused and no AUTOINCREMENT is needed
+                db.execSQL("CREATE TABLE " + PetChangeEntry.TABLE_NAME + " ("
+                        + PetChangeEntry.COLUMN_SEQUENCE + " INTEGER PRIMARY KEY, "
+                        + PetChangeEntry.COLUMN_PET_ID + " INTEGER NOT NULL, "
+                        + PetChangeEntry.COLUMN_OPERATION + " INTEGER NOT NULL);");
+
+                // Finds whether the entry of a pet is followed by a later one
+                db.execSQL("CREATE INDEX " + INDEX_CHANGE_PET + " ON "
+                        + PetChangeEntry.TABLE_NAME + " (" + PetChangeEntry.COLUMN_PET_ID + ", "
+                        + PetChangeEntry.COLUMN_SEQUENCE + ");");
+
+                // Marking a pet deleted logs its deletion, and the maintenance removing the
+                // row afterwards logs nothing more
+                db.execSQL("CREATE TRIGGER pet_changes_after_insert AFTER INSERT ON "
+                        + PetEntry.TABLE_NAME + " BEGIN " + String.format(SQL_LOG_CHANGE,
+                        "new." + PetEntry._ID, PetChangeEntry.OPERATION_INSERT) + " END;");
+                db.execSQL("CREATE TRIGGER pet_changes_after_update AFTER UPDATE ON "
+                        + PetEntry.TABLE_NAME + " WHEN old." + PetEntry.COLUMN_PET_DELETED
+                        + " = 0 BEGIN " + String.format(SQL_LOG_CHANGE, "new." + PetEntry._ID,
+                        "CASE WHEN new." + PetEntry.COLUMN_PET_DELETED + " = 0 THEN "
+                        + PetChangeEntry.OPERATION_UPDATE + " ELSE "
+                        + PetChangeEntry.OPERATION_DELETE + " END") + " END;");
+                db.execSQL("CREATE TRIGGER pet_changes_after_delete AFTER DELETE ON "
+                        + PetEntry.TABLE_NAME + " WHEN old." + PetEntry.COLUMN_PET_DELETED
+                        + " = 0 BEGIN " + String.format(SQL_LOG_CHANGE, "old." + PetEntry._ID,
+                        PetChangeEntry.OPERATION_DELETE) + " END;");
+
+                // Log the pets that already exist as inserted, so reading the log from the
+                // start returns every pet
+                db.execSQL("INSERT INTO " + PetChangeEntry.TABLE_NAME + " ("
+                        + PetChangeEntry.COLUMN_PET_ID + ", " + PetChangeEntry.COLUMN_OPERATION
+                        + ") SELECT " + PetEntry._ID + ", " + PetChangeEntry.OPERATION_INSERT
+                        + " FROM " + PetEntry.TABLE_NAME + " WHERE "
+                        + PetEntry.COLUMN_PET_DELETED + " = 0 ORDER BY " + PetEntry._ID + ";");
+                break;
+            default:
+                throw new IllegalStateException("No migration to database version " + version);
+        }
+    }
+
+    /* Aggregates of the pets of a group, in the order of the columns of a statistics table */
+    private final static String SQL_AGGREGATE_STATS = "COUNT(*), SUM(" + PetEntry.COLUMN_PET_WEIGHT
+            + "), MIN(" + PetEntry.COLUMN_PET_WEIGHT + "), MAX(" + PetEntry.COLUMN_PET_WEIGHT + ")";
+
+    /**
+     * Create a table with the statistics of the groups of pets that have the given key column
+     */
+    private static void createStatsTable(SQLiteDatabase db, String table, String keyColumn) {
+        db.execSQL("CREATE TABLE " + table + " ("
+                + keyColumn + ", "
+                + PetStatsEntry.COLUMN_PET_COUNT + " INTEGER NOT NULL DEFAULT 0, "
+                + PetStatsEntry.COLUMN_WEIGHT_SUM + " INTEGER NOT NULL DEFAULT 0, "
+                + PetStatsEntry.COLUMN_MIN_WEIGHT + " INTEGER, "
+                + PetStatsEntry.COLUMN_MAX_WEIGHT + " INTEGER);");
+    }
+
+    /**
+     * Create the triggers that keep the given statistics table in sync with the pets table
+     * @param table Statistics table
+     * @param keyColumn Column of the statistics table with the key of each group
+     * @param petColumn Column of the pets table the groups are made of
+     * @param key Expression of the key of the group of a pet, with %s for "old" or "new"
+     * @param weightQuery Query of the weights of the group of the old pet, with %1$s for
+     *                    the MIN or MAX aggregate and %2$s for an extra condition on the pets
+     * @param softDelete Whether pets leave the statistics when they are marked deleted,
+     *                   from version 5, instead of when they are removed
+     */
+    private static void createStatsTriggers(SQLiteDatabase db, String table, String keyColumn,
+                                            String petColumn, String key, String weightQuery,
+                                            boolean softDelete) {
+        String newKey = String.format(key, "new");
+        String oldKey = String.format(key, "old");
+        String count = PetStatsEntry.COLUMN_PET_COUNT;
+        String sum = PetStatsEntry.COLUMN_WEIGHT_SUM;
+        String min = PetStatsEntry.COLUMN_MIN_WEIGHT;
+        String max = PetStatsEntry.COLUMN_MAX_WEIGHT;
+        String weight = PetEntry.COLUMN_PET_WEIGHT;
+        String deleted = PetEntry.COLUMN_PET_DELETED;
+
+        // The weights of the deleted pets still in the table are left out of the statistics
+        String liveCondition = softDelete ? SQL_LIVE_PET : "";
+
+        // Add the new pet to its group, creating the group if it is the first pet of it
+        String addPet = "INSERT OR IGNORE INTO " + table + " (" + keyColumn + ") VALUES ("
+                + newKey + "); "
+                + "UPDATE " + table + " SET "
+                + count + " = " + count + " + 1, "
+                + sum + " = " + sum + " + new." + weight + ", "
+                + min + " = CASE WHEN " + min + " IS NULL OR new." + weight + " < " + min
+                + " THEN new." + weight + " ELSE " + min + " END, "
+                + max + " = CASE WHEN " + max + " IS NULL OR new." + weight + " > " + max
+                + " THEN new." + weight + " ELSE " + max + " END"
+                + " WHERE " + keyColumn + " = " + newKey + "; ";
+
+        // Remove the old pet from its group, and the group once it has no pets
+        // The minimum and maximum are only searched again when the old pet held them
+        String removePet = "UPDATE " + table + " SET "
+                + count + " = " + count + " - 1, "
+                + sum + " = " + sum + " - old." + weight + ", "
+                + min + " = CASE WHEN old." + weight + " = " + min + " THEN "
+                + String.format(weightQuery, "MIN", liveCondition) + " ELSE " + min + " END, "
+                + max + " = CASE WHEN old." + weight + " = " + max + " THEN "
+                + String.format(weightQuery, "MAX", liveCondition) + " ELSE " + max + " END"
+                + " WHERE " + keyColumn + " = " + oldKey + "; "
+                + "DELETE FROM " + table + " WHERE " + keyColumn + " = " + oldKey
+                + " AND " + count + " = 0; ";
+
+        // The triggers run after the pets table has changed, so the weights of the old group
+        // are searched without the old pet
+        db.execSQL("CREATE TRIGGER " + table + "_after_insert AFTER INSERT ON "
+                + PetEntry.TABLE_NAME + " BEGIN " + addPet + "END;");
+        if(!softDelete) {
+            db.execSQL("CREATE TRIGGER " + table + "_after_delete AFTER DELETE ON "
+                    + PetEntry.TABLE_NAME + " BEGIN " + removePet + "END;");
+            db.execSQL("CREATE TRIGGER " + table + "_after_update AFTER UPDATE OF "
+                    + petColumn + ", " + weight + " ON " + PetEntry.TABLE_NAME
+                    + " WHEN old." + petColumn + " IS NOT new." + petColumn
+                    + " OR old." + weight + " IS NOT new." + weight
+                    + " BEGIN " + removePet + addPet + "END;");
+            return;
+        }
+
+        // Removing a pet that was already marked deleted leaves the statistics as they are
+        db.execSQL("CREATE TRIGGER " + table + "_after_delete AFTER DELETE ON "
+                + PetEntry.TABLE_NAME + " WHEN old." + deleted + " = 0"
+                + " BEGIN " + removePet + "END;");
+        db.execSQL("CREATE TRIGGER " + table + "_after_update AFTER UPDATE OF "
+                + petColumn + ", " + weight + " ON " + PetEntry.TABLE_NAME
+                + " WHEN old." + deleted + " = 0 AND new." + deleted + " = 0"
+                + " AND (old." + petColumn + " IS NOT new." + petColumn
+                + " OR old." + weight + " IS NOT new." + weight + ")"
+                + " BEGIN " + removePet + addPet + "END;");
+        db.execSQL("CREATE TRIGGER " + table + "_after_mark_deleted AFTER UPDATE OF "
+                + deleted + " ON " + PetEntry.TABLE_NAME
+                + " WHEN old." + deleted + " = 0 AND new." + deleted + " = 1"
+                + " BEGIN " + removePet + "END;");
+    }
+
+    /**
+     * Drop the triggers created by createStatsTriggers for the given statistics table
+     */
+    private static void dropStatsTriggers(SQLiteDatabase db, String table) {
+        db.execSQL("DROP TRIGGER " + table + "_after_insert;");
+        db.execSQL("DROP TRIGGER " + table + "_after_delete;");
+        db.execSQL("DROP TRIGGER " + table + "_after_update;");
     }
 
 }
@@ -0,0 +1,327 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Locale;
+
+/**
+ * Exports pets from PetProvider to a CSV or JSON stream, in the formats read by PetImporter
+ *
+ * The pets are read in windows of consecutive _IDs, so only one window is held in memory at a
+ * time, and the values are copied into reused buffers, so no object is allocated per row
+ * An exporter is not thread-safe, each thread uses its own
+ */
+public final class PetExporter {
+
+    /* Maximum number of pets read by each query */
+    private static final int WINDOW_SIZE = 1000;
+
+    /* Size of the buffer between the exporter and the stream, in characters */
+    private static final int WRITER_BUFFER_SIZE = 64 * 1024;
+
+    /* Columns exported when no projection is given */
+    private static final String[] ALL_COLUMNS = {
+            PetEntry._ID,
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_GENDER,
+            PetEntry.COLUMN_PET_WEIGHT };
+
+    private final ContentResolver mResolver;
+
+    /* Buffer the text values are copied into */
+    private final CharArrayBuffer mText = new CharArrayBuffer(64);
+
+    /* Buffer the digits of the integer values are written into, enough for any long */
+    private final char[] mDigits = new char[20];
+
+    public PetExporter(ContentResolver resolver) {
+        mResolver = resolver;
+    }
+
+    /**
+     * Write the given columns of the pets matching the selection to the given stream,
+     * in _ID order
+     * The stream is flushed but not closed
+     * @param out Stream to write to
+     * @param format PetEntry.FORMAT_CSV or PetEntry.FORMAT_JSON
+     * @param projection Columns to export, or null for all the columns of the pets table
+     * @param selection Filter of the pets to export, or null for all of them
+     * @param selectionArgs Arguments of the selection
+     * @return the number of exported pets
+     */
+    public long export(OutputStream out, String format, String[] projection, String selection,
+                       String[] selectionArgs) throws IOException {
+        boolean json;
+        if(PetEntry.FORMAT_JSON.equals(format)) {
+            json = true;
+        } else if(PetEntry.FORMAT_CSV.equals(format)) {
+            json = false;
+        } else {
+            throw new IllegalArgumentException("Unknown export format " + format);
+        }
+        if(projection == null) {
+            projection = ALL_COLUMNS;
+        }
+
+        // The _ID is always queried, the next window starts after the last _ID of the previous
+        String[] queryProjection = projection;
+        if(indexOf(projection, PetEntry._ID) == -1) {
+            queryProjection = new String[projection.length + 1];
+            System.arraycopy(projection, 0, queryProjection, 0, projection.length);
+            queryProjection[projection.length] = PetEntry._ID;
+        }
+
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"),
+                WRITER_BUFFER_SIZE);
+        String[] jsonKeys = null;
+        if(json) {
+            // The key of every column is encoded once, to be written as is for each row
+            jsonKeys = new String[projection.length];
+            for(int column = 0; column < projection.length; column++) {
+                StringWriter key = new StringWriter();
+                writeJsonText(key, projection[column]);
+                key.write(':');
+                jsonKeys[column] = key.toString();
+            }
+            writer.write('[');
+        } else {
+            for(int column = 0; column < projection.length; column++) {
+                if(column != 0) {
+                    writer.write(',');
+                }
+                writeCsvText(writer, projection[column]);
+            }
+            writer.write('\n');
+        }
+
+        long rows = 0;
+        long afterId = 0;
+        int[] columnIndices = null;
+        int idIndex = 0;
+        while(true) {
+            Cursor cursor = mResolver.query(PetEntry.buildPageUri(afterId, WINDOW_SIZE),
+                    queryProjection, selection, selectionArgs, null);
+            if(cursor == null) {
+                throw new IOException("Cannot query the pets after " + afterId);
+            }
+            int count;
+            try {
+                // The columns are found once, every window has the same ones
+                if(columnIndices == null) {
+                    columnIndices = new int[projection.length];
+                    for(int column = 0; column < projection.length; column++) {
+                        columnIndices[column] = cursor.getColumnIndexOrThrow(projection[column]);
+                    }
+                    idIndex = cursor.getColumnIndexOrThrow(PetEntry._ID);
+                }
+
+                count = cursor.getCount();
+                while(cursor.moveToNext()) {
+                    if(json) {
+                        writeJsonRow(writer, cursor, jsonKeys, columnIndices, rows == 0);
+                    } else {
+                        writeCsvRow(writer, cursor, columnIndices);
+                    }
+                    afterId = cursor.getLong(idIndex);
+                    rows++;
+                }
+            } finally {
+                cursor.close();
+            }
+
+            // A window that is not full is the last one
+            if(count < WINDOW_SIZE) {
+                break;
+            }
+        }
+
+        if(json) {
+            writer.write("]\n");
+        }
+        writer.flush();
+        return rows;
+    }
+
+    /**
+     * Write the current row of the cursor as a line of CSV
+     */
+    private void writeCsvRow(Writer writer, Cursor cursor, int[] columnIndices)
+            throws IOException {
+        for(int column = 0; column < columnIndices.length; column++) {
+            if(column != 0) {
+                writer.write(',');
+            }
+            int index = columnIndices[column];
+            switch(cursor.getType(index)) {
+                case Cursor.FIELD_TYPE_NULL:
+                case Cursor.FIELD_TYPE_BLOB:
+                    // Empty field, blobs are not exported
+                    break;
+                case Cursor.FIELD_TYPE_INTEGER:
+                    writeLong(writer, cursor.getLong(index));
+                    break;
+                case Cursor.FIELD_TYPE_FLOAT:
+                    writer.write(String.valueOf(cursor.getDouble(index)));
+                    break;
+                default:
+                    cursor.copyStringToBuffer(index, mText);
+                    writeCsvText(writer, mText.data, mText.sizeCopied);
+                    break;
+            }
+        }
+        writer.write('\n');
+    }
+
+    /**
+     * Write the current row of the cursor as a JSON object, preceded by a comma unless first
+     */
+    private void writeJsonRow(Writer writer, Cursor cursor, String[] jsonKeys,
+                              int[] columnIndices, boolean first) throws IOException {
+        writer.write(first ? "\n{" : ",\n{");
+        for(int column = 0; column < columnIndices.length; column++) {
+            if(column != 0) {
+                writer.write(',');
+            }
+            writer.write(jsonKeys[column]);
+            int index = columnIndices[column];
+            switch(cursor.getType(index)) {
+                case Cursor.FIELD_TYPE_NULL:
+                case Cursor.FIELD_TYPE_BLOB:
+                    // Blobs are not exported
+                    writer.write("null");
+                    break;
+                case Cursor.FIELD_TYPE_INTEGER:
+                    writeLong(writer, cursor.getLong(index));
+                    break;
+                case Cursor.FIELD_TYPE_FLOAT:
+                    writer.write(String.valueOf(cursor.getDouble(index)));
+                    break;
+                default:
+                    cursor.copyStringToBuffer(index, mText);
+                    writeJsonText(writer, mText.data, mText.sizeCopied);
+                    break;
+            }
+        }
+        writer.write('}');
+    }
+
+    /**
+     * Write the given number without creating a String for it
+     */
+    private void writeLong(Writer writer, long value) throws IOException {
+        if(value == Long.MIN_VALUE) {
+            // Its opposite does not fit in a long
+            writer.write(String.valueOf(value));
+            return;
+        }
+        boolean negative = value < 0;
+        if(negative) {
+            value = -value;
+        }
+        int start = mDigits.length;
+        do {
+            mDigits[--start] = (char) ('0' + value % 10);
+            value /= 10;
+        } while(value != 0);
+        if(negative) {
+            mDigits[--start] = '-';
+        }
+        writer.write(mDigits, start, mDigits.length - start);
+    }
+
+    private static void writeCsvText(Writer writer, String text) throws IOException {
+        writeCsvText(writer, text.toCharArray(), text.length());
+    }
+
+    /**
+     * Write the given text as a CSV field, quoted if it holds a comma, quote or line break
+     */
+    private static void writeCsvText(Writer writer, char[] text, int length) throws IOException {
+        boolean quote = false;
+        for(int i = 0; i < length && !quote; i++) {
+            char c = text[i];
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if(!quote) {
+            writer.write(text, 0, length);
+            return;
+        }
+
+        // Quotes within the field are doubled
+        writer.write('"');
+        int start = 0;
+        for(int i = 0; i < length; i++) {
+            if(text[i] == '"') {
+                writer.write(text, start, i + 1 - start);
+                start = i;
+            }
+        }
+        writer.write(text, start, length - start);
+        writer.write('"');
+    }
+
+    private static void writeJsonText(Writer writer, String text) throws IOException {
+        writeJsonText(writer, text.toCharArray(), text.length());
+    }
+
+    /**
+     * Write the given text as a JSON string, escaping quotes, backslashes and control characters
+     */
+    private static void writeJsonText(Writer writer, char[] text, int length) throws IOException {
+        writer.write('"');
+        int start = 0;
+        for(int i = 0; i < length; i++) {
+            char c = text[i];
+            if(c != '"' && c != '\\' && c >= 0x20) {
+                continue;
+            }
+            writer.write(text, start, i - start);
+            start = i + 1;
+            switch(c) {
+                case '"':
+                    writer.write("\\\"");
+                    break;
+                case '\\':
+                    writer.write("\\\\");
+                    break;
+                case '\n':
+                    writer.write("\\n");
+                    break;
+                case '\r':
+                    writer.write("\\r");
+                    break;
+                case '\t':
+                    writer.write("\\t");
+                    break;
+                default:
+                    writer.write(String.format(Locale.ROOT, "\\u%04x", (int) c));
+                    break;
+            }
+        }
+        writer.write(text, start, length - start);
+        writer.write('"');
+    }
+
+    /**
+     * Return the position of the given value in the array, or -1 if it is not there
+     */
+    private static int indexOf(String[] array, String value) {
+        for(int i = 0; i < array.length; i++) {
+            if(array[i].equals(value)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
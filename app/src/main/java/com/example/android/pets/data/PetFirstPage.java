@@ -0,0 +1,118 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.util.Arrays;
+
+/**
+ * Copy of the first page of the catalog, the pets CatalogActivity shows as soon as it starts
+ *
+ * PetProvider reads the page ahead when the process starts and answers the query of the
+ * catalog from this copy until the pets table changes. Like PetCache, every invalidation
+ * starts a new generation, so a page read before a write is never kept after it
+ */
+final class PetFirstPage {
+
+    /* Rows of the page, null until it is read or after an invalidation, guarded by this */
+    private Object[][] mRows;
+
+    /* Incremented by every invalidation, guarded by this */
+    private long mGeneration;
+
+    /**
+     * Return whether the given query is the one of the first page of the catalog, the first
+     * CATALOG_PAGE_SIZE pets in _ID order with the columns of PetReader.LIST_COLUMNS, merged
+     * across every shelter
+     */
+    static boolean isFirstPage(Uri uri, String[] projection, String selection,
+                               String sortOrder) {
+        return selection == null && sortOrder == null
+                && Arrays.equals(projection, PetReader.LIST_COLUMNS)
+                && "0".equals(uri.getQueryParameter(PetEntry.QUERY_PARAMETER_AFTER_ID))
+                && String.valueOf(PetEntry.CATALOG_PAGE_SIZE).equals(
+                        uri.getQueryParameter(PetEntry.QUERY_PARAMETER_LIMIT))
+                && uri.getQueryParameter(PetEntry.QUERY_PARAMETER_SORT) == null
+                && uri.getQueryParameter(PetEntry.QUERY_PARAMETER_UNTIL_ID) == null
+                && uri.getQueryParameter(PetEntry.QUERY_PARAMETER_SHELTER) == null;
+    }
+
+    /**
+     * Return a cursor over the copy of the page, or null if it was not read since the last
+     * invalidation
+     */
+    Cursor get() {
+        Object[][] rows;
+        synchronized(this) {
+            rows = mRows;
+        }
+        if(rows == null) {
+            return null;
+        }
+        MatrixCursor cursor = new MatrixCursor(PetReader.LIST_COLUMNS, rows.length);
+        for(Object[] row : rows) {
+            cursor.addRow(row);
+        }
+        return cursor;
+    }
+
+    /**
+     * Return the current generation, to be passed to put() along with the page read after it
+     */
+    synchronized long generation() {
+        return mGeneration;
+    }
+
+    /**
+     * Copy the rows of the given cursor over the page, which was read from the database
+     * during the given generation
+     * The copy is dropped if the page was invalidated since then, and the cursor is moved
+     * back before its first row either way
+     */
+    void put(Cursor cursor, long generation) {
+        Object[][] rows = new Object[cursor.getCount()][];
+        int columnCount = cursor.getColumnCount();
+        cursor.moveToPosition(-1);
+        for(int i = 0; cursor.moveToNext(); i++) {
+            Object[] row = new Object[columnCount];
+            for(int column = 0; column < columnCount; column++) {
+                switch(cursor.getType(column)) {
+                    case Cursor.FIELD_TYPE_INTEGER:
+                        row[column] = cursor.getLong(column);
+                        break;
+                    case Cursor.FIELD_TYPE_FLOAT:
+                        row[column] = cursor.getDouble(column);
+                        break;
+                    case Cursor.FIELD_TYPE_STRING:
+                        row[column] = cursor.getString(column);
+                        break;
+                    case Cursor.FIELD_TYPE_BLOB:
+                        row[column] = cursor.getBlob(column);
+                        break;
+                    default:
+                        row[column] = null;
+                        break;
+                }
+            }
+            rows[i] = row;
+        }
+        cursor.moveToPosition(-1);
+
+        synchronized(this) {
+            if(generation == mGeneration) {
+                mRows = rows;
+            }
+        }
+    }
+
+    /**
+     * Drop the copy of the page, it is read again by the next query of the catalog
+     */
+    synchronized void invalidate() {
+        mGeneration++;
+        mRows = null;
+    }
+}
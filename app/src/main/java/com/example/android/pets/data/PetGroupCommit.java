@@ -0,0 +1,222 @@
+package com.example.android.pets.data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gathers the writes issued concurrently by several threads into groups committed in a single
+ * transaction, so that they share one commit instead of paying for one each
+ *
+ * The first thread to submit a write leads the group. The group stays open while the previous
+ * group commits, then until the window ends or the group is full, and the leader commits every
+ * write of the group through the Committer
+ * The other threads wait for the group to commit and return the result of their own write
+ * Even without a window, the writes issued while a group commits are gathered into the next one
+ */
+final class PetGroupCommit {
+
+    /* Default time a group stays open for more writes once it can commit */
+    static final long DEFAULT_WINDOW_MILLIS = 0;
+
+    /* Default number of writes that closes a group before the end of its window */
+    static final int DEFAULT_MAX_WRITES = 64;
+
+    /**
+     * A write to apply as part of a group
+     */
+    interface Operation<T> {
+        T apply();
+    }
+
+    /**
+     * Commits the writes of a group
+     */
+    interface Committer {
+
+        /**
+         * Run every write of the group in a single transaction
+         * If the transaction cannot commit, each write is run again on its own
+         */
+        void commit(List<Write<?>> writes);
+    }
+
+    private final Committer mCommitter;
+
+    /* Guards the open group and the completion of the writes */
+    private final Object mLock = new Object();
+
+    /* Held by the leader of the group being committed, so groups commit one at a time */
+    private final Object mCommitLock = new Object();
+
+    /* Group taking new writes, null if there is none */
+    private List<Write<?>> mOpenGroup;
+
+    private volatile boolean mEnabled;
+    private volatile long mWindowNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_WINDOW_MILLIS);
+    private volatile int mMaxWrites = DEFAULT_MAX_WRITES;
+
+    PetGroupCommit(Committer committer) {
+        mCommitter = committer;
+    }
+
+    boolean isEnabled() {
+        return mEnabled;
+    }
+
+    /**
+     * Turn group commit on or off, with the given window and maximum size of the groups
+     * The groups already open are committed as they are
+     */
+    void setEnabled(boolean enabled, long windowMillis, int maxWrites) {
+        if(windowMillis < 0 || maxWrites < 1) {
+            throw new IllegalArgumentException("Invalid group commit window " + windowMillis
+                    + " or size " + maxWrites);
+        }
+        mWindowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        mMaxWrites = maxWrites;
+        mEnabled = enabled;
+    }
+
+    /**
+     * Apply the given write as part of a group and return its result once the group has
+     * committed
+     * An exception thrown by the write is thrown again on the calling thread
+     */
+    <T> T submit(Operation<T> operation) {
+        Write<T> write = new Write<T>(operation);
+        List<Write<?>> group;
+        boolean leader;
+        synchronized(mLock) {
+            leader = mOpenGroup == null;
+            if(leader) {
+                mOpenGroup = new ArrayList<Write<?>>();
+            }
+            group = mOpenGroup;
+            group.add(write);
+            if(group.size() >= mMaxWrites) {
+                // Full, wake the leader up so it commits right away
+                mOpenGroup = null;
+                mLock.notifyAll();
+            }
+        }
+
+        boolean interrupted = false;
+        if(leader) {
+            synchronized(mCommitLock) {
+                interrupted = awaitGroup(group);
+                try {
+                    mCommitter.commit(group);
+                } catch(RuntimeException e) {
+                    for(Write<?> groupWrite : group) {
+                        groupWrite.fail(e);
+                    }
+                } finally {
+                    synchronized(mLock) {
+                        for(Write<?> groupWrite : group) {
+                            groupWrite.mDone = true;
+                        }
+                        mLock.notifyAll();
+                    }
+                }
+            }
+        } else {
+            synchronized(mLock) {
+                while(!write.mDone) {
+                    try {
+                        mLock.wait();
+                    } catch(InterruptedException e) {
+                        // The write is already queued, so its result is still waited for
+                        interrupted = true;
+                    }
+                }
+            }
+        }
+        if(interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return write.getResult();
+    }
+
+    /**
+     * Wait until the window of the given group ends or the group is full, and close it
+     * Return whether the thread was interrupted while waiting
+     */
+    private boolean awaitGroup(List<Write<?>> group) {
+        boolean interrupted = false;
+        synchronized(mLock) {
+            long deadline = System.nanoTime() + mWindowNanos;
+            while(mOpenGroup == group) {
+                long remaining = deadline - System.nanoTime();
+                if(remaining <= 0 || interrupted) {
+                    mOpenGroup = null;
+                    break;
+                }
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(mLock, remaining);
+                } catch(InterruptedException e) {
+                    // Commit what was gathered so far instead of waiting
+                    interrupted = true;
+                }
+            }
+        }
+        return interrupted;
+    }
+
+    /**
+     * A write of a group and its result
+     */
+    static final class Write<T> {
+
+        private final Operation<T> mOperation;
+        private T mResult;
+        private RuntimeException mError;
+
+        /* Whether the group of the write is done, guarded by the lock of the PetGroupCommit */
+        private boolean mDone;
+
+        private Write(Operation<T> operation) {
+            mOperation = operation;
+        }
+
+        /**
+         * Apply the write within the transaction of its group
+         * An IllegalArgumentException, thrown when the write is rejected before it changes
+         * anything, is kept for the caller, any other exception aborts the group
+         */
+        void run() {
+            try {
+                mResult = mOperation.apply();
+                mError = null;
+            } catch(IllegalArgumentException e) {
+                mError = e;
+            }
+        }
+
+        /**
+         * Apply the write on its own, after its group failed to commit
+         */
+        void runAlone() {
+            try {
+                mResult = mOperation.apply();
+                mError = null;
+            } catch(RuntimeException e) {
+                mError = e;
+            }
+        }
+
+        /**
+         * Fail the write with the given exception, when its group could not be committed
+         */
+        private void fail(RuntimeException e) {
+            mError = e;
+        }
+
+        private T getResult() {
+            if(mError != null) {
+                throw mError;
+            }
+            return mResult;
+        }
+    }
+}
@@ -0,0 +1,469 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.res.AssetFileDescriptor;
+import android.net.Uri;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Imports pets from a CSV or JSON file into PetProvider
+ *
+ * The file is read one pet at a time and the pets are inserted in chunks, each chunk in its own
+ * transaction, so files of any size are imported in bounded memory
+ * After every chunk the number of pets read from the file is saved, and importing the same file
+ * again resumes after the last saved chunk
+ * The progress is saved once the chunk is committed, not in its transaction, so the import is
+ * at least once: if the process dies between the two, the last chunk is inserted again on resume
+ *
+ * CSV files start with a header line naming their columns, among name, breed, gender and weight
+ * JSON files hold an array of objects with these names
+ * The gender is either the number of a PetEntry gender constant, or unknown, male or female
+ */
+public final class PetImporter {
+
+    /* Tag for the log messages */
+    private static final String LOG_TAG = PetImporter.class.getSimpleName();
+
+    /* Number of pets inserted in each transaction */
+    private static final int CHUNK_SIZE = 500;
+
+    /* Name of the preferences holding the progress of the unfinished imports */
+    private static final String PREFERENCES_NAME = "pet_imports";
+
+    /* Suffixes of the preferences keys of an import, appended to the URI of its file */
+    private static final String KEY_SUFFIX_RECORDS = ".records";
+    private static final String KEY_SUFFIX_LENGTH = ".length";
+
+    /* Position of each pet attribute in the fields of a record */
+    private static final int FIELD_NAME = 0;
+    private static final int FIELD_BREED = 1;
+    private static final int FIELD_GENDER = 2;
+    private static final int FIELD_WEIGHT = 3;
+    private static final int FIELD_COUNT = 4;
+
+    /* Names of the attributes in the files, in the order of the fields of a record */
+    private static final String[] FIELD_NAMES = {
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_GENDER,
+            PetEntry.COLUMN_PET_WEIGHT };
+
+    /**
+     * Interface to be notified of the progress of an import
+     */
+    public interface ProgressListener {
+        /**
+         * Called after each committed chunk, with the totals since the start of the file,
+         * including the pets imported before the import was resumed
+         * @param recordsRead Number of pets read from the file
+         * @param petsImported Number of pets inserted by this run of the import
+         * @param petsSkipped Number of invalid pets that were not inserted by this run
+         */
+        void onProgress(long recordsRead, long petsImported, long petsSkipped);
+    }
+
+    /* Context of this app */
+    private final Context mContext;
+
+    /* Progress of the unfinished imports, by URI of the imported file */
+    private final SharedPreferences mPreferences;
+
+    public PetImporter(Context context) {
+        mContext = context.getApplicationContext();
+        mPreferences = mContext.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Import the pets of the CSV or JSON file with the given URI
+     * The format is told by the first character of the file, an array for JSON
+     * This reads from storage and writes to the database, so it must not run on the main thread
+     * @param source URI of the file to import
+     * @param listener Listener notified of the progress, may be null
+     * @return the number of pets inserted by this run of the import
+     * @throws IOException if the file cannot be read or is malformed, the chunks committed
+     *                     until then stay imported and the next import of the file resumes after
+     *                     the last saved chunk
+     */
+    public long importPets(Uri source, ProgressListener listener) throws IOException {
+        ContentResolver resolver = mContext.getContentResolver();
+        String recordsKey = source.toString() + KEY_SUFFIX_RECORDS;
+        String lengthKey = source.toString() + KEY_SUFFIX_LENGTH;
+
+        // Resume after the last committed chunk, unless the file has changed since
+        long length = getLength(resolver, source);
+        long recordsRead = 0;
+        if(mPreferences.getLong(lengthKey, AssetFileDescriptor.UNKNOWN_LENGTH) == length) {
+            recordsRead = mPreferences.getLong(recordsKey, 0);
+        }
+
+        InputStream in = resolver.openInputStream(source);
+        if(in == null) {
+            throw new IOException("Cannot open " + source);
+        }
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        RecordReader records = null;
+        try {
+            records = isJson(reader) ? new JsonRecordReader(reader) : new CsvRecordReader(reader);
+
+            // Skip the records imported by previous runs
+            String[] fields = new String[FIELD_COUNT];
+            for(long record = 0; record < recordsRead; record++) {
+                if(!records.read(fields)) {
+                    break;
+                }
+            }
+
+            // The content values of a chunk are reused from one chunk to the next
+            ContentValues[] chunk = new ContentValues[CHUNK_SIZE];
+            for(int i = 0; i < CHUNK_SIZE; i++) {
+                chunk[i] = new ContentValues(FIELD_COUNT);
+            }
+
+            long petsImported = 0;
+            long petsSkipped = 0;
+            boolean done = false;
+            while(!done) {
+                // Fill a chunk with valid pets
+                int size = 0;
+                long chunkRecords = 0;
+                while(size < CHUNK_SIZE) {
+                    if(!records.read(fields)) {
+                        done = true;
+                        break;
+                    }
+                    chunkRecords++;
+                    if(toPetValues(fields, chunk[size])) {
+                        size++;
+                    } else {
+                        Log.w(LOG_TAG, "Skipped invalid pet " + (recordsRead + chunkRecords)
+                                + " of " + source);
+                        petsSkipped++;
+                    }
+                }
+
+                // Insert the chunk in a single transaction, then save the progress
+                // A crash in between inserts the chunk again on resume, pets have no natural key
+                // to tell the copies apart
+                if(size != 0) {
+                    petsImported += resolver.bulkInsert(PetEntry.CONTENT_URI,
+                            size == CHUNK_SIZE ? chunk : Arrays.copyOf(chunk, size));
+                }
+                recordsRead += chunkRecords;
+                mPreferences.edit()
+                        .putLong(recordsKey, recordsRead)
+                        .putLong(lengthKey, length)
+                        .commit();
+
+                if(listener != null) {
+                    listener.onProgress(recordsRead, petsImported, petsSkipped);
+                }
+            }
+
+            // The whole file is imported, importing it again starts over
+            mPreferences.edit().remove(recordsKey).remove(lengthKey).commit();
+            return petsImported;
+        } finally {
+            if(records != null) {
+                records.close();
+            } else {
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * Return the length of the file with the given URI, or UNKNOWN_LENGTH
+     */
+    private static long getLength(ContentResolver resolver, Uri source) {
+        AssetFileDescriptor descriptor = null;
+        try {
+            descriptor = resolver.openAssetFileDescriptor(source, "r");
+            return descriptor == null ? AssetFileDescriptor.UNKNOWN_LENGTH : descriptor.getLength();
+        } catch(IOException e) {
+            return AssetFileDescriptor.UNKNOWN_LENGTH;
+        } finally {
+            if(descriptor != null) {
+                try {
+                    descriptor.close();
+                } catch(IOException e) {
+                    // Nothing was written, the length is already known
+                }
+            }
+        }
+    }
+
+    /**
+     * Return whether the text of the given reader is JSON, by its first non-blank character,
+     * without consuming any character
+     */
+    private static boolean isJson(BufferedReader reader) throws IOException {
+        reader.mark(1024);
+        try {
+            for(int i = 0; i < 1024; i++) {
+                int c = reader.read();
+                // Skip the byte order mark and the leading white space
+                if(c != 0xfeff && !Character.isWhitespace(c)) {
+                    return c == '[';
+                }
+            }
+            return false;
+        } finally {
+            reader.reset();
+        }
+    }
+
+    /**
+     * Fill the given content values with the pet of the given fields
+     * Return false if the fields are not a valid pet, checked with the rules of PetProvider
+     */
+    private static boolean toPetValues(String[] fields, ContentValues values) {
+        values.clear();
+        values.put(PetEntry.COLUMN_PET_NAME, fields[FIELD_NAME]);
+
+        // An empty breed is an unknown breed
+        String breed = fields[FIELD_BREED];
+        values.put(PetEntry.COLUMN_PET_BREED, breed == null || breed.length() == 0 ? null : breed);
+
+        Integer gender = parseGender(fields[FIELD_GENDER]);
+        if(gender == null) {
+            return false;
+        }
+        values.put(PetEntry.COLUMN_PET_GENDER, gender);
+
+        // A missing weight is left to the default of the weight column
+        String weight = fields[FIELD_WEIGHT];
+        if(weight != null && weight.length() != 0) {
+            try {
+                values.put(PetEntry.COLUMN_PET_WEIGHT, Integer.parseInt(weight.trim()));
+            } catch(NumberFormatException e) {
+                return false;
+            }
+        }
+
+        try {
+            PetProvider.validateNewPet(values);
+            return true;
+        } catch(IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Return the gender constant of the given text, unknown if it is empty, or null if invalid
+     */
+    private static Integer parseGender(String text) {
+        if(text == null || text.length() == 0) {
+            return PetEntry.GENDER_UNKNOWN;
+        }
+        text = text.trim().toLowerCase(Locale.ROOT);
+        if(text.equals("unknown")) {
+            return PetEntry.GENDER_UNKNOWN;
+        } else if(text.equals("male")) {
+            return PetEntry.GENDER_MALE;
+        } else if(text.equals("female")) {
+            return PetEntry.GENDER_FEMALE;
+        }
+        try {
+            return Integer.parseInt(text);
+        } catch(NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Return the position of the field with the given name in a record, or -1 if it is unknown
+     */
+    private static int getFieldIndex(String name) {
+        for(int i = 0; i < FIELD_NAMES.length; i++) {
+            if(FIELD_NAMES[i].equalsIgnoreCase(name.trim())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Reads the pets of a file one record at a time
+     */
+    private abstract static class RecordReader implements Closeable {
+
+        /**
+         * Read the next pet into the given fields, null for the missing ones
+         * Return false if there are no more pets
+         */
+        abstract boolean read(String[] fields) throws IOException;
+    }
+
+    /**
+     * Reads the records of a CSV file, with a header line naming its columns
+     * Fields may be quoted with ", to hold commas, line breaks or "" for a quote
+     */
+    private static final class CsvRecordReader extends RecordReader {
+
+        private final Reader mReader;
+
+        /* Position in the fields of a record of each column of the file, -1 if unknown */
+        private final int[] mColumnFields;
+
+        /* Fields of the row being read, and text of the field being read */
+        private final ArrayList<String> mRow = new ArrayList<String>();
+        private final StringBuilder mField = new StringBuilder();
+
+        /* Number of the line being read, for the error messages */
+        private int mLine = 1;
+
+        CsvRecordReader(Reader reader) throws IOException {
+            mReader = reader;
+            if(!readRow()) {
+                throw new IOException("Missing CSV header");
+            }
+            // Skip the byte order mark written by some spreadsheets, like isJson does
+            String first = mRow.get(0);
+            if(first.length() != 0 && first.charAt(0) == '\ufeff') {
+                mRow.set(0, first.substring(1));
+            }
+            mColumnFields = new int[mRow.size()];
+            boolean hasName = false;
+            for(int column = 0; column < mColumnFields.length; column++) {
+                mColumnFields[column] = getFieldIndex(mRow.get(column));
+                hasName |= mColumnFields[column] == FIELD_NAME;
+            }
+            if(!hasName) {
+                throw new IOException("Missing " + PetEntry.COLUMN_PET_NAME + " column in CSV header");
+            }
+        }
+
+        @Override
+        boolean read(String[] fields) throws IOException {
+            // Skip the blank lines
+            do {
+                if(!readRow()) {
+                    return false;
+                }
+            } while(mRow.size() == 1 && mRow.get(0).length() == 0);
+
+            Arrays.fill(fields, null);
+            for(int column = 0; column < mRow.size() && column < mColumnFields.length; column++) {
+                if(mColumnFields[column] != -1) {
+                    fields[mColumnFields[column]] = mRow.get(column);
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Read the fields of the next row into mRow, return false at the end of the file
+         */
+        private boolean readRow() throws IOException {
+            mRow.clear();
+            mField.setLength(0);
+            int c = mReader.read();
+            if(c == -1) {
+                return false;
+            }
+
+            boolean quoted = false;
+            while(true) {
+                if(quoted) {
+                    if(c == -1) {
+                        throw new IOException("Unterminated quoted field at line " + mLine);
+                    } else if(c == '"') {
+                        c = mReader.read();
+                        if(c != '"') {
+                            // End of the quoted text, the next character is read as unquoted
+                            quoted = false;
+                            continue;
+                        }
+                        mField.append('"');
+                    } else {
+                        if(c == '\n') {
+                            mLine++;
+                        }
+                        mField.append((char) c);
+                    }
+                } else if(c == '"' && mField.length() == 0) {
+                    quoted = true;
+                } else if(c == ',') {
+                    mRow.add(mField.toString());
+                    mField.setLength(0);
+                } else if(c == '\n' || c == -1) {
+                    mRow.add(mField.toString());
+                    mLine++;
+                    return true;
+                } else if(c != '\r') {
+                    mField.append((char) c);
+                }
+                c = mReader.read();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            mReader.close();
+        }
+    }
+
+    /**
+     * Reads the records of a JSON file holding an array of pet objects
+     */
+    private static final class JsonRecordReader extends RecordReader {
+
+        private final JsonReader mReader;
+
+        JsonRecordReader(Reader reader) throws IOException {
+            mReader = new JsonReader(reader);
+            mReader.beginArray();
+        }
+
+        @Override
+        boolean read(String[] fields) throws IOException {
+            try {
+                if(!mReader.hasNext()) {
+                    mReader.endArray();
+                    return false;
+                }
+
+                Arrays.fill(fields, null);
+                mReader.beginObject();
+                while(mReader.hasNext()) {
+                    int field = getFieldIndex(mReader.nextName());
+                    if(field == -1) {
+                        mReader.skipValue();
+                    } else if(mReader.peek() == JsonToken.NULL) {
+                        mReader.nextNull();
+                    } else {
+                        // Numbers are read as their text, like the fields of a CSV file
+                        fields[field] = mReader.nextString();
+                    }
+                }
+                mReader.endObject();
+                return true;
+            } catch(IllegalStateException e) {
+                // Thrown by JsonReader for a value of an unexpected type
+                throw new IOException("Malformed pet: " + e.getMessage());
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            mReader.close();
+        }
+    }
+}
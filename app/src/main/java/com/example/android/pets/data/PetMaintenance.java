@@ -0,0 +1,302 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.PetChangeEntry;
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Maintenance of the pets database, run one short step at a time while the device is idle
+ *
+ * A pass first removes the pets marked as deleted and their photos, a batch of rows in each
+ * step, then compacts the change log by removing the entries followed by a later change of
+ * the same pet, then gives the pages they freed back to the file system with
+ * incremental_vacuum, and finally refreshes the statistics of the query planner with ANALYZE
+ * Each step runs in its own short transaction, so the writes of the app are never held up
+ * for long
+ */
+final class PetMaintenance {
+
+    /* Tag for the log messages */
+    private static final String LOG_TAG = PetMaintenance.class.getSimpleName();
+
+    /* Number of deleted pets removed by each step */
+    static final int PURGE_BATCH_SIZE = 500;
+
+    /* Number of entries of the change log looked at by each step */
+    static final int COMPACT_BATCH_SIZE = 2000;
+
+    /* Number of pets updated since the last pass after which a new pass is started, so the
+     * change log is compacted even when no pet is deleted */
+    static final int UPDATES_PER_PASS = 5000;
+
+    /* Number of free pages given back to the file system by each step */
+    static final int VACUUM_PAGES_PER_STEP = 256;
+
+    /* Value of PRAGMA auto_vacuum once the database keeps track of its free pages */
+    private static final long AUTO_VACUUM_INCREMENTAL = 2;
+
+    /* Steps of a maintenance pass, IDLE when no pass is running */
+    private static final int STEP_IDLE = 0;
+    private static final int STEP_PURGE = 1;
+    private static final int STEP_COMPACT = 2;
+    private static final int STEP_VACUUM = 3;
+    private static final int STEP_ANALYZE = 4;
+
+    /* Condition selecting the deleted pets of a batch, after the last purged _ID and up to
+     * the last _ID of the batch */
+    private static final String PURGE_SELECTION = PetEntry._ID + ">? AND " + PetEntry._ID
+            + "<=? AND " + PetEntry.COLUMN_PET_DELETED + "=1";
+
+    /* SQL query returning the last _ID of the next batch of deleted pets, after the given _ID */
+    private static final String SQL_PURGE_BATCH_END = "SELECT MAX(" + PetEntry._ID + ") FROM"
+            + " (SELECT " + PetEntry._ID + " FROM " + PetEntry.TABLE_NAME
+            + " WHERE " + PetEntry._ID + ">? AND " + PetEntry.COLUMN_PET_DELETED + "=1"
+            + " ORDER BY " + PetEntry._ID + " LIMIT " + PURGE_BATCH_SIZE + ")";
+
+    /* SQL query returning the last sequence number of the next batch of entries of the change
+     * log, after the given sequence number */
+    private static final String SQL_COMPACT_BATCH_END = "SELECT MAX("
+            + PetChangeEntry.COLUMN_SEQUENCE + ") FROM (SELECT " + PetChangeEntry.COLUMN_SEQUENCE
+            + " FROM " + PetChangeEntry.TABLE_NAME + " WHERE " + PetChangeEntry.COLUMN_SEQUENCE
+            + ">? ORDER BY " + PetChangeEntry.COLUMN_SEQUENCE + " LIMIT " + COMPACT_BATCH_SIZE
+            + ")";
+
+    /* Condition selecting the entries of the change log of a batch, after the last compacted
+     * sequence number and up to the last one of the batch, that are followed by a later entry
+     * of the same pet */
+    private static final String COMPACT_SELECTION = PetChangeEntry.COLUMN_SEQUENCE + ">? AND "
+            + PetChangeEntry.COLUMN_SEQUENCE + "<=? AND EXISTS (SELECT 1 FROM "
+            + PetChangeEntry.TABLE_NAME + " AS later WHERE later." + PetChangeEntry.COLUMN_PET_ID
+            + "=" + PetChangeEntry.TABLE_NAME + "." + PetChangeEntry.COLUMN_PET_ID
+            + " AND later." + PetChangeEntry.COLUMN_SEQUENCE + ">" + PetChangeEntry.TABLE_NAME
+            + "." + PetChangeEntry.COLUMN_SEQUENCE + ")";
+
+    private final PetDbHelper mDbHelper;
+
+    private final PetPhotos mPhotos;
+
+    /* Step run next, guarded by this */
+    private int mStep = STEP_IDLE;
+
+    /* Last _ID purged by the current pass, the next batch starts after it */
+    private long mLastPurgedId;
+
+    /* Whether pets were deleted behind the purge since the pass started */
+    private boolean mPurgeAgain;
+
+    /* Last sequence number of the change log compacted by the current pass */
+    private long mLastCompactedSeq;
+
+    /* Number of pets updated since the last pass started */
+    private int mUpdatesSincePass;
+
+    PetMaintenance(PetDbHelper dbHelper, PetPhotos photos) {
+        mDbHelper = dbHelper;
+        mPhotos = photos;
+    }
+
+    /**
+     * Record that pets were marked as deleted
+     * Return true if no pass is running, in which case a pass must be scheduled
+     */
+    synchronized boolean onPetsDeleted() {
+        if(mStep == STEP_IDLE) {
+            startPass();
+            return true;
+        }
+        mPurgeAgain = true;
+        return false;
+    }
+
+    /**
+     * Record that the given number of pets were updated, each update adding an entry to the
+     * change log
+     * Return true if enough pets were updated to start a new pass, in which case it must be
+     * scheduled
+     */
+    synchronized boolean onPetsUpdated(int count) {
+        mUpdatesSincePass += count;
+        if(mStep == STEP_IDLE && mUpdatesSincePass >= UPDATES_PER_PASS) {
+            startPass();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Return whether a pass is running
+     */
+    synchronized boolean isRunning() {
+        return mStep != STEP_IDLE;
+    }
+
+    /**
+     * Run the next step of the current pass, starting a new pass if none is running
+     * Return whether more steps remain
+     * If the step fails, the pass is abandoned so the next deletion schedules a new one
+     */
+    synchronized boolean runStep() {
+        if(mStep == STEP_IDLE) {
+            startPass();
+        }
+        try {
+            return runCurrentStep(mDbHelper.getWritableDatabase());
+        } catch(RuntimeException e) {
+            mStep = STEP_IDLE;
+            throw e;
+        }
+    }
+
+    private boolean runCurrentStep(SQLiteDatabase database) {
+        switch(mStep) {
+            case STEP_PURGE:
+                if(!purgeBatch(database)) {
+                    if(mPurgeAgain) {
+                        // Pets deleted during the pass may sit before the last purged _ID
+                        mPurgeAgain = false;
+                        mLastPurgedId = 0;
+                    } else {
+                        mStep = STEP_COMPACT;
+                    }
+                }
+                return true;
+            case STEP_COMPACT:
+                if(!compactBatch(database)) {
+                    mStep = STEP_VACUUM;
+                }
+                return true;
+            case STEP_VACUUM:
+                if(!freePages(database)) {
+                    mStep = STEP_ANALYZE;
+                }
+                return true;
+            default:
+                database.execSQL("ANALYZE");
+                mStep = STEP_IDLE;
+                return false;
+        }
+    }
+
+    private void startPass() {
+        mStep = STEP_PURGE;
+        mLastPurgedId = 0;
+        mPurgeAgain = false;
+        mLastCompactedSeq = 0;
+        mUpdatesSincePass = 0;
+    }
+
+    /**
+     * Remove the next batch of deleted pets, then the files of their photos
+     * Return false once there are no deleted pets left after the last purged _ID
+     */
+    private boolean purgeBatch(SQLiteDatabase database) {
+        List<String> photos = new ArrayList<String>();
+        database.beginTransaction();
+        try {
+            String[] args = { String.valueOf(mLastPurgedId) };
+            Cursor cursor = database.rawQuery(SQL_PURGE_BATCH_END, args);
+            long batchEnd;
+            try {
+                if(!cursor.moveToFirst() || cursor.isNull(0)) {
+                    return false;
+                }
+                batchEnd = cursor.getLong(0);
+            } finally {
+                cursor.close();
+            }
+
+            // The triggers of PetDbHelper skip the statistics of deleted pets, and drop
+            // them from the search index
+            String[] batchArgs = { String.valueOf(mLastPurgedId), String.valueOf(batchEnd) };
+            Cursor photoCursor = database.query(PetEntry.TABLE_NAME,
+                    new String[] { PetEntry.COLUMN_PET_PHOTO },
+                    PURGE_SELECTION + " AND " + PetEntry.COLUMN_PET_PHOTO + " IS NOT NULL",
+                    batchArgs, null, null, null);
+            try {
+                while(photoCursor.moveToNext()) {
+                    photos.add(photoCursor.getString(0));
+                }
+            } finally {
+                photoCursor.close();
+            }
+            int rowsPurged = database.delete(PetEntry.TABLE_NAME, PURGE_SELECTION, batchArgs);
+            database.setTransactionSuccessful();
+            mLastPurgedId = batchEnd;
+            Log.v(LOG_TAG, rowsPurged + " deleted pets purged up to " + batchEnd);
+        } finally {
+            database.endTransaction();
+        }
+
+        // The rows are gone for good, so are their photos
+        for(String photo : photos) {
+            mPhotos.delete(photo);
+        }
+        return true;
+    }
+
+    /**
+     * Remove the entries of the next batch of the change log that are followed by a later
+     * entry of the same pet, since the rows read from the log only come from the latest entry
+     * of each pet
+     * Return false once there are no entries left after the last compacted sequence number
+     */
+    private boolean compactBatch(SQLiteDatabase database) {
+        database.beginTransaction();
+        try {
+            String[] args = { String.valueOf(mLastCompactedSeq) };
+            Cursor cursor = database.rawQuery(SQL_COMPACT_BATCH_END, args);
+            long batchEnd;
+            try {
+                if(!cursor.moveToFirst() || cursor.isNull(0)) {
+                    return false;
+                }
+                batchEnd = cursor.getLong(0);
+            } finally {
+                cursor.close();
+            }
+
+            int rowsCompacted = database.delete(PetChangeEntry.TABLE_NAME, COMPACT_SELECTION,
+                    new String[] { String.valueOf(mLastCompactedSeq), String.valueOf(batchEnd) });
+            database.setTransactionSuccessful();
+            mLastCompactedSeq = batchEnd;
+            Log.v(LOG_TAG, rowsCompacted + " changes compacted up to " + batchEnd);
+        } finally {
+            database.endTransaction();
+        }
+        return true;
+    }
+
+    /**
+     * Give back some of the free pages of the database file to the file system
+     * Return false once there are no free pages left
+     */
+    private boolean freePages(SQLiteDatabase database) {
+        if(DatabaseUtils.longForQuery(database, "PRAGMA auto_vacuum", null)
+                != AUTO_VACUUM_INCREMENTAL) {
+            // Databases created before version 5 only switch to incremental vacuum once they
+            // are rebuilt, which also frees every page at once
+            Log.i(LOG_TAG, "Rebuilding the database for incremental vacuum");
+            database.execSQL("VACUUM");
+            return false;
+        }
+
+        // The pages are freed as the pragma is stepped, so its cursor is read to the end
+        Cursor cursor = database.rawQuery("PRAGMA incremental_vacuum(" + VACUUM_PAGES_PER_STEP
+                + ")", null);
+        try {
+            while(cursor.moveToNext()) {
+                // Nothing to read
+            }
+        } finally {
+            cursor.close();
+        }
+        return DatabaseUtils.longForQuery(database, "PRAGMA freelist_count", null) > 0;
+    }
+}
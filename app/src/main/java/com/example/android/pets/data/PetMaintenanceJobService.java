@@ -0,0 +1,77 @@
+package com.example.android.pets.data;
+
+import android.annotation.TargetApi;
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.Build;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs the maintenance of the pets database as a job, while the device is idle and charging
+ * The steps run on a background thread, and stop between two steps when the job is stopped,
+ * such as when the device leaves the idle state, in which case the job runs again later
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class PetMaintenanceJobService extends JobService {
+
+    /* Tag for the log messages */
+    private static final String LOG_TAG = PetMaintenanceJobService.class.getSimpleName();
+
+    /* ID of the maintenance job */
+    private static final int JOB_ID = 1;
+
+    /* Set to stop the steps of the running job, JobScheduler runs one job at a time */
+    private volatile AtomicBoolean mStop;
+
+    /**
+     * Schedule the maintenance job, replacing the one already scheduled if any
+     */
+    static void schedule(Context context) {
+        JobScheduler scheduler =
+                (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        scheduler.schedule(new JobInfo.Builder(JOB_ID,
+                new ComponentName(context, PetMaintenanceJobService.class))
+                .setRequiresDeviceIdle(true)
+                .setRequiresCharging(true)
+                .build());
+    }
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        final AtomicBoolean stop = new AtomicBoolean();
+        mStop = stop;
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                boolean done;
+                try {
+                    done = PetMaintenanceService.runMaintenance(getContentResolver(), stop);
+                } catch(RuntimeException e) {
+                    // Such as when the database is busy, the remaining steps run next time
+                    Log.e(LOG_TAG, "Maintenance failed", e);
+                    done = false;
+                }
+
+                // A stopped job is already rescheduled by onStopJob
+                if(!stop.get()) {
+                    jobFinished(params, !done);
+                }
+            }
+        }, LOG_TAG).start();
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        mStop.set(true);
+        return true;
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.android.pets.data;
+
+import android.app.AlarmManager;
+import android.app.IntentService;
+import android.app.PendingIntent;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs the maintenance of the pets database in the background, on devices without
+ * JobScheduler
+ * The service is started by an alarm set some time after pets are deleted, which only goes
+ * off once the device is awake, and runs every step of the maintenance through PetProvider
+ */
+public class PetMaintenanceService extends IntentService {
+
+    /* Tag for the log messages */
+    private static final String LOG_TAG = PetMaintenanceService.class.getSimpleName();
+
+    /* Delay between the deletion of pets and the maintenance, without JobScheduler */
+    private static final long MAINTENANCE_DELAY_MILLIS = AlarmManager.INTERVAL_HOUR;
+
+    public PetMaintenanceService() {
+        super(PetMaintenanceService.class.getSimpleName());
+        setIntentRedelivery(true);
+    }
+
+    /**
+     * Schedule the maintenance of the pets database for when the device is idle
+     * JobScheduler runs it while the device is idle and charging, older devices run it
+     * through an alarm instead
+     */
+    static void schedule(Context context) {
+        if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            PetMaintenanceJobService.schedule(context);
+            return;
+        }
+        PendingIntent operation = PendingIntent.getService(context, 0,
+                new Intent(context, PetMaintenanceService.class), 0);
+        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        alarmManager.set(AlarmManager.ELAPSED_REALTIME,
+                SystemClock.elapsedRealtime() + MAINTENANCE_DELAY_MILLIS, operation);
+    }
+
+    /**
+     * Run the maintenance steps one after the other until they are all done or stop is set
+     * Return whether every step is done
+     */
+    static boolean runMaintenance(ContentResolver resolver, AtomicBoolean stop) {
+        while(!stop.get()) {
+            Bundle result = resolver.call(PetEntry.CONTENT_URI,
+                    PetContract.METHOD_RUN_MAINTENANCE_STEP, null, null);
+            if(result == null || !result.getBoolean(PetContract.KEY_MAINTENANCE_PENDING)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        try {
+            runMaintenance(getContentResolver(), new AtomicBoolean());
+        } catch(RuntimeException e) {
+            // Such as when the database is busy, the next deletion schedules it again
+            Log.e(LOG_TAG, "Maintenance failed", e);
+        }
+    }
+}
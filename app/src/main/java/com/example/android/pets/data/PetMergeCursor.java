@@ -0,0 +1,217 @@
+package com.example.android.pets.data;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+
+/**
+ * Cursor merging the sorted cursors of the pets of several shelters into a single sorted one
+ *
+ * Unlike MergeCursor, which returns the rows of each cursor one cursor after the other, the
+ * rows are interleaved in the order of the sort keys, as if they came from a single query.
+ * The order is found once when the cursor is created, by comparing the sort values of the
+ * next row of each cursor, then every row is read from the cursor it comes from
+ * Each cursor returns the columns of the merged cursor first, and may be followed by extra
+ * columns that are only read to compare the rows
+ */
+final class PetMergeCursor extends AbstractCursor {
+
+    /**
+     * Column of the cursors the rows are sorted by, compared as a number, as text by code
+     * point like the BINARY collation of SQLite, or as text that ignores the case of ASCII
+     * letters like the NOCASE collation
+     */
+    static final class SortColumn {
+
+        static final int NUMBER = 0;
+        static final int TEXT = 1;
+        static final int TEXT_NOCASE = 2;
+
+        final int mIndex;
+        final int mComparison;
+        final boolean mDescending;
+
+        SortColumn(int index, int comparison, boolean descending) {
+            mIndex = index;
+            mComparison = comparison;
+            mDescending = descending;
+        }
+    }
+
+    private final Cursor[] mCursors;
+    private final String[] mColumnNames;
+
+    /* Cursor and row of each row of the merged cursor */
+    private final int[] mCursorIndices;
+    private final int[] mRows;
+
+    /* Cursor the current row comes from */
+    private Cursor mCursor;
+
+    /**
+     * Merge the given cursors, each one sorted by the given columns, keeping at most limit
+     * rows (-1 for no limit)
+     * @param columnNames Columns of the merged cursor, the first columns of every cursor
+     */
+    PetMergeCursor(Cursor[] cursors, String[] columnNames, SortColumn[] sortColumns,
+                   int limit) {
+        mCursors = cursors;
+        mColumnNames = columnNames;
+
+        int count = 0;
+        for(Cursor cursor : cursors) {
+            count += cursor.getCount();
+        }
+        if(limit >= 0) {
+            count = Math.min(count, limit);
+        }
+        mCursorIndices = new int[count];
+        mRows = new int[count];
+
+        // Each cursor stays on its next row that is not merged yet
+        for(Cursor cursor : cursors) {
+            cursor.moveToFirst();
+        }
+        for(int row = 0; row < count; row++) {
+            int next = -1;
+            for(int i = 0; i < cursors.length; i++) {
+                if(!cursors[i].isAfterLast()
+                        && (next == -1 || compare(cursors[i], cursors[next], sortColumns) < 0)) {
+                    next = i;
+                }
+            }
+            mCursorIndices[row] = next;
+            mRows[row] = cursors[next].getPosition();
+            cursors[next].moveToNext();
+        }
+    }
+
+    /**
+     * Compare the current rows of the given cursors, in the order of the sort columns
+     * Null sorts first, as in SQLite
+     */
+    private static int compare(Cursor a, Cursor b, SortColumn[] sortColumns) {
+        for(SortColumn column : sortColumns) {
+            int result;
+            boolean aNull = a.isNull(column.mIndex);
+            boolean bNull = b.isNull(column.mIndex);
+            if(aNull || bNull) {
+                result = aNull ? (bNull ? 0 : -1) : 1;
+            } else if(column.mComparison == SortColumn.NUMBER) {
+                long x = a.getLong(column.mIndex);
+                long y = b.getLong(column.mIndex);
+                result = x < y ? -1 : (x == y ? 0 : 1);
+            } else {
+                result = compareText(a.getString(column.mIndex), b.getString(column.mIndex),
+                        column.mComparison == SortColumn.TEXT_NOCASE);
+            }
+            if(result != 0) {
+                return column.mDescending ? -result : result;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Compare the given strings by code point, which is the byte order of their UTF-8 text,
+     * ignoring the case of ASCII letters if noCase is true
+     */
+    private static int compareText(String a, String b, boolean noCase) {
+        int i = 0;
+        int j = 0;
+        while(i < a.length() && j < b.length()) {
+            int x = a.codePointAt(i);
+            int y = b.codePointAt(j);
+            i += Character.charCount(x);
+            j += Character.charCount(y);
+            if(noCase) {
+                x = toLowerAscii(x);
+                y = toLowerAscii(y);
+            }
+            if(x != y) {
+                return x < y ? -1 : 1;
+            }
+        }
+        return (a.length() - i) - (b.length() - j);
+    }
+
+    private static int toLowerAscii(int codePoint) {
+        return codePoint >= 'A' && codePoint <= 'Z' ? codePoint + ('a' - 'A') : codePoint;
+    }
+
+    @Override
+    public boolean onMove(int oldPosition, int newPosition) {
+        mCursor = mCursors[mCursorIndices[newPosition]];
+        return mCursor.moveToPosition(mRows[newPosition]);
+    }
+
+    @Override
+    public int getCount() {
+        return mRows.length;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return mColumnNames;
+    }
+
+    @Override
+    public String getString(int column) {
+        return mCursor.getString(column);
+    }
+
+    @Override
+    public short getShort(int column) {
+        return mCursor.getShort(column);
+    }
+
+    @Override
+    public int getInt(int column) {
+        return mCursor.getInt(column);
+    }
+
+    @Override
+    public long getLong(int column) {
+        return mCursor.getLong(column);
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return mCursor.getFloat(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        return mCursor.getDouble(column);
+    }
+
+    @Override
+    public byte[] getBlob(int column) {
+        return mCursor.getBlob(column);
+    }
+
+    @Override
+    public int getType(int column) {
+        return mCursor.getType(column);
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return mCursor.isNull(column);
+    }
+
+    @Override
+    public void deactivate() {
+        for(Cursor cursor : mCursors) {
+            cursor.deactivate();
+        }
+        super.deactivate();
+    }
+
+    @Override
+    public void close() {
+        for(Cursor cursor : mCursors) {
+            cursor.close();
+        }
+        super.close();
+    }
+}
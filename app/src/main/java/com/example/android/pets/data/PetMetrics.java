@@ -0,0 +1,160 @@
+package com.example.android.pets.data;
+
+import android.os.Bundle;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts the operations of PetProvider and records their latency and number of rows,
+ * per kind of URI and operation, along with the change notifications that were sent
+ *
+ * Nothing is recorded until the metrics are enabled, and a disabled registry only costs
+ * a volatile read per operation
+ */
+final class PetMetrics {
+
+    /* Names of the recorded operations */
+    static final String QUERY = "query";
+    static final String INSERT = "insert";
+    static final String BULK_INSERT = "bulk_insert";
+    static final String UPDATE = "update";
+    static final String DELETE = "delete";
+
+    /* Number of buckets of the latency histograms, the last one counts every slower operation */
+    private static final int LATENCY_BUCKETS = 24;
+
+    /* Whether operations are currently recorded */
+    private volatile boolean mEnabled;
+
+    /* Metrics of each operation, by "<uri>.<operation>" name */
+    private final ConcurrentHashMap<String, OperationMetrics> mOperations =
+            new ConcurrentHashMap<String, OperationMetrics>();
+
+    /* Number of notifications sent, of pets listed by them and of whole-table notifications */
+    private final AtomicLong mNotifications = new AtomicLong();
+    private final AtomicLong mNotifiedPets = new AtomicLong();
+    private final AtomicLong mTableNotifications = new AtomicLong();
+
+    /**
+     * Start or stop recording, the metrics recorded so far are cleared when recording starts
+     */
+    void setEnabled(boolean enabled) {
+        if(enabled && !mEnabled) {
+            mOperations.clear();
+            mNotifications.set(0);
+            mNotifiedPets.set(0);
+            mTableNotifications.set(0);
+        }
+        mEnabled = enabled;
+    }
+
+    /**
+     * Return the start time of an operation to pass to record(), or 0 if nothing is recorded
+     */
+    long startTimer() {
+        return mEnabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Record an operation on the given kind of URI that started at the given time
+     * and touched the given number of rows
+     */
+    void record(String uri, String operation, long startNanos, int rows) {
+        if(startNanos == 0 || !mEnabled) {
+            return;
+        }
+        long nanos = System.nanoTime() - startNanos;
+
+        String name = uri + "." + operation;
+        OperationMetrics metrics = mOperations.get(name);
+        if(metrics == null) {
+            OperationMetrics newMetrics = new OperationMetrics();
+            metrics = mOperations.putIfAbsent(name, newMetrics);
+            if(metrics == null) {
+                metrics = newMetrics;
+            }
+        }
+        metrics.record(nanos, rows);
+    }
+
+    /**
+     * Record a change notification for the pets with the given IDs, or the whole table if null
+     */
+    void recordNotification(long[] ids) {
+        if(!mEnabled) {
+            return;
+        }
+        mNotifications.incrementAndGet();
+        if(ids == null) {
+            mTableNotifications.incrementAndGet();
+        } else {
+            mNotifiedPets.addAndGet(ids.length);
+        }
+    }
+
+    /**
+     * Return a snapshot of the recorded metrics
+     * Each operation has a Bundle under its "<uri>.<operation>" name, for example "pet_id.query",
+     * and the notifications have a Bundle under PetContract.KEY_METRICS_NOTIFICATIONS
+     */
+    Bundle snapshot() {
+        Bundle result = new Bundle();
+        result.putBoolean(PetContract.KEY_METRICS_ENABLED, mEnabled);
+        for(Map.Entry<String, OperationMetrics> entry : mOperations.entrySet()) {
+            result.putBundle(entry.getKey(), entry.getValue().snapshot());
+        }
+
+        Bundle notifications = new Bundle();
+        notifications.putLong(PetContract.KEY_METRICS_COUNT, mNotifications.get());
+        notifications.putLong(PetContract.KEY_METRICS_NOTIFIED_PETS, mNotifiedPets.get());
+        notifications.putLong(PetContract.KEY_METRICS_TABLE_NOTIFICATIONS,
+                mTableNotifications.get());
+        result.putBundle(PetContract.KEY_METRICS_NOTIFICATIONS, notifications);
+        return result;
+    }
+
+    /**
+     * Count, rows, and latency histogram of a single operation on a single kind of URI
+     * Bucket i of the histogram counts the operations that took less than 2^i microseconds
+     * and at least 2^(i-1)
+     */
+    private static final class OperationMetrics {
+
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mRows = new AtomicLong();
+        private final AtomicLong mTotalNanos = new AtomicLong();
+        private final AtomicLong mMaxNanos = new AtomicLong();
+        private final AtomicLongArray mLatencyBuckets = new AtomicLongArray(LATENCY_BUCKETS);
+
+        void record(long nanos, int rows) {
+            mCount.incrementAndGet();
+            mRows.addAndGet(rows);
+            mTotalNanos.addAndGet(nanos);
+
+            long max = mMaxNanos.get();
+            while(nanos > max && !mMaxNanos.compareAndSet(max, nanos)) {
+                max = mMaxNanos.get();
+            }
+
+            int bucket = 64 - Long.numberOfLeadingZeros(nanos / 1000);
+            mLatencyBuckets.incrementAndGet(Math.min(bucket, LATENCY_BUCKETS - 1));
+        }
+
+        Bundle snapshot() {
+            Bundle result = new Bundle();
+            result.putLong(PetContract.KEY_METRICS_COUNT, mCount.get());
+            result.putLong(PetContract.KEY_METRICS_ROWS, mRows.get());
+            result.putLong(PetContract.KEY_METRICS_TOTAL_NANOS, mTotalNanos.get());
+            result.putLong(PetContract.KEY_METRICS_MAX_NANOS, mMaxNanos.get());
+            long[] buckets = new long[LATENCY_BUCKETS];
+            for(int i = 0; i < LATENCY_BUCKETS; i++) {
+                buckets[i] = mLatencyBuckets.get(i);
+            }
+            result.putLongArray(PetContract.KEY_METRICS_LATENCY_HISTOGRAM, buckets);
+            return result;
+        }
+    }
+}
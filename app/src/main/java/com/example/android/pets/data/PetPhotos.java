@@ -0,0 +1,270 @@
+package com.example.android.pets.data;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.ParcelFileDescriptor;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Files of the pet photos and of their thumbnails, managed by PetProvider
+ *
+ * The photos are kept in the private files of the app, and the pets table only holds their
+ * names. A new photo is streamed through a pipe into a temporary file by a background pool,
+ * and only gets its name once the whole image was received and could be decoded
+ * The thumbnails are downsampled copies of the photos, made on the background pool as soon as
+ * a photo is written, or on demand if they are missing, and kept in the cache directory of
+ * the app, which the system may clear when storage runs low
+ */
+final class PetPhotos {
+
+    /* Tag for the log messages */
+    private static final String LOG_TAG = PetPhotos.class.getSimpleName();
+
+    /* Directory of the photos, in the private files of the app */
+    private static final String PHOTO_DIRECTORY = "pet_photos";
+
+    /* Directory of the thumbnails, in the cache of the app */
+    private static final String THUMBNAIL_DIRECTORY = "pet_thumbnails";
+
+    /* Suffix of the files that are still being written */
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    /* Smaller side of the thumbnails, in pixels */
+    static final int THUMBNAIL_SIZE = 256;
+
+    /* JPEG quality of the thumbnails */
+    private static final int THUMBNAIL_QUALITY = 85;
+
+    /* Number of threads writing photos and making thumbnails */
+    private static final int THREAD_COUNT = 2;
+
+    /* Size of the buffer the photos are copied through */
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    /**
+     * Receives the name of a photo once it is written, on the background pool
+     */
+    interface Listener {
+
+        /**
+         * Called once the new photo of the pet with the given ID is written to the given file
+         * Return whether the photo was given to the pet, otherwise the file is deleted
+         */
+        boolean onPhotoWritten(long id, String name);
+    }
+
+    private final File mPhotoDirectory;
+    private final File mThumbnailDirectory;
+
+    /* Writes the photos and makes the thumbnails */
+    private final ExecutorService mExecutor;
+
+    PetPhotos(Context context) {
+        mPhotoDirectory = new File(context.getFilesDir(), PHOTO_DIRECTORY);
+        mThumbnailDirectory = new File(context.getCacheDir(), THUMBNAIL_DIRECTORY);
+        mExecutor = Executors.newFixedThreadPool(THREAD_COUNT, new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, LOG_TAG);
+            }
+        });
+    }
+
+    /**
+     * Return the file of the photo with the given name
+     */
+    File getPhotoFile(String name) {
+        return new File(mPhotoDirectory, name);
+    }
+
+    /**
+     * Return the file of the thumbnail of the photo with the given name, making it first if
+     * it is not cached yet
+     * Throw a FileNotFoundException if the photo does not exist or cannot be decoded
+     */
+    File getThumbnailFile(String name) throws FileNotFoundException {
+        File thumbnail = new File(mThumbnailDirectory, name);
+        if(thumbnail.exists()) {
+            return thumbnail;
+        }
+        try {
+            makeThumbnail(name, thumbnail);
+        } catch(IOException e) {
+            Log.e(LOG_TAG, "Failed to make the thumbnail of " + name, e);
+            throw new FileNotFoundException("No thumbnail for " + name);
+        }
+        return thumbnail;
+    }
+
+    /**
+     * Return the write end of a pipe the new photo of the pet with the given ID is written to
+     * Once the pipe is closed, the photo is checked and handed to the listener, then its
+     * thumbnail is made, all on the background pool
+     */
+    ParcelFileDescriptor openPhotoForWriting(final long id, final Listener listener)
+            throws FileNotFoundException {
+        final ParcelFileDescriptor[] pipe;
+        try {
+            pipe = ParcelFileDescriptor.createPipe();
+        } catch(IOException e) {
+            throw new FileNotFoundException("Cannot open a pipe for the photo of pet " + id);
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                String name = receivePhoto(id,
+                        new ParcelFileDescriptor.AutoCloseInputStream(pipe[0]));
+                if(name == null) {
+                    return;
+                }
+                if(!listener.onPhotoWritten(id, name)) {
+                    delete(name);
+                    return;
+                }
+                try {
+                    getThumbnailFile(name);
+                } catch(FileNotFoundException e) {
+                    // Already logged, the thumbnail is made again when it is read
+                }
+            }
+        });
+        return pipe[1];
+    }
+
+    /**
+     * Copy the photo of the pet with the given ID from the given stream into a new file
+     * Return the name of the file, or null if the photo could not be read or decoded
+     */
+    private String receivePhoto(long id, InputStream in) {
+        File temporary = null;
+        try {
+            if(!mPhotoDirectory.isDirectory() && !mPhotoDirectory.mkdirs()) {
+                throw new IOException("Cannot create " + mPhotoDirectory);
+            }
+            temporary = File.createTempFile(id + "_", TEMPORARY_SUFFIX, mPhotoDirectory);
+            OutputStream out = new FileOutputStream(temporary);
+            try {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int count;
+                while((count = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, count);
+                }
+            } finally {
+                out.close();
+            }
+
+            // Only keep images that can be shown later
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeFile(temporary.getPath(), options);
+            if(options.outWidth <= 0 || options.outHeight <= 0) {
+                throw new IOException("The photo of pet " + id + " is not an image");
+            }
+
+            String fileName = temporary.getName();
+            String name = fileName.substring(0, fileName.length() - TEMPORARY_SUFFIX.length());
+            if(!temporary.renameTo(getPhotoFile(name))) {
+                throw new IOException("Cannot rename " + temporary);
+            }
+            return name;
+        } catch(IOException e) {
+            Log.e(LOG_TAG, "Failed to write the photo of pet " + id, e);
+            if(temporary != null) {
+                temporary.delete();
+            }
+            return null;
+        } finally {
+            try {
+                in.close();
+            } catch(IOException e) {
+                // Nothing else to read from the pipe
+            }
+        }
+    }
+
+    /**
+     * Decode the photo with the given name at about the size of a thumbnail and write it to
+     * the given file as a JPEG image
+     */
+    private void makeThumbnail(String name, File thumbnail) throws IOException {
+        String path = getPhotoFile(name).getPath();
+
+        // Only decode every n-th pixel of large photos, n being the largest power of 2 that
+        // keeps the smaller side at least THUMBNAIL_SIZE
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(path, options);
+        int smallerSide = Math.min(options.outWidth, options.outHeight);
+        if(smallerSide <= 0) {
+            throw new IOException("Cannot decode " + path);
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = 1;
+        while(smallerSide / (options.inSampleSize * 2) >= THUMBNAIL_SIZE) {
+            options.inSampleSize *= 2;
+        }
+        Bitmap bitmap = BitmapFactory.decodeFile(path, options);
+        if(bitmap == null) {
+            throw new IOException("Cannot decode " + path);
+        }
+
+        try {
+            // Then scale it down to the exact size
+            smallerSide = Math.min(bitmap.getWidth(), bitmap.getHeight());
+            if(smallerSide > THUMBNAIL_SIZE) {
+                Bitmap scaled = Bitmap.createScaledBitmap(bitmap,
+                        bitmap.getWidth() * THUMBNAIL_SIZE / smallerSide,
+                        bitmap.getHeight() * THUMBNAIL_SIZE / smallerSide, true);
+                bitmap.recycle();
+                bitmap = scaled;
+            }
+
+            // Written to a temporary file first, so a thumbnail being made is never read
+            if(!mThumbnailDirectory.isDirectory() && !mThumbnailDirectory.mkdirs()) {
+                throw new IOException("Cannot create " + mThumbnailDirectory);
+            }
+            File temporary = File.createTempFile(name, TEMPORARY_SUFFIX, mThumbnailDirectory);
+            try {
+                OutputStream out = new FileOutputStream(temporary);
+                try {
+                    bitmap.compress(Bitmap.CompressFormat.JPEG, THUMBNAIL_QUALITY, out);
+                } finally {
+                    out.close();
+                }
+                if(!temporary.renameTo(thumbnail)) {
+                    throw new IOException("Cannot rename " + temporary);
+                }
+            } finally {
+                temporary.delete();
+            }
+        } finally {
+            bitmap.recycle();
+        }
+    }
+
+    /**
+     * Delete the photo with the given name and its thumbnail
+     */
+    void delete(String name) {
+        getPhotoFile(name).delete();
+        new File(mThumbnailDirectory, name).delete();
+    }
+}
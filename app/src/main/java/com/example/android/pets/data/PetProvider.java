@@ -1,15 +1,42 @@
 package com.example.android.pets.data;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
 import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.os.Process;
+import android.os.Trace;
 import android.util.Log;
 
+import com.example.android.pets.data.PetContract.PetChangeEntry;
 import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.PetStatsEntry;
+
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Created by hanssi on 9/18/16.
@@ -29,6 +56,25 @@ public class PetProvider extends ContentProvider {
     /* URI matcher code for the content URI for a single pet in the pets table */
     private static final int PET_ID = 101;
 
+    /* URI matcher code for the content URI that searches the pets table */
+    private static final int PET_SEARCH = 102;
+
+    /* URI matcher code for the content URI of a file exporting the pets table */
+    private static final int PETS_EXPORT = 103;
+
+    /* URI matcher codes for the content URIs of the statistics of all the pets,
+     * and of the pets of each gender or breed */
+    private static final int PETS_STATS = 104;
+    private static final int PETS_STATS_GENDER = 105;
+    private static final int PETS_STATS_BREED = 106;
+
+    /* URI matcher codes for the photo of a single pet and its thumbnail */
+    private static final int PET_PHOTO = 107;
+    private static final int PET_THUMBNAIL = 108;
+
+    /* URI matcher code for the change log of the pets */
+    private static final int PETS_CHANGES = 109;
+
     /**
      * UriMatcher object to match a content URI to a corresponding code
      * The input passed into the constructor represents the code to return for the root URI
@@ -45,170 +91,1803 @@ public class PetProvider extends ContentProvider {
         // In this case, the URI is used to provide access to one single row of the pets table
         // Here, "#" can be substituted by an integer
         sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY, PetContract.PATH_PETS + "/#", PET_ID);
+
+        // In this case, the URI is used to search the pets table
+        // Here, "*" can be substituted by the text to search for
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_PETS + "/" + PetContract.PATH_SEARCH + "/*", PET_SEARCH);
+
+        // In this case, the URI is used to read the pets table as a CSV or JSON file
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_PETS + "/" + PetContract.PATH_EXPORT, PETS_EXPORT);
+
+        // In these cases, the URIs are used to read the statistics of the pets
+        String statsPath = PetContract.PATH_PETS + "/" + PetContract.PATH_STATS;
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY, statsPath, PETS_STATS);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                statsPath + "/" + PetContract.PATH_STATS_GENDER, PETS_STATS_GENDER);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                statsPath + "/" + PetContract.PATH_STATS_BREED, PETS_STATS_BREED);
+
+        // In these cases, the URIs are used to read or write the photo of a single pet as a file
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_PETS + "/#/" + PetContract.PATH_PHOTO, PET_PHOTO);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_PETS + "/#/" + PetContract.PATH_THUMBNAIL, PET_THUMBNAIL);
+
+        // In this case, the URI is used to read the changes made to the pets since a given
+        // sequence number of the change log
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_PETS + "/" + PetContract.PATH_CHANGES, PETS_CHANGES);
+    }
+
+    /* Columns of the pets table, in the order they are read into a Pet */
+    private static final String[] PET_COLUMNS = {
+            PetEntry._ID,
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_GENDER,
+            PetEntry.COLUMN_PET_WEIGHT,
+            PetEntry.COLUMN_PET_PHOTO };
+
+    /* Condition selecting the pets that were not deleted */
+    private static final String LIVE_PETS = PetEntry.COLUMN_PET_DELETED + "=0";
+
+    /* Condition selecting the live pet with a given _ID */
+    private static final String LIVE_PET_BY_ID = PetEntry._ID + "=? AND " + LIVE_PETS;
+
+    /* Columns of the change log of the pets, with the columns of the pets that are not deleted */
+    private static final String[] CHANGE_COLUMNS = {
+            PetChangeEntry.COLUMN_SEQUENCE,
+            PetChangeEntry.COLUMN_PET_ID,
+            PetChangeEntry.COLUMN_OPERATION,
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_GENDER,
+            PetEntry.COLUMN_PET_WEIGHT,
+            PetEntry.COLUMN_PET_PHOTO
+    };
+
+    /**
+     * Latest entry of the change log of each pet changed after the sequence number bound to
+     * its "?", joined with the pet unless it was deleted
+     * The entries are found in sequence order through the primary key, and each one is checked
+     * for a later entry of the same pet through the index on the pets and sequence numbers, so
+     * reading the changes costs as many lookups as there are entries after the sequence number
+     */
+    private static final String CHANGES_VIEW = "(SELECT change."
+            + PetChangeEntry.COLUMN_SEQUENCE + " AS " + PetChangeEntry.COLUMN_SEQUENCE
+            + ", change." + PetChangeEntry.COLUMN_PET_ID + " AS " + PetChangeEntry.COLUMN_PET_ID
+            + ", change." + PetChangeEntry.COLUMN_OPERATION + " AS "
+            + PetChangeEntry.COLUMN_OPERATION
+            + ", pet." + PetEntry.COLUMN_PET_NAME + " AS " + PetEntry.COLUMN_PET_NAME
+            + ", pet." + PetEntry.COLUMN_PET_BREED + " AS " + PetEntry.COLUMN_PET_BREED
+            + ", pet." + PetEntry.COLUMN_PET_GENDER + " AS " + PetEntry.COLUMN_PET_GENDER
+            + ", pet." + PetEntry.COLUMN_PET_WEIGHT + " AS " + PetEntry.COLUMN_PET_WEIGHT
+            + ", pet." + PetEntry.COLUMN_PET_PHOTO + " AS " + PetEntry.COLUMN_PET_PHOTO
+            + " FROM " + PetChangeEntry.TABLE_NAME + " AS change LEFT JOIN "
+            + PetEntry.TABLE_NAME + " AS pet ON pet." + PetEntry._ID + " = change."
+            + PetChangeEntry.COLUMN_PET_ID + " AND pet." + PetEntry.COLUMN_PET_DELETED + " = 0"
+            + " WHERE change." + PetChangeEntry.COLUMN_SEQUENCE + " > ? AND NOT EXISTS (SELECT 1"
+            + " FROM " + PetChangeEntry.TABLE_NAME + " AS later WHERE later."
+            + PetChangeEntry.COLUMN_PET_ID + " = change." + PetChangeEntry.COLUMN_PET_ID
+            + " AND later." + PetChangeEntry.COLUMN_SEQUENCE + " > change."
+            + PetChangeEntry.COLUMN_SEQUENCE + "))";
+
+    /* Statistics of the pets of each gender, with their average weight */
+    private static final String GENDER_STATS_VIEW = "(SELECT "
+            + PetStatsEntry.COLUMN_GENDER + ", " + getStatsColumns(PetStatsEntry.GENDER_TABLE_NAME);
+
+    /* Statistics of the pets of each breed, with their average weight */
+    private static final String BREED_STATS_VIEW = "(SELECT "
+            + PetStatsEntry.COLUMN_BREED + ", " + getStatsColumns(PetStatsEntry.BREED_TABLE_NAME);
+
+    /* Statistics of all the pets, summed up from the statistics of each gender */
+    private static final String ALL_STATS_VIEW = "(SELECT "
+            + "IFNULL(SUM(" + PetStatsEntry.COLUMN_PET_COUNT + "), 0) AS "
+            + PetStatsEntry.COLUMN_PET_COUNT + ", "
+            + "IFNULL(SUM(" + PetStatsEntry.COLUMN_WEIGHT_SUM + "), 0) AS "
+            + PetStatsEntry.COLUMN_WEIGHT_SUM + ", "
+            + "SUM(" + PetStatsEntry.COLUMN_WEIGHT_SUM + ") * 1.0 / SUM("
+            + PetStatsEntry.COLUMN_PET_COUNT + ") AS " + PetStatsEntry.COLUMN_AVERAGE_WEIGHT + ", "
+            + "MIN(" + PetStatsEntry.COLUMN_MIN_WEIGHT + ") AS " + PetStatsEntry.COLUMN_MIN_WEIGHT + ", "
+            + "MAX(" + PetStatsEntry.COLUMN_MAX_WEIGHT + ") AS " + PetStatsEntry.COLUMN_MAX_WEIGHT
+            + " FROM " + PetStatsEntry.GENDER_TABLE_NAME + ")";
+
+    /* Maximum number of single pets kept in the cache */
+    private static final int PET_CACHE_SIZE = 256;
+
+    /* ID passed to updatePet when the rows are given by a selection instead */
+    private static final long NO_ID = -1;
+
+    /* Shelter ID of a URI without QUERY_PARAMETER_SHELTER */
+    private static final long NO_SHELTER = -1;
+
+    /* Column of the searches merging several shelters, 1 for the pets whose name matches */
+    private static final String NAME_MATCHED = "name_matched";
+
+    /**
+     * Maximum number of IDs listed in a change notification
+     * Changes to more pets are notified as a change to the whole table
+     */
+    private static final int MAX_NOTIFIED_IDS = 100;
+
+    /* Shelters by ID, each one with its own database, guarded by itself
+     * Every shelter database on the device is listed when the provider is created */
+    private final TreeMap<Long, Shelter> mShelters = new TreeMap<Long, Shelter>();
+
+    /* Settings of the group commit of every shelter, guarded by mShelters */
+    private boolean mGroupCommitEnabled;
+    private long mGroupCommitWindowMillis = PetGroupCommit.DEFAULT_WINDOW_MILLIS;
+    private int mGroupCommitMaxWrites = PetGroupCommit.DEFAULT_MAX_WRITES;
+
+    /* Cache of the pets recently queried by ID */
+    private final PetCache mPetCache = new PetCache(PET_CACHE_SIZE);
+
+    /* Copy of the first page of the catalog, read ahead when the provider is created */
+    private final PetFirstPage mFirstPage = new PetFirstPage();
+
+    /* Released once the database was opened and warmed up in the background */
+    private final CountDownLatch mWarmUpDone = new CountDownLatch(1);
+
+    /* Writes the snapshot of the first page of the catalog after the changes to the pets */
+    private final ExecutorService mSnapshotExecutor =
+            Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    return new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            runnable.run();
+                        }
+                    }, LOG_TAG + "Snapshot");
+                }
+            });
+
+    /* Whether a write of the snapshot is queued and has not started reading the page yet */
+    private final AtomicBoolean mSnapshotPending = new AtomicBoolean();
+
+    /* Metrics of the provider operations, only recorded once enabled through call() */
+    private final PetMetrics mMetrics = new PetMetrics();
+
+    /* Files of the pet photos and their thumbnails, shared by every shelter */
+    private PetPhotos mPhotos;
+
+    /**
+     * Database of the pets of a single shelter, with its maintenance and group commit
+     */
+    private final class Shelter {
+
+        final PetDbHelper mDbHelper;
+
+        /* Purges the deleted pets and compacts the database, one step at a time through call() */
+        final PetMaintenance mMaintenance;
+
+        /* Gathers concurrent single-pet writes into shared transactions, once enabled
+         * through call() */
+        final PetGroupCommit mGroupCommit;
+
+        Shelter(long shelterId) {
+            mDbHelper = new PetDbHelper(getContext(), shelterId);
+            mMaintenance = new PetMaintenance(mDbHelper, mPhotos);
+            mGroupCommit = new PetGroupCommit(new PetGroupCommit.Committer() {
+                @Override
+                public void commit(List<PetGroupCommit.Write<?>> writes) {
+                    commitGroup(Shelter.this, writes);
+                }
+            });
+        }
+    }
+
+    /**
+     * State of the batch currently applied on the calling thread (null outside of applyBatch)
+     * While a batch is running, change notifications are deferred until it has committed
+     */
+    private final ThreadLocal<Batch> mActiveBatch = new ThreadLocal<Batch>();
+
+    /**
+     * Collects the IDs of the pets changed by the operations of a batch, along with the
+     * shelters whose database has a transaction open for the batch
+     */
+    private static final class Batch {
+
+        /* Shelters in the order their transaction was started by joinBatch() */
+        final List<Shelter> mShelters = new ArrayList<Shelter>();
+
+        /* IDs of the pets changed so far, only the first mCount are used */
+        long[] mIds = new long[8];
+        int mCount;
+
+        /* Whether the batch changed too many pets, or pets whose IDs are not known */
+        boolean mAllChanged;
+
+        /* Names of the photos the batch replaced or removed, deleted once it has committed */
+        final List<String> mReplacedPhotos = new ArrayList<String>();
+
+        /**
+         * Add the IDs of the pets changed by an operation, null if they are not known
+         */
+        void add(long[] ids) {
+            if(mAllChanged) {
+                return;
+            }
+            if(ids == null || mCount + ids.length > MAX_NOTIFIED_IDS) {
+                mAllChanged = true;
+                return;
+            }
+            if(mCount + ids.length > mIds.length) {
+                mIds = Arrays.copyOf(mIds, Math.max(mIds.length * 2, mCount + ids.length));
+            }
+            System.arraycopy(ids, 0, mIds, mCount, ids.length);
+            mCount += ids.length;
+        }
+
+        /**
+         * Return whether no operation of the batch changed any pet
+         */
+        boolean isEmpty() {
+            return !mAllChanged && mCount == 0;
+        }
+
+        /**
+         * Return the IDs of the pets changed by the batch, or null if they are not known
+         */
+        long[] getIds() {
+            return mAllChanged ? null : Arrays.copyOf(mIds, mCount);
+        }
+
+        /**
+         * Commit the transaction of every shelter of the batch, or roll them back if the
+         * batch was not successful
+         * Each shelter commits on its own, so a batch is only atomic within each shelter
+         */
+        void endTransactions(boolean successful) {
+            RuntimeException failure = null;
+            for(Shelter shelter : mShelters) {
+                SQLiteDatabase database = shelter.mDbHelper.getWritableDatabase();
+                try {
+                    if(successful) {
+                        database.setTransactionSuccessful();
+                    }
+                    database.endTransaction();
+                } catch(RuntimeException e) {
+                    // End the other transactions anyway
+                    if(failure == null) {
+                        failure = e;
+                    }
+                }
+            }
+            mShelters.clear();
+            if(failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    /**
+     * Initialize the provider and the database helper object
+     */
+    @Override
+    public boolean onCreate() {
+        PetStartup.mark(PetStartup.MARK_PROVIDER_CREATED);
+
+        // Create a PetDbHelper object for each shelter to gain access to its pets database
+        // The databases themselves are only opened by the warm-up, off the main thread
+        mPhotos = new PetPhotos(getContext());
+        getOrCreateShelter(PetEntry.DEFAULT_SHELTER_ID);
+        for(String databaseName : getContext().databaseList()) {
+            long shelterId = PetDbHelper.parseShelterId(databaseName);
+            if(shelterId != -1) {
+                getOrCreateShelter(shelterId);
+            }
+        }
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                warmUp();
+            }
+        }, LOG_TAG + "WarmUp").start();
+        return true;
+    }
+
+    /**
+     * Return the shelter with the given ID, or null if it has no database
+     */
+    private Shelter findShelter(long shelterId) {
+        synchronized(mShelters) {
+            return mShelters.get(shelterId);
+        }
+    }
+
+    /**
+     * Return the shelter with the given ID, creating its database if it has none yet
+     */
+    private Shelter getOrCreateShelter(long shelterId) {
+        synchronized(mShelters) {
+            Shelter shelter = mShelters.get(shelterId);
+            if(shelter == null) {
+                shelter = new Shelter(shelterId);
+                shelter.mGroupCommit.setEnabled(mGroupCommitEnabled, mGroupCommitWindowMillis,
+                        mGroupCommitMaxWrites);
+                mShelters.put(shelterId, shelter);
+            }
+            return shelter;
+        }
+    }
+
+    /**
+     * Return every shelter, in ID order
+     */
+    private List<Shelter> getShelters() {
+        synchronized(mShelters) {
+            return new ArrayList<Shelter>(mShelters.values());
+        }
+    }
+
+    /**
+     * Return the shelters covered by the given URI, the one of its QUERY_PARAMETER_SHELTER
+     * if it has a database, or every shelter without that parameter
+     */
+    private List<Shelter> getShelters(Uri uri) {
+        long shelterId = getShelterParameter(uri);
+        if(shelterId == NO_SHELTER) {
+            return getShelters();
+        }
+        Shelter shelter = findShelter(shelterId);
+        return shelter == null
+                ? Collections.<Shelter>emptyList() : Collections.singletonList(shelter);
+    }
+
+    /**
+     * Return the shelter of the pet with the given _ID, or null if it has no database
+     */
+    private Shelter findPetShelter(long id) {
+        return findShelter(PetEntry.getShelterId(id));
     }
 
-    /* Database helper object */
-    private PetDbHelper mDbHelper;
+    /**
+     * Return the QUERY_PARAMETER_SHELTER of the given URI, or NO_SHELTER without it
+     */
+    private static long getShelterParameter(Uri uri) {
+        if(uri.getQueryParameter(PetEntry.QUERY_PARAMETER_SHELTER) == null) {
+            return NO_SHELTER;
+        }
+        long shelterId = parseQueryParameter(uri, PetEntry.QUERY_PARAMETER_SHELTER);
+        if(shelterId > PetEntry.MAX_SHELTER_ID) {
+            throw new IllegalArgumentException("Invalid " + PetEntry.QUERY_PARAMETER_SHELTER
+                    + " " + shelterId + " in " + uri);
+        }
+        return shelterId;
+    }
+
+    /**
+     * Return the ID of the shelter that the statistics or the changes of the given URI read
+     * Without QUERY_PARAMETER_SHELTER that is DEFAULT_SHELTER_ID, the only shelter until
+     * another one is created. The statistics and change logs of several shelters cannot be
+     * merged, so the parameter is required once there are several
+     */
+    private long getQueriedShelterId(Uri uri) {
+        long shelterId = getShelterParameter(uri);
+        if(shelterId != NO_SHELTER) {
+            return shelterId;
+        }
+        synchronized(mShelters) {
+            if(mShelters.size() > 1) {
+                throw new IllegalArgumentException("Missing " + PetEntry.QUERY_PARAMETER_SHELTER
+                        + " in " + uri + " with " + mShelters.size() + " shelters");
+            }
+        }
+        return PetEntry.DEFAULT_SHELTER_ID;
+    }
+
+    /**
+     * Open the databases, creating or migrating them if needed, compile the statements of
+     * the writes and read the first page of the catalog, so the first queries of the app
+     * find everything ready
+     * Any error is left for the query that needs the database to report
+     */
+    private void warmUp() {
+        if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.beginSection("PetProvider.warmUp");
+        }
+        try {
+            List<Shelter> shelters = getShelters();
+            for(Shelter shelter : shelters) {
+                shelter.mDbHelper.getWritableDatabase();
+            }
+            PetStartup.mark(PetStartup.MARK_DATABASE_OPENED);
+
+            for(Shelter shelter : shelters) {
+                shelter.mDbHelper.getStatements().prepare();
+            }
+            PetStartup.mark(PetStartup.MARK_STATEMENTS_PREPARED);
+
+            long generation = mFirstPage.generation();
+            Cursor cursor = queryFirstPage();
+            try {
+                mFirstPage.put(cursor, generation);
+            } finally {
+                cursor.close();
+            }
+            PetStartup.mark(PetStartup.MARK_FIRST_PAGE_READ);
+
+            // Such as on the first launch, before any change was made
+            if(!PetSnapshot.exists(getContext())) {
+                scheduleSnapshot();
+            }
+        } catch(RuntimeException e) {
+            Log.e(LOG_TAG, "Failed to warm up the database", e);
+        } finally {
+            mWarmUpDone.countDown();
+            if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+                Trace.endSection();
+            }
+        }
+    }
+
+    /**
+     * Read the first page of the catalog from the databases
+     */
+    private Cursor queryFirstPage() {
+        return queryPets(PetEntry.buildPageUri(0, PetEntry.CATALOG_PAGE_SIZE),
+                PetReader.LIST_COLUMNS, null, null, null);
+    }
+
+    /**
+     * Drop the copy of the first page of the catalog after a committed change to the pets,
+     * and queue a write of its snapshot
+     */
+    private void onPetsCommitted() {
+        mFirstPage.invalidate();
+        scheduleSnapshot();
+    }
+
+    /**
+     * Queue a write of the snapshot, unless one is queued already
+     * Changes made while a write is queued are covered by that write, since it only reads
+     * the page once it starts, and the writes all run on a single thread so a newer page is
+     * never overwritten by an older one
+     */
+    private void scheduleSnapshot() {
+        if(!mSnapshotPending.compareAndSet(false, true)) {
+            return;
+        }
+        mSnapshotExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mSnapshotPending.set(false);
+                writeSnapshot();
+            }
+        });
+    }
+
+    /**
+     * Read the first page of the catalog and write it to the snapshot, keeping it as the
+     * copy of the page as well
+     */
+    private void writeSnapshot() {
+        try {
+            long generation = mFirstPage.generation();
+            Cursor cursor = queryFirstPage();
+            try {
+                mFirstPage.put(cursor, generation);
+                PetSnapshot.write(getContext(), cursor);
+            } finally {
+                cursor.close();
+            }
+        } catch(IOException e) {
+            Log.e(LOG_TAG, "Failed to write the snapshot of the catalog", e);
+        } catch(RuntimeException e) {
+            Log.e(LOG_TAG, "Failed to read the first page of the catalog", e);
+        }
+    }
+
+    /**
+     * Wait until the warm-up is done, so a query it already answers is not run twice
+     */
+    private void awaitWarmUp() {
+        try {
+            mWarmUpDone.await();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Perform query on the given URI using the given projection, selection, selection arguments and sort order
+     */
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+
+        long start = mMetrics.startTimer();
+
+        // Check if the URI matcher can match the URI to a specific code
+        int match = sUriMatcher.match(uri);
+
+        // The first page of the catalog is served from its copy until a write changes it
+        // The copy is read by the warm-up, so the catalog waits for it instead of reading the
+        // page a second time
+        boolean firstPage = match == PETS
+                && PetFirstPage.isFirstPage(uri, projection, selection, sortOrder);
+        long firstPageGeneration = 0;
+        if(firstPage) {
+            awaitWarmUp();
+            Cursor copy = mFirstPage.get();
+            if(copy != null) {
+                copy.setNotificationUri(getContext().getContentResolver(), uri);
+                recordQuery(match, start, copy);
+                return copy;
+            }
+            firstPageGeneration = mFirstPage.generation();
+        }
+
+        // Create a cursor to hold the result of the query
+        Cursor cursor;
+
+        switch(match) {
+            case PETS:
+                // For the PETS code, query the pets of the shelters of the URI
+                // In this case, the cursor could contain multiple rows of the pets table
+                cursor = queryPets(uri, projection, selection, selectionArgs, sortOrder);
+                if(firstPage) {
+                    mFirstPage.put(cursor, firstPageGeneration);
+                }
+                break;
+            case PET_ID:
+                // If only pet columns are requested, the pet is served from the cache when it
+                // was queried recently, and added to the cache otherwise
+                // The pet is read from the database of its shelter, and there is no such pet
+                // if that shelter has none
+                long id = ContentUris.parseId(uri);
+                Shelter shelter = findPetShelter(id);
+                if(shelter == null) {
+                    cursor = new MatrixCursor(projection == null ? PET_COLUMNS : projection, 0);
+                    break;
+                }
+                if(isPetColumns(projection)) {
+                    cursor = queryCachedPet(shelter, id, projection);
+                    break;
+                }
+
+                // For the PET_ID code, extract out the ID from the URI
+                // In this case, the selection will be "_id=? AND deleted=0" and the selection
+                // argument will be a String array containing the actual ID
+                // Since there is one "?" in the selection, 1 String is needed in the
+                // selection arguments' String array
+                selection = LIVE_PET_BY_ID;
+                selectionArgs = new String[] {
+                        String.valueOf(id)
+                };
+                // This will perform a query on the pets table with a specific _id and
+                // return a cursor containing that row of the table
+                cursor = shelter.mDbHelper.getReadableDatabase().query(PetEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        null, null, sortOrder);
+                break;
+            case PET_SEARCH:
+                // For the PET_SEARCH code, match the text in the URI against the search index
+                // of the shelters of the URI and return the matching pets, ranked by whether
+                // their name matches
+                cursor = searchShelters(getShelters(uri), uri, projection, selection,
+                        selectionArgs, sortOrder);
+
+                // Any change to the pets table can change the search results
+                cursor.setNotificationUri(getContext().getContentResolver(), PetEntry.CONTENT_URI);
+                recordQuery(match, start, cursor);
+                return cursor;
+            case PETS_STATS:
+            case PETS_STATS_GENDER:
+            case PETS_STATS_BREED:
+                // The statistics are read from the tables kept up to date by the triggers of
+                // PetDbHelper, so the pets themselves are not read
+                // They only cover the pets of a single shelter, whose database is created if
+                // needed so the statistics still have their columns
+                String view = match == PETS_STATS ? ALL_STATS_VIEW
+                        : match == PETS_STATS_GENDER ? GENDER_STATS_VIEW : BREED_STATS_VIEW;
+                Shelter statsShelter = getOrCreateShelter(getQueriedShelterId(uri));
+                cursor = statsShelter.mDbHelper.getReadableDatabase().query(view, projection,
+                        selection, selectionArgs, null, null, sortOrder);
+
+                // Any change to the pets table can change the statistics
+                cursor.setNotificationUri(getContext().getContentResolver(), PetEntry.CONTENT_URI);
+                recordQuery(match, start, cursor);
+                return cursor;
+            case PETS_CHANGES:
+                // For the PETS_CHANGES code, read the latest change of each pet changed after
+                // the sequence number of the URI, from the change log of a single shelter
+                if(uri.getQueryParameter(PetChangeEntry.QUERY_PARAMETER_SINCE) == null) {
+                    throw new IllegalArgumentException("Missing "
+                            + PetChangeEntry.QUERY_PARAMETER_SINCE + " in " + uri);
+                }
+                long since = parseQueryParameter(uri, PetChangeEntry.QUERY_PARAMETER_SINCE);
+                Shelter changedShelter = findShelter(getQueriedShelterId(uri));
+                if(changedShelter == null) {
+                    cursor = new MatrixCursor(projection == null ? CHANGE_COLUMNS : projection,
+                            0);
+                } else {
+                    // The sequence number is bound inside the view, ahead of the selection
+                    String[] changeArgs = { String.valueOf(since) };
+                    if(selectionArgs != null) {
+                        for(String arg : selectionArgs) {
+                            changeArgs = appendSelectionArg(changeArgs, arg);
+                        }
+                    }
+                    cursor = changedShelter.mDbHelper.getReadableDatabase().query(CHANGES_VIEW,
+                            projection, selection, changeArgs, null, null,
+                            sortOrder == null ? PetChangeEntry.COLUMN_SEQUENCE : sortOrder,
+                            getLimit(uri));
+                }
+
+                // Any change to the pets table adds to the change log
+                cursor.setNotificationUri(getContext().getContentResolver(), PetEntry.CONTENT_URI);
+                recordQuery(match, start, cursor);
+                return cursor;
+            default:
+                throw new IllegalArgumentException("Cannot query unknown URI " + uri);
+        }
+
+        // Set notification URI on the cursor
+        // If the data at this URI changes, then update the cursor
+        cursor.setNotificationUri(getContext().getContentResolver(), uri);
+        recordQuery(match, start, cursor);
+
+        // Return the cursor
+        return cursor;
+
+    }
+
+    /**
+     * Record a query in the metrics
+     * Its rows are only counted when metrics are recorded, since counting them runs the query
+     */
+    private void recordQuery(int match, long start, Cursor cursor) {
+        if(start != 0) {
+            mMetrics.record(getMatchName(match), PetMetrics.QUERY, start, cursor.getCount());
+        }
+    }
+
+    /**
+     * Return the name of the given URI matcher code in the metrics
+     */
+    private static String getMatchName(int match) {
+        switch(match) {
+            case PETS:
+                return "pets";
+            case PET_ID:
+                return "pet_id";
+            case PET_SEARCH:
+                return "pet_search";
+            case PETS_STATS:
+                return "pets_stats";
+            case PETS_STATS_GENDER:
+                return "pets_stats_gender";
+            case PETS_STATS_BREED:
+                return "pets_stats_breed";
+            case PETS_CHANGES:
+                return "pets_changes";
+            default:
+                return "unknown";
+        }
+    }
+
+    /**
+     * Return the columns of the given statistics table after its key column, with the average
+     * weight of each group, up to the end of the query
+     */
+    private static String getStatsColumns(String table) {
+        return PetStatsEntry.COLUMN_PET_COUNT + ", "
+                + PetStatsEntry.COLUMN_WEIGHT_SUM + ", "
+                + PetStatsEntry.COLUMN_WEIGHT_SUM + " * 1.0 / " + PetStatsEntry.COLUMN_PET_COUNT
+                + " AS " + PetStatsEntry.COLUMN_AVERAGE_WEIGHT + ", "
+                + PetStatsEntry.COLUMN_MIN_WEIGHT + ", "
+                + PetStatsEntry.COLUMN_MAX_WEIGHT
+                + " FROM " + table + ")";
+    }
+
+    /**
+     * Return whether every column of the given projection is a column of the pets table
+     * A null projection stands for all the columns
+     */
+    private static boolean isPetColumns(String[] projection) {
+        if(projection == null) {
+            return true;
+        }
+        for(String column : projection) {
+            boolean found = false;
+            for(String petColumn : PET_COLUMNS) {
+                if(petColumn.equals(column)) {
+                    found = true;
+                    break;
+                }
+            }
+            if(!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Return a cursor with the given columns of the pet with the given ID
+     * The pet is read from the cache, or from the database and then cached on a miss
+     */
+    private Cursor queryCachedPet(Shelter shelter, long id, String[] projection) {
+        Pet pet = mPetCache.get(id);
+        if(pet == null) {
+            // Take the generation before reading, so a write that happens in between
+            // keeps this row out of the cache
+            long generation = mPetCache.generation();
+            Cursor cursor = shelter.mDbHelper.getReadableDatabase().query(PetEntry.TABLE_NAME,
+                    PET_COLUMNS, LIVE_PET_BY_ID, new String[] { String.valueOf(id) }, null, null, null);
+            try {
+                if(cursor.moveToFirst()) {
+                    pet = new Pet(cursor.getLong(0), cursor.getString(1), cursor.getString(2),
+                            cursor.getInt(3), cursor.getInt(4), cursor.getString(5));
+                    mPetCache.put(pet, generation);
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        // Build a cursor with the requested columns, it is empty if there is no such pet
+        if(projection == null) {
+            projection = PET_COLUMNS;
+        }
+        MatrixCursor result = new MatrixCursor(projection, 1);
+        if(pet != null) {
+            Object[] row = new Object[projection.length];
+            for(int i = 0; i < projection.length; i++) {
+                row[i] = pet.getColumnValue(projection[i]);
+            }
+            result.addRow(row);
+        }
+        return result;
+    }
+
+    /**
+     * Query the pets of the shelters covered by the given URI
+     * The pets of several shelters are queried from each shelter in the given sort order, or
+     * in the order of the sort keys of the URI, or in _ID order, and merged in that order up
+     * to the limit of the URI
+     */
+    private Cursor queryPets(Uri uri, String[] projection, String selection,
+                             String[] selectionArgs, String sortOrder) {
+
+        // All columns stand for the pet columns so the deleted column stays internal
+        if(projection == null) {
+            projection = PET_COLUMNS;
+        }
+        List<Shelter> shelters = getShelters(uri);
+        if(shelters.isEmpty()) {
+            return new MatrixCursor(projection, 0);
+        }
+        if(shelters.size() == 1) {
+            return queryShelterPets(shelters.get(0), uri, projection, selection, selectionArgs,
+                    sortOrder, false);
+        }
+
+        // The sort columns that are not requested are added after the requested ones, so
+        // the rows of the shelters can be compared
+        List<SortKey> sortKeys = sortOrder == null
+                ? parseSortKeys(uri) : parseSortOrder(uri, sortOrder);
+        List<String> columns = new ArrayList<String>(Arrays.asList(projection));
+        PetMergeCursor.SortColumn[] sortColumns = getMergeColumns(sortKeys, columns);
+        String[] shelterProjection = columns.toArray(new String[columns.size()]);
+        String shelterSortOrder = sortOrder == null ? null : buildSortOrder(sortKeys);
+
+        Cursor[] cursors = new Cursor[shelters.size()];
+        try {
+            for(int i = 0; i < cursors.length; i++) {
+                cursors[i] = queryShelterPets(shelters.get(i), uri, shelterProjection,
+                        selection, selectionArgs, shelterSortOrder, true);
+            }
+        } catch(RuntimeException e) {
+            closeCursors(cursors);
+            throw e;
+        }
+        return new PetMergeCursor(cursors, projection, sortColumns, getLimitCount(uri));
+    }
+
+    /**
+     * Close the given cursors that were opened
+     */
+    private static void closeCursors(Cursor[] cursors) {
+        for(Cursor cursor : cursors) {
+            if(cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * Query the pets of the given shelter with the given projection, selection, selection
+     * arguments and sort order
+     * If the URI asks for a page of pets, only the rows after the given _ID are returned in
+     * _ID order, or in the order of the sort keys of the URI, up to the given limit
+     * Deleted pets are never returned
+     * @param acrossShelters Whether the pets the page starts after or ends with may belong to
+     *                       another shelter, whose sort values are then read beforehand
+     */
+    private Cursor queryShelterPets(Shelter shelter, Uri uri, String[] projection,
+                                    String selection, String[] selectionArgs, String sortOrder,
+                                    boolean acrossShelters) {
+        selection = appendSelection(selection, LIVE_PETS);
+        boolean paged = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_SORT) != null
+                || uri.getQueryParameter(PetEntry.QUERY_PARAMETER_AFTER_ID) != null
+                || uri.getQueryParameter(PetEntry.QUERY_PARAMETER_UNTIL_ID) != null;
+        if(paged && sortOrder != null) {
+            throw new IllegalArgumentException("Paging or sorting through " + uri
+                    + " cannot be sorted by " + sortOrder);
+        }
+        if(paged || (acrossShelters && sortOrder == null)) {
+            List<SortKey> sortKeys = parseSortKeys(uri);
+            List<String> keysetArgs = new ArrayList<String>();
+            if(uri.getQueryParameter(PetEntry.QUERY_PARAMETER_AFTER_ID) != null) {
+                long afterId = parseQueryParameter(uri, PetEntry.QUERY_PARAMETER_AFTER_ID);
+                if(afterId != 0) {
+                    selection = appendSelection(selection, buildKeysetCondition(sortKeys,
+                            afterId, getSortValues(uri, PetEntry.QUERY_PARAMETER_AFTER_VALUE,
+                                    sortKeys, afterId),
+                            false, acrossShelters, keysetArgs));
+                }
+            }
+            if(uri.getQueryParameter(PetEntry.QUERY_PARAMETER_UNTIL_ID) != null) {
+                long untilId = parseQueryParameter(uri, PetEntry.QUERY_PARAMETER_UNTIL_ID);
+                selection = appendSelection(selection, buildKeysetCondition(sortKeys,
+                        untilId, getSortValues(uri, PetEntry.QUERY_PARAMETER_UNTIL_VALUE,
+                                sortKeys, untilId),
+                        true, acrossShelters, keysetArgs));
+            }
+            for(String arg : keysetArgs) {
+                selectionArgs = appendSelectionArg(selectionArgs, arg);
+            }
+            sortOrder = buildSortOrder(sortKeys);
+        }
+        return shelter.mDbHelper.getReadableDatabase().query(PetEntry.TABLE_NAME, projection,
+                selection, selectionArgs, null, null, sortOrder, getLimit(uri));
+    }
+
+    /**
+     * Search the pets of the given shelters for the text at the end of the given URI
+     * The pets of several shelters are searched in each shelter in the given sort order, or
+     * ranked with the ones whose name matches first, and merged in that order up to the limit
+     * of the URI
+     */
+    private Cursor searchShelters(List<Shelter> shelters, Uri uri, String[] projection,
+                                  String selection, String[] selectionArgs, String sortOrder) {
+        if(projection == null) {
+            projection = PET_COLUMNS;
+        }
+        if(shelters.isEmpty()) {
+            return new MatrixCursor(projection, 0);
+        }
+        if(shelters.size() == 1) {
+            return searchPets(shelters.get(0).mDbHelper.getReadableDatabase(), uri, projection,
+                    selection, selectionArgs, sortOrder);
+        }
+
+        // The rank of the pets is returned as the NAME_MATCHED column, so the rows of the
+        // shelters can be compared
+        List<SortKey> sortKeys;
+        if(sortOrder == null) {
+            sortKeys = new ArrayList<SortKey>();
+            sortKeys.add(new SortKey(NAME_MATCHED, false, true));
+            sortKeys.add(new SortKey(PetEntry.COLUMN_PET_NAME, true, false));
+        } else {
+            sortKeys = parseSortOrder(uri, sortOrder);
+        }
+        List<String> columns = new ArrayList<String>(Arrays.asList(projection));
+        PetMergeCursor.SortColumn[] sortColumns = getMergeColumns(sortKeys, columns);
+        String[] shelterProjection = columns.toArray(new String[columns.size()]);
+
+        Cursor[] cursors = new Cursor[shelters.size()];
+        try {
+            for(int i = 0; i < cursors.length; i++) {
+                cursors[i] = searchPets(shelters.get(i).mDbHelper.getReadableDatabase(), uri,
+                        shelterProjection, selection, selectionArgs, buildSortOrder(sortKeys));
+            }
+        } catch(RuntimeException e) {
+            closeCursors(cursors);
+            throw e;
+        }
+        return new PetMergeCursor(cursors, projection, sortColumns, getLimitCount(uri));
+    }
+
+    /**
+     * Search the names and breeds of the pets for the text at the end of the given URI
+     * Every word of the text must match the start of a word in the name or breed of a pet
+     * Pets whose name matches every word come first, unless a sort order is given
+     * A NAME_MATCHED column of the projection returns that rank, and the sort order may then
+     * refer to it
+     */
+    private Cursor searchPets(SQLiteDatabase database, Uri uri, String[] projection,
+                              String selection, String[] selectionArgs, String sortOrder) {
+
+        // Deleted pets stay in the search index until they are purged, so they are left out
+        // by the selection
+        if(projection == null) {
+            projection = PET_COLUMNS;
+        }
+        selection = appendSelection(selection, LIVE_PETS);
+
+        // Turn the text into prefix terms of the full-text query, for example "lab re" becomes
+        // "lab* re*" and only matches names or breeds containing words starting with both
+        StringBuilder match = new StringBuilder();
+        StringBuilder nameMatch = new StringBuilder();
+        for(String word : uri.getLastPathSegment().split("[^\\p{L}\\p{N}]+")) {
+            if(word.length() == 0) {
+                continue;
+            }
+
+            // Lowercase the words so they are never read as full-text operators such as OR
+            word = word.toLowerCase(Locale.ROOT);
+            match.append(word).append("* ");
+            nameMatch.append(PetEntry.COLUMN_PET_NAME).append(':').append(word).append("* ");
+        }
+        String matched = PetEntry._ID + " IN (SELECT docid FROM " + PetEntry.SEARCH_TABLE_NAME
+                + " WHERE " + PetEntry.SEARCH_TABLE_NAME + " MATCH ?)";
+        int rankColumn = Arrays.asList(projection).indexOf(NAME_MATCHED);
+
+        // Text without any word cannot match any pet
+        if(match.length() == 0) {
+            selection = appendSelection(selection, "0");
+            if(rankColumn != -1) {
+                projection = projection.clone();
+                projection[rankColumn] = "0 AS " + NAME_MATCHED;
+            }
+        } else {
+            selection = appendSelection(selection, matched);
+            selectionArgs = appendSelectionArg(selectionArgs, match.toString().trim());
+
+            if(rankColumn != -1) {
+                // The columns come ahead of the selection, so their argument is bound first
+                projection = projection.clone();
+                projection[rankColumn] = "(" + matched + ") AS " + NAME_MATCHED;
+                String[] args = { nameMatch.toString().trim() };
+                for(String arg : selectionArgs) {
+                    args = appendSelectionArg(args, arg);
+                }
+                selectionArgs = args;
+            } else if(sortOrder == null) {
+                // Rank the pets whose name matches every word ahead of the ones matched by breed
+                // The sort order follows the selection, so its argument is bound last
+                sortOrder = matched + " DESC, " + PetEntry.COLUMN_PET_NAME + " COLLATE NOCASE";
+                selectionArgs = appendSelectionArg(selectionArgs, nameMatch.toString().trim());
+            }
+        }
+
+        return database.query(PetEntry.TABLE_NAME, projection, selection, selectionArgs,
+                null, null, sortOrder, getLimit(uri));
+    }
+
+    /**
+     * A column the pets are sorted by
+     */
+    private static final class SortKey {
+
+        /* Column of the pets table and expression it is sorted by */
+        final String mColumn;
+        final String mExpression;
+
+        final boolean mNoCase;
+        final boolean mDescending;
+
+        SortKey(String column, boolean noCase, boolean descending) {
+            mColumn = column;
+            mExpression = noCase ? column + " COLLATE NOCASE" : column;
+            mNoCase = noCase;
+            mDescending = descending;
+        }
+    }
+
+    /**
+     * Return the sort keys of the given URI, ending with the _ID that orders the pets that
+     * compare equal, in the direction of the last key
+     */
+    private static List<SortKey> parseSortKeys(Uri uri) {
+        List<SortKey> keys = new ArrayList<SortKey>();
+        String value = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_SORT);
+        if(value != null) {
+            for(String key : value.split(",")) {
+                boolean descending = key.startsWith("-");
+                String column = descending ? key.substring(1) : key;
+                if(PetEntry.COLUMN_PET_NAME.equals(column)) {
+                    // Same collation as the index on the names
+                    keys.add(new SortKey(column, true, descending));
+                } else if(PetEntry.COLUMN_PET_WEIGHT.equals(column)
+                        || PetEntry._ID.equals(column)) {
+                    keys.add(new SortKey(column, false, descending));
+                } else {
+                    throw new IllegalArgumentException("Invalid " + PetEntry.QUERY_PARAMETER_SORT
+                            + " " + value + " in " + uri);
+                }
+
+                // The _ID is unique, so any key after it would never be compared
+                if(PetEntry._ID.equals(column)) {
+                    return keys;
+                }
+            }
+        }
+        boolean descending = !keys.isEmpty() && keys.get(keys.size() - 1).mDescending;
+        keys.add(new SortKey(PetEntry._ID, false, descending));
+        return keys;
+    }
+
+    /**
+     * Return the sort keys of the given sort order of a query merging several shelters
+     * The merge compares the values of the rows itself, so every term must be a pet column,
+     * optionally followed by COLLATE NOCASE or COLLATE BINARY, then by ASC or DESC
+     */
+    private static List<SortKey> parseSortOrder(Uri uri, String sortOrder) {
+        List<SortKey> keys = new ArrayList<SortKey>();
+        for(String term : sortOrder.trim().split("\\s*,\\s*")) {
+            String[] words = term.split("\\s+");
+            String column = null;
+            for(String petColumn : PET_COLUMNS) {
+                if(petColumn.equalsIgnoreCase(words[0])) {
+                    column = petColumn;
+                }
+            }
+            int next = 1;
+            boolean noCase = false;
+            if(next + 1 < words.length && "COLLATE".equalsIgnoreCase(words[next])) {
+                noCase = "NOCASE".equalsIgnoreCase(words[next + 1]);
+                if(!noCase && !"BINARY".equalsIgnoreCase(words[next + 1])) {
+                    column = null;
+                }
+                next += 2;
+            }
+            boolean descending = false;
+            if(next < words.length && "DESC".equalsIgnoreCase(words[next])) {
+                descending = true;
+                next++;
+            } else if(next < words.length && "ASC".equalsIgnoreCase(words[next])) {
+                next++;
+            }
+            if(column == null || next != words.length) {
+                throw new IllegalArgumentException("Pets of every shelter through " + uri
+                        + " cannot be sorted by " + sortOrder);
+            }
+            keys.add(new SortKey(column, noCase, descending));
+        }
+        return keys;
+    }
+
+    /**
+     * Return the columns the merge of several shelters compares for the given sort keys,
+     * adding the key columns missing from the given columns after them
+     */
+    private static PetMergeCursor.SortColumn[] getMergeColumns(List<SortKey> keys,
+                                                               List<String> columns) {
+        PetMergeCursor.SortColumn[] sortColumns = new PetMergeCursor.SortColumn[keys.size()];
+        for(int i = 0; i < keys.size(); i++) {
+            SortKey key = keys.get(i);
+            int index = columns.indexOf(key.mColumn);
+            if(index == -1) {
+                index = columns.size();
+                columns.add(key.mColumn);
+            }
+
+            // Only the text columns have a collation, the others hold numbers
+            int comparison;
+            if(!PetEntry.COLUMN_PET_NAME.equals(key.mColumn)
+                    && !PetEntry.COLUMN_PET_BREED.equals(key.mColumn)
+                    && !PetEntry.COLUMN_PET_PHOTO.equals(key.mColumn)) {
+                comparison = PetMergeCursor.SortColumn.NUMBER;
+            } else if(key.mNoCase) {
+                comparison = PetMergeCursor.SortColumn.TEXT_NOCASE;
+            } else {
+                comparison = PetMergeCursor.SortColumn.TEXT;
+            }
+            sortColumns[i] = new PetMergeCursor.SortColumn(index, comparison, key.mDescending);
+        }
+        return sortColumns;
+    }
+
+    /**
+     * Return the sort order of the given sort keys
+     */
+    private static String buildSortOrder(List<SortKey> keys) {
+        StringBuilder sortOrder = new StringBuilder();
+        for(SortKey key : keys) {
+            if(sortOrder.length() != 0) {
+                sortOrder.append(", ");
+            }
+            sortOrder.append(key.mExpression).append(key.mDescending ? " DESC" : " ASC");
+        }
+        return sortOrder.toString();
+    }
+
+    /**
+     * Return the condition selecting the pets that come after the pet with the given _ID in
+     * the order of the given sort keys, or up to that pet included if until is true
+     * The sort values of that pet are the given values when the URI gives them. Otherwise they
+     * are read by subqueries, whose arguments are added to args, or read beforehand from its
+     * own shelter and added to args if it may belong to another shelter, in which case no pet
+     * comes after a pet that does not exist
+     *
+     * Pets come after the given one if they are past it on the first key, or equal on the
+     * first key and past it on the second, and so on down to the _ID. The first key is also
+     * bounded on its own, so the query can seek to the start of the page through an index
+     */
+    private String buildKeysetCondition(List<SortKey> keys, long id, String[] values,
+                                        boolean until, boolean acrossShelters,
+                                        List<String> args) {
+        String idArg = String.valueOf(id);
+        if(values == null && acrossShelters && keys.size() > 1) {
+            values = readSortValues(keys, id);
+            if(values == null) {
+                return "0";
+            }
+        }
+        StringBuilder condition = new StringBuilder();
+        StringBuilder equalKeys = new StringBuilder();
+        for(int i = 0; i < keys.size(); i++) {
+            SortKey key = keys.get(i);
+            boolean last = i == keys.size() - 1;
+
+            // The value of the pet to compare with, its _ID or a subquery of its sort value
+            String value = last || values != null ? "?" : "(SELECT " + key.mColumn + " FROM "
+                    + PetEntry.TABLE_NAME + " WHERE " + PetEntry._ID + "=?)";
+            boolean greater = key.mDescending == until;
+            String operator = (greater ? ">" : "<") + (until && last ? "=" : "");
+
+            if(i == 0) {
+                if(last) {
+                    args.add(idArg);
+                    return key.mExpression + operator + value;
+                }
+                // Bound on the first key alone, with the pets that are equal on it
+                condition.append(key.mExpression).append(greater ? ">=" : "<=").append(value)
+                        .append(" AND (");
+                args.add(values == null ? idArg : values[0]);
+            } else {
+                condition.append(" OR ");
+            }
+            condition.append('(').append(equalKeys).append(key.mExpression).append(operator)
+                    .append(value).append(')');
+            if(values == null) {
+                args.addAll(Collections.nCopies(i + 1, idArg));
+            } else {
+                args.addAll(Arrays.asList(values).subList(0, i + 1));
+            }
+            equalKeys.append(key.mExpression).append('=').append(value).append(" AND ");
+        }
+        return condition.append(')').toString();
+    }
+
+    /**
+     * Return the sort values the given URI gives for the pet with the given _ID in the given
+     * repeated query parameter, followed by its _ID, or null if the URI does not give them
+     */
+    private static String[] getSortValues(Uri uri, String parameter, List<SortKey> keys,
+                                          long id) {
+        List<String> parameterValues = uri.getQueryParameters(parameter);
+        if(parameterValues.isEmpty()) {
+            return null;
+        }
+        if(parameterValues.size() != keys.size() - 1) {
+            throw new IllegalArgumentException("Expected " + (keys.size() - 1) + " " + parameter
+                    + " in " + uri);
+        }
+        String[] values = parameterValues.toArray(new String[keys.size()]);
+        values[keys.size() - 1] = String.valueOf(id);
+        return values;
+    }
+
+    /**
+     * Return the values of the given sort keys of the pet with the given _ID, read from the
+     * database of its shelter, the last one being its _ID
+     * Return null if there is no such pet or it has no value for a key, since no pet compares
+     * with it then
+     */
+    private String[] readSortValues(List<SortKey> keys, long id) {
+        String idArg = String.valueOf(id);
+        Shelter shelter = findPetShelter(id);
+        if(shelter == null) {
+            return null;
+        }
+        String[] columns = new String[keys.size() - 1];
+        for(int i = 0; i < columns.length; i++) {
+            columns[i] = keys.get(i).mColumn;
+        }
+        Cursor cursor = shelter.mDbHelper.getReadableDatabase().query(PetEntry.TABLE_NAME,
+                columns, PetEntry._ID + "=?", new String[] { idArg }, null, null, null);
+        try {
+            if(!cursor.moveToFirst()) {
+                return null;
+            }
+            String[] values = new String[keys.size()];
+            for(int i = 0; i < columns.length; i++) {
+                if(cursor.isNull(i)) {
+                    return null;
+                }
+                values[i] = cursor.getString(i);
+            }
+            values[columns.length] = idArg;
+            return values;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Return the limit clause requested by the given URI, or null if it has no limit
+     */
+    private static String getLimit(Uri uri) {
+        if(uri.getQueryParameter(PetEntry.QUERY_PARAMETER_LIMIT) == null) {
+            return null;
+        }
+        return String.valueOf(parseQueryParameter(uri, PetEntry.QUERY_PARAMETER_LIMIT));
+    }
+
+    /**
+     * Return the limit requested by the given URI as a number of rows, or -1 if it has no limit
+     */
+    private static int getLimitCount(Uri uri) {
+        if(uri.getQueryParameter(PetEntry.QUERY_PARAMETER_LIMIT) == null) {
+            return -1;
+        }
+        return (int) Math.min(Integer.MAX_VALUE,
+                parseQueryParameter(uri, PetEntry.QUERY_PARAMETER_LIMIT));
+    }
+
+    /**
+     * Return the value of the given query parameter of the URI as a non-negative number
+     */
+    private static long parseQueryParameter(Uri uri, String name) {
+        String value = uri.getQueryParameter(name);
+        try {
+            long number = Long.parseLong(value);
+            if(number >= 0) {
+                return number;
+            }
+        } catch(NumberFormatException e) {
+            // Fall through to the exception below
+        }
+        throw new IllegalArgumentException("Invalid " + name + " " + value + " in " + uri);
+    }
+
+    /**
+     * Return the given selection combined with the extra condition
+     */
+    private static String appendSelection(String selection, String condition) {
+        if(selection == null || selection.length() == 0) {
+            return condition;
+        }
+        return "(" + selection + ") AND " + condition;
+    }
+
+    /**
+     * Return the given selection arguments followed by the extra argument
+     */
+    private static String[] appendSelectionArg(String[] selectionArgs, String arg) {
+        if(selectionArgs == null) {
+            return new String[] { arg };
+        }
+        String[] args = new String[selectionArgs.length + 1];
+        System.arraycopy(selectionArgs, 0, args, 0, selectionArgs.length);
+        args[selectionArgs.length] = arg;
+        return args;
+    }
+
+    /**
+     * Insert new data into the provider with the given contentValue
+     */
+    @Override
+    public Uri insert(final Uri uri, final ContentValues contentValues) {
+        final Shelter shelter = getInsertShelter(uri);
+        if(isGroupCommitted(shelter)) {
+            return shelter.mGroupCommit.submit(new PetGroupCommit.Operation<Uri>() {
+                @Override
+                public Uri apply() {
+                    return applyInsert(shelter, uri, contentValues);
+                }
+            });
+        }
+        return applyInsert(shelter, uri, contentValues);
+    }
+
+    /**
+     * Return the shelter of the pets inserted through the given URI, the one of its
+     * QUERY_PARAMETER_SHELTER or DEFAULT_SHELTER_ID, whose database is created if needed
+     * Return null if pets cannot be inserted through that URI
+     */
+    private Shelter getInsertShelter(Uri uri) {
+        if(sUriMatcher.match(uri) != PETS) {
+            return null;
+        }
+        long shelterId = getShelterParameter(uri);
+        return getOrCreateShelter(shelterId == NO_SHELTER
+                ? PetEntry.DEFAULT_SHELTER_ID : shelterId);
+    }
+
+    /**
+     * Insert new data into the provider, within the current transaction if there is one
+     */
+    private Uri applyInsert(Shelter shelter, Uri uri, ContentValues contentValues) {
+
+        long start = mMetrics.startTimer();
+
+        final int match = sUriMatcher.match(uri);
+
+        Uri newUri;
+        switch(match) {
+            case PETS:
+                newUri = insertPet(shelter, uri, contentValues);
+                break;
+            default:
+                throw new IllegalArgumentException("Insertion is not supported for " + uri);
+        }
+
+        mMetrics.record(getMatchName(match), PetMetrics.INSERT, start, newUri == null ? 0 : 1);
+        return newUri;
+    }
+
+    /**
+     * Method to insert a pet into the database of the given shelter with the given content
+     * values
+     * Return the new content URI for that specific row in the database
+     */
+    private Uri insertPet(Shelter shelter, Uri uri, ContentValues values) {
+
+        // Check that the values describe a valid pet before touching the database
+        validateNewPet(values);
+        joinBatch(shelter);
+
+        // Insert the new pet with the given values
+        // The usual pet columns are bound to a compiled statement, anything else goes through
+        // the generic insert
+        long id;
+        if(hasOnlyPetColumns(values, false)) {
+            Integer weight = values.getAsInteger(PetEntry.COLUMN_PET_WEIGHT);
+            id = shelter.mDbHelper.getStatements().insert(
+                    values.getAsString(PetEntry.COLUMN_PET_NAME),
+                    values.getAsString(PetEntry.COLUMN_PET_BREED),
+                    values.getAsInteger(PetEntry.COLUMN_PET_GENDER),
+                    weight == null ? 0 : weight);
+        } else {
+            id = shelter.mDbHelper.getWritableDatabase().insert(PetEntry.TABLE_NAME, null,
+                    values);
+        }
+
+        // If the ID is -1, then the insertion is failed, Log an error and return null
+        if(id == -1) {
+            Log.e(LOG_TAG, "Failed to insert row for " + uri);
+            return null;
+        }
+
+        // Notify all listeners that the data has changed for the content URI of the new pet
+        notifyPetsChanged(new long[] { id });
+
+        // Return the new content URI with the ID of the newly inserted row appended at the end
+        return ContentUris.withAppendedId(uri, id);
+
+    }
+
+    /**
+     * Return whether the given content values only contain the name, breed, gender and weight
+     * columns bound by the compiled statements, and all four of them if requireAll is true
+     */
+    private static boolean hasOnlyPetColumns(ContentValues values, boolean requireAll) {
+        int columns = 0;
+        if(values.containsKey(PetEntry.COLUMN_PET_NAME)) {
+            columns++;
+        }
+        if(values.containsKey(PetEntry.COLUMN_PET_BREED)) {
+            columns++;
+        }
+        if(values.containsKey(PetEntry.COLUMN_PET_GENDER)) {
+            columns++;
+        }
+        if(values.containsKey(PetEntry.COLUMN_PET_WEIGHT)) {
+            columns++;
+        }
+        return columns == values.size() && (!requireAll || columns == 4);
+    }
+
+    /**
+     * Check that the given content values describe a valid new pet
+     * Throw an IllegalArgumentException if any of the values is invalid
+     */
+    static void validateNewPet(ContentValues values) {
+
+        // Check that the name of the pet being inserted is not null
+        String name = values.getAsString(PetEntry.COLUMN_PET_NAME);
+        if(name == null) {
+            throw new IllegalArgumentException("New pet requires a name");
+        }
+
+        // Check that the gender of the pet being inserted is valid
+        Integer gender = values.getAsInteger(PetEntry.COLUMN_PET_GENDER);
+        if(gender == null || !PetEntry.isValidGender(gender)) {
+            throw new IllegalArgumentException("New pet requires a valid gender");
+        }
+
+        // If the weight is provided, check if it is greater than or equal to 0
+        Integer weight = values.getAsInteger(PetEntry.COLUMN_PET_WEIGHT);
+        if(weight != null && weight < 0) {
+            throw new IllegalArgumentException("New pet requires a valid weight");
+        }
+
+        // No need to check validity of the breed since any value is valid
+
+        checkNotManagedColumns(values);
+    }
 
     /**
-     * Initialize the provider and the database helper object
+     * Throw an IllegalArgumentException if the given content values set the deleted or photo
+     * columns, pets are only marked as deleted through delete() and their photos are written
+     * through openFile()
      */
-    @Override
-    public boolean onCreate() {
-
-        // Create and initialize a PetDbHelper object to gain access to the pets database
-        mDbHelper = new PetDbHelper(getContext());
-        return true;
+    private static void checkNotManagedColumns(ContentValues values) {
+        if(values.containsKey(PetEntry.COLUMN_PET_DELETED)) {
+            throw new IllegalArgumentException("Pets are deleted through delete(), not by setting "
+                    + PetEntry.COLUMN_PET_DELETED);
+        }
+        if(values.containsKey(PetEntry.COLUMN_PET_PHOTO)) {
+            throw new IllegalArgumentException("Photos are written through openFile(), not by "
+                    + "setting " + PetEntry.COLUMN_PET_PHOTO);
+        }
     }
 
     /**
-     * Perform query on the given URI using the given projection, selection, selection arguments and sort order
+     * Insert many pets at once with the given array of content values
+     * All rows are inserted in a single transaction and listeners are notified once at the end
      */
     @Override
-    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
-
-        // Get readable database
-        SQLiteDatabase database = mDbHelper.getReadableDatabase();
+    public int bulkInsert(Uri uri, ContentValues[] values) {
 
-        // Create a cursor to hold the result of the query
-        Cursor cursor;
+        long start = mMetrics.startTimer();
 
-        // Check if the URI matcher can match the URI to a specific code
-        int match = sUriMatcher.match(uri);
+        final int match = sUriMatcher.match(uri);
 
+        int rowsInserted;
         switch(match) {
             case PETS:
-                // For the PETS code, query the pets table directly with the given projection, selection,
-                // selection arguments and sort order
-                // In this case, the cursor could contain multiple rows of the pets table
-                cursor = database.query(PetEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
-                break;
-            case PET_ID:
-                // For the PET_ID code, extract out the ID from the URI
-                // In this case, the selection will be "_id=?" and the selection
-                // argument will be a String array containing the actual ID
-                // Since there is one "?" in the selection, 1 String is needed in the
-                // selection arguments' String array
-                selection = PetEntry._ID + "=?";
-                selectionArgs = new String[] {
-                        String.valueOf(ContentUris.parseId(uri))
-                };
-                // This will perform a query on the pets table with a specific _id and
-                // return a cursor containing that row of the table
-                cursor = database.query(PetEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
+                rowsInserted = bulkInsertPets(getInsertShelter(uri), values);
                 break;
             default:
-                throw new IllegalArgumentException("Cannot query unknown URI " + uri);
+                throw new IllegalArgumentException("Bulk insertion is not supported for " + uri);
         }
 
-        // Set notification URI on the cursor
-        // If the data at this URI changes, then update the cursor
-        cursor.setNotificationUri(getContext().getContentResolver(), uri);
-
-        // Return the cursor
-        return cursor;
-
+        mMetrics.record(getMatchName(match), PetMetrics.BULK_INSERT, start, rowsInserted);
+        return rowsInserted;
     }
 
     /**
-     * Insert new data into the provider with the given contentValue
+     * Method to insert many pets into the database of the given shelter with the given array
+     * of content values
+     * Either every row is inserted or none of them is
+     * Return the number of rows that were inserted
      */
-    @Override
-    public Uri insert(Uri uri, ContentValues contentValues) {
+    private int bulkInsertPets(Shelter shelter, ContentValues[] values) {
 
-        final int match = sUriMatcher.match(uri);
+        // Validate every row up front, so an invalid pet fails the batch before any write
+        for(ContentValues value : values) {
+            validateNewPet(value);
+        }
 
-        switch(match) {
-            case PETS:
-                return insertPet(uri, contentValues);
-            default:
-                throw new IllegalArgumentException("Insertion is not supported for " + uri);
+        // If there are no values to insert, then do not try to open a transaction
+        if(values.length == 0) {
+            return 0;
+        }
+
+        // Get writable database
+        joinBatch(shelter);
+        SQLiteDatabase database = shelter.mDbHelper.getWritableDatabase();
+
+        // Reuse the compiled insert statement and only rebind its arguments for each row
+        // that only has the usual pet columns, the other rows go through the generic insert
+        PetStatements statements = shelter.mDbHelper.getStatements();
+
+        // IDs of the inserted pets, for the change notification
+        long[] ids = new long[values.length];
+
+        int rowsInserted = 0;
+        database.beginTransaction();
+        try {
+            for(ContentValues value : values) {
+                long id;
+                if(hasOnlyPetColumns(value, false)) {
+                    // The weight column defaults to 0 when it is not provided
+                    Integer weight = value.getAsInteger(PetEntry.COLUMN_PET_WEIGHT);
+                    id = statements.insert(
+                            value.getAsString(PetEntry.COLUMN_PET_NAME),
+                            value.getAsString(PetEntry.COLUMN_PET_BREED),
+                            value.getAsInteger(PetEntry.COLUMN_PET_GENDER),
+                            weight == null ? 0 : weight);
+                } else {
+                    id = database.insert(PetEntry.TABLE_NAME, null, value);
+                }
+                if(id != -1) {
+                    ids[rowsInserted++] = id;
+                }
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
         }
+
+        // Notify all listeners once for the whole batch
+        if(rowsInserted != 0) {
+            notifyPetsChanged(Arrays.copyOf(ids, rowsInserted));
+        }
+
+        // Return the number of rows inserted
+        return rowsInserted;
     }
 
     /**
-     * Method to insert a pet into the database with the given content values
-     * Return the new content URI for that specific row in the database
+     * Apply the given operations in a single transaction on the database of each shelter
+     * they write to
+     * If any operation fails, none of the changes are committed
+     * Listeners are notified once after the whole batch has committed
      */
-    private Uri insertPet(Uri uri, ContentValues values) {
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
 
-        // Check that the name of the pet being inserted is not null
-        String name = values.getAsString(PetEntry.COLUMN_PET_NAME);
-        if(name == null) {
-            throw new IllegalArgumentException("New pet requires a name");
+        // Defer the notifications of the individual operations until the batch is done
+        // The transaction of each shelter is started by the first operation writing to it
+        Batch batch = new Batch();
+        mActiveBatch.set(batch);
+
+        ContentProviderResult[] results;
+        boolean successful = false;
+        try {
+            // Each operation is validated by insert, update or delete before it writes anything,
+            // and an exception from any of them rolls back the whole batch
+            results = super.applyBatch(operations);
+            successful = true;
+        } finally {
+            try {
+                batch.endTransactions(successful);
+
+                // A rolled back batch leaves the pets with the photos they had
+                if(successful) {
+                    for(String name : batch.mReplacedPhotos) {
+                        mPhotos.delete(name);
+                    }
+                }
+            } finally {
+                mActiveBatch.remove();
+            }
+
+            // Pets read while the batch was uncommitted, or changed by a batch that was
+            // rolled back, must not stay cached
+            // A committed batch also rewrites the snapshot of the first page, which a
+            // rolled back one leaves as it was
+            mPetCache.invalidateAll();
+            if(successful && !batch.isEmpty()) {
+                onPetsCommitted();
+            } else {
+                mFirstPage.invalidate();
+            }
         }
 
-        // Check that the gender of the pet being inserted is valid
-        Integer gender = values.getAsInteger(PetEntry.COLUMN_PET_GENDER);
-        if(gender == null || !PetEntry.isValidGender(gender)) {
-            throw new IllegalArgumentException("New pet requires a valid gender");
+        // Notify all listeners once, for all the pets changed by the batch
+        if(!batch.isEmpty()) {
+            long[] ids = batch.getIds();
+            mMetrics.recordNotification(ids);
+            getContext().getContentResolver().notifyChange(getChangeUri(ids), null);
         }
 
-        // If the weight is provided, check if it is greater than or equal to 0
-        Integer weight = values.getAsInteger(PetEntry.COLUMN_PET_WEIGHT);
-        if(weight != null && weight < 0) {
-            throw new IllegalArgumentException("New pet requires a valid weight");
+        return results;
+    }
+
+    /**
+     * Start a transaction on the database of the given shelter if a batch is being applied on
+     * this thread and did not write to that shelter yet, so its writes to the shelter are
+     * committed together by Batch.endTransactions()
+     */
+    private void joinBatch(Shelter shelter) {
+        Batch batch = mActiveBatch.get();
+        if(batch != null && !batch.mShelters.contains(shelter)) {
+            shelter.mDbHelper.getWritableDatabase().beginTransaction();
+            batch.mShelters.add(shelter);
         }
+    }
 
-        // No need to check validity of the breed since any value is valid
+    /**
+     * Return whether a write to the given shelter issued now goes through group commit, false
+     * for a write without a single shelter
+     * The writes of a batch are already committed together, so they are applied directly
+     */
+    private boolean isGroupCommitted(Shelter shelter) {
+        return shelter != null && shelter.mGroupCommit.isEnabled() && mActiveBatch.get() == null;
+    }
 
-        // Get writable database
-        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+    /**
+     * Apply the writes of a group to the given shelter in a single transaction, then notify
+     * all listeners once
+     * If the transaction fails, such as when a write breaks a constraint, it is rolled back
+     * and each write is applied again in its own transaction, so only the faulty one fails
+     */
+    private void commitGroup(Shelter shelter, List<PetGroupCommit.Write<?>> writes) {
 
-        // Insert the new pet with the given values
-        long id = database.insert(PetEntry.TABLE_NAME, null, values);
+        // Defer the notifications of the individual writes until the group has committed
+        Batch batch = new Batch();
+        mActiveBatch.set(batch);
+        try {
+            joinBatch(shelter);
+            boolean successful = false;
+            try {
+                for(PetGroupCommit.Write<?> write : writes) {
+                    write.run();
+                }
+                successful = true;
+            } finally {
+                batch.endTransactions(successful);
+            }
+        } catch(RuntimeException e) {
+            Log.w(LOG_TAG, "Group of " + writes.size() + " writes rolled back, applying them"
+                    + " one by one", e);
+            mActiveBatch.remove();
 
-        // If the ID is -1, then the insertion is failed, Log an error and return null
-        if(id == -1) {
-            Log.e(LOG_TAG, "Failed to insert row for " + uri);
-            return null;
+            // Pets changed by the rolled back writes may have been cached again in between
+            mPetCache.invalidateAll();
+            for(PetGroupCommit.Write<?> write : writes) {
+                write.runAlone();
+            }
+            return;
+        } finally {
+            mActiveBatch.remove();
         }
 
-        // Notify all listeners that the data has changed for the pet content URI
-        getContext().getContentResolver().notifyChange(uri, null);
+        // Notify all listeners once, for all the pets changed by the group
+        if(!batch.isEmpty()) {
+            long[] ids = batch.getIds();
 
-        // Return the new content URI with the ID of the newly inserted row appended at the end
-        return ContentUris.withAppendedId(uri, id);
+            // Other threads may have cached these pets before the group committed
+            invalidateCachedPets(ids);
+            onPetsCommitted();
+            mMetrics.recordNotification(ids);
+            getContext().getContentResolver().notifyChange(getChangeUri(ids), null);
+        }
+    }
+
+    /**
+     * Notify all listeners that the pets with the given IDs have changed, or that any pet may
+     * have changed if the IDs are null
+     * If a batch is being applied on this thread, the notification is deferred until it commits
+     */
+    private void notifyPetsChanged(long[] ids) {
+        Batch batch = mActiveBatch.get();
+        if(batch != null) {
+            batch.add(ids);
+            return;
+        }
+
+        // The changed pets may be on the first page of the catalog
+        onPetsCommitted();
+        mMetrics.recordNotification(ids);
+        getContext().getContentResolver().notifyChange(getChangeUri(ids), null);
+    }
+
+    /**
+     * Return the URI to notify for a change to the pets with the given IDs
+     * A single pet is notified on its own content URI, a few pets on CONTENT_URI with their IDs,
+     * and unknown or too many pets on CONTENT_URI alone
+     */
+    private static Uri getChangeUri(long[] ids) {
+        if(ids == null || ids.length > MAX_NOTIFIED_IDS) {
+            return PetEntry.CONTENT_URI;
+        }
+        return PetEntry.buildChangeUri(ids);
+    }
+
+    /**
+     * Return the IDs of the pets matching the given selection, or null if there are more
+     * than MAX_NOTIFIED_IDS of them
+     */
+    private static long[] queryIds(SQLiteDatabase database, String selection,
+                                   String[] selectionArgs) {
+        Cursor cursor = database.query(PetEntry.TABLE_NAME, new String[] { PetEntry._ID },
+                selection, selectionArgs, null, null, null,
+                String.valueOf(MAX_NOTIFIED_IDS + 1));
+        try {
+            if(cursor.getCount() > MAX_NOTIFIED_IDS) {
+                return null;
+            }
+            long[] ids = new long[cursor.getCount()];
+            for(int i = 0; cursor.moveToNext(); i++) {
+                ids[i] = cursor.getLong(0);
+            }
+            return ids;
+        } finally {
+            cursor.close();
+        }
+    }
 
+    /**
+     * Drop the pets with the given IDs from the cache, or every pet if the IDs are null
+     */
+    private void invalidateCachedPets(long[] ids) {
+        if(ids == null) {
+            mPetCache.invalidateAll();
+        } else {
+            for(long id : ids) {
+                mPetCache.invalidate(id);
+            }
+        }
     }
 
     /**
      * Update the data at the given selection and selection arguments with the new contentValue
      */
     @Override
-    public int update(Uri uri, ContentValues contentValues, String selection, String[] selectionArgs) {
+    public int update(final Uri uri, final ContentValues contentValues, final String selection,
+                      final String[] selectionArgs) {
+        Shelter shelter = getWriteShelter(uri);
+        if(isGroupCommitted(shelter)) {
+            return shelter.mGroupCommit.submit(new PetGroupCommit.Operation<Integer>() {
+                @Override
+                public Integer apply() {
+                    return applyUpdate(uri, contentValues, selection, selectionArgs);
+                }
+            });
+        }
+        return applyUpdate(uri, contentValues, selection, selectionArgs);
+    }
+
+    /**
+     * Return the single shelter written through the given URI, the one of the pet in a pet
+     * URI or the one of the QUERY_PARAMETER_SHELTER of the pets URI
+     * Return null if there is no such shelter or the write covers every shelter
+     */
+    private Shelter getWriteShelter(Uri uri) {
+        switch(sUriMatcher.match(uri)) {
+            case PETS:
+                long shelterId = getShelterParameter(uri);
+                return shelterId == NO_SHELTER ? null : findShelter(shelterId);
+            case PET_ID:
+                return findPetShelter(ContentUris.parseId(uri));
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Update the data at the given selection, within the current transaction if there is one
+     */
+    private int applyUpdate(Uri uri, ContentValues contentValues, String selection,
+                            String[] selectionArgs) {
+
+        long start = mMetrics.startTimer();
 
         final int match = sUriMatcher.match(uri);
 
+        int rowsUpdated;
         switch(match) {
             case PETS:
-                return updatePet(uri, contentValues, selection, selectionArgs);
+                rowsUpdated = updatePet(uri, contentValues, NO_ID, selection, selectionArgs);
+                break;
             case PET_ID:
                 // For the PET_ID code, extract out the ID from the URI
-                // In this case, the selection will be "_id=?" and the selection
-                // argument will be a String array containing the actual ID
-                // Since there is one "?" in the selection, 1 String is needed in the
-                // selection arguments' String array
-                selection = PetEntry._ID + "=?";
-                selectionArgs = new String[] {
-                        String.valueOf(ContentUris.parseId(uri))
-                };
-                return updatePet(uri, contentValues, selection, selectionArgs);
+                // The row to update is then selected by that ID
+                rowsUpdated = updatePet(uri, contentValues, ContentUris.parseId(uri), null, null);
+                break;
             default:
                 throw new IllegalArgumentException("Update is not supported for " + uri);
         }
 
+        mMetrics.record(getMatchName(match), PetMetrics.UPDATE, start, rowsUpdated);
+        return rowsUpdated;
+
     }
 
     /**
      * Update pets in the databse with the given content values
-     * Apply the changes to the rows specified in the selections and selection arguments
-     * which could be 0 or 1 or more pets
+     * Apply the changes to the pet with the given ID, or if it is NO_ID, to the rows specified
+     * in the selections and selection arguments which could be 0 or 1 or more pets, in each
+     * shelter of the URI
      * Return the number of rows that were successfully updated
      */
-    private int updatePet(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+    private int updatePet(Uri uri, ContentValues values, long id, String selection,
+                          String[] selectionArgs) {
 
         // If the COLUMN_PET_NAME key is present
         // check that the name value is not null
@@ -239,21 +1918,96 @@ public class PetProvider extends ContentProvider {
 
         // No need to check validity of the breed since any value is valid
 
+        checkNotManagedColumns(values);
+
         // If there are no values to update, then do not try to update the database
         if(values.size() == 0) {
             return 0;
         }
 
-        // Otherwise, get writable database to update the data
-        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        // A pet is updated in the database of its shelter, and there is no such pet if that
+        // shelter has none
+        Shelter shelter = null;
+        if(id != NO_ID) {
+            shelter = findPetShelter(id);
+            if(shelter == null) {
+                return 0;
+            }
+            joinBatch(shelter);
+        }
+
+        // Whether enough pets were updated in a shelter for the maintenance to compact its
+        // change log
+        boolean scheduleMaintenance = false;
 
         // Perform the update on the database and get the number of rows affected
-        int rowsUpdated = database.update(PetEntry.TABLE_NAME, values, selection, selectionArgs);
+        // and their IDs, null if there were too many of them to list
+        int rowsUpdated;
+        long[] ids;
+        if(id != NO_ID && hasOnlyPetColumns(values, true)
+                && values.getAsInteger(PetEntry.COLUMN_PET_WEIGHT) != null) {
+            // Replacing every column of a single pet, as the editor does, uses a compiled statement
+            rowsUpdated = shelter.mDbHelper.getStatements().updateById(id,
+                    values.getAsString(PetEntry.COLUMN_PET_NAME),
+                    values.getAsString(PetEntry.COLUMN_PET_BREED),
+                    values.getAsInteger(PetEntry.COLUMN_PET_GENDER),
+                    values.getAsInteger(PetEntry.COLUMN_PET_WEIGHT));
+            ids = new long[] { id };
+        } else if(id != NO_ID) {
+            // In this case, the selection will be "_id=? AND deleted=0" and the selection
+            // argument will be a String array containing the actual ID
+            // Since there is one "?" in the selection, 1 String is needed in the
+            // selection arguments' String array
+            selection = LIVE_PET_BY_ID;
+            selectionArgs = new String[] { String.valueOf(id) };
+
+            // Get writable database to update the data
+            SQLiteDatabase database = shelter.mDbHelper.getWritableDatabase();
+            rowsUpdated = database.update(PetEntry.TABLE_NAME, values, selection, selectionArgs);
+            ids = new long[] { id };
+        } else {
+            // Find the pets matching the selection in the same transaction as the update,
+            // so only those pets are notified, deleted pets are never updated
+            // Each shelter is updated in its own transaction
+            selection = appendSelection(selection, LIVE_PETS);
+            rowsUpdated = 0;
+            Batch changes = new Batch();
+            for(Shelter updatedShelter : getShelters(uri)) {
+                joinBatch(updatedShelter);
+                SQLiteDatabase database = updatedShelter.mDbHelper.getWritableDatabase();
+                database.beginTransaction();
+                try {
+                    long[] shelterIds = queryIds(database, selection, selectionArgs);
+                    int shelterRows = database.update(PetEntry.TABLE_NAME, values, selection,
+                            selectionArgs);
+                    database.setTransactionSuccessful();
+                    if(shelterRows != 0) {
+                        rowsUpdated += shelterRows;
+                        changes.add(shelterIds);
+                        if(updatedShelter.mMaintenance.onPetsUpdated(shelterRows)) {
+                            scheduleMaintenance = true;
+                        }
+                    }
+                } finally {
+                    database.endTransaction();
+                }
+            }
+            ids = changes.getIds();
+        }
 
-        // If 1 or more rows were updated, then notify all listeners that the data at the given
-        // URI has changed
+        // If 1 or more rows were updated, then drop them from the cache and notify all listeners
+        // that these pets have changed
         if(rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            invalidateCachedPets(ids);
+            notifyPetsChanged(ids);
+
+            // Compact the change log once the device is idle after many updates
+            if(shelter != null && shelter.mMaintenance.onPetsUpdated(rowsUpdated)) {
+                scheduleMaintenance = true;
+            }
+            if(scheduleMaintenance) {
+                PetMaintenanceService.schedule(getContext());
+            }
         }
 
         // Return the number of rows updated
@@ -265,28 +2019,87 @@ public class PetProvider extends ContentProvider {
      * Delete the data at the given selection and selection arguments
      */
     @Override
-    public int delete(Uri uri, String selection, String[] selectionArgs) {
+    public int delete(final Uri uri, final String selection, final String[] selectionArgs) {
+        if(sUriMatcher.match(uri) == PET_PHOTO) {
+            // Removing a photo also deletes its files, so it is never part of a group
+            return setPhoto(parsePetId(uri), null) ? 1 : 0;
+        }
+        Shelter shelter = getWriteShelter(uri);
+        if(isGroupCommitted(shelter)) {
+            return shelter.mGroupCommit.submit(new PetGroupCommit.Operation<Integer>() {
+                @Override
+                public Integer apply() {
+                    return applyDelete(uri, selection, selectionArgs);
+                }
+            });
+        }
+        return applyDelete(uri, selection, selectionArgs);
+    }
 
-        // Get writable database
-        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+    /**
+     * Delete the data at the given selection, within the current transaction if there is one
+     */
+    private int applyDelete(Uri uri, String selection, String[] selectionArgs) {
+
+        long start = mMetrics.startTimer();
 
         // Track the number of rows that were deleted
         int rowsDeleted;
 
+        // IDs of the deleted pets, null if there were too many of them to list
+        long[] ids;
+
+        // Shelters whose pets were deleted, for the maintenance
+        List<Shelter> shelters = new ArrayList<Shelter>();
+
         final int match = sUriMatcher.match(uri);
 
         switch(match) {
             case PETS:
-                // Delete all rows that match the selection and selection arguments
-                rowsDeleted = database.delete(PetEntry.TABLE_NAME, selection, selectionArgs);
+                // Mark all live rows that match the selection and selection arguments as
+                // deleted, they are hidden right away and removed later by the maintenance
+                // Their IDs are read in the same transaction, so only those pets are notified
+                // Each shelter is changed in its own transaction
+                selection = appendSelection(selection, LIVE_PETS);
+                ContentValues deleted = new ContentValues(1);
+                deleted.put(PetEntry.COLUMN_PET_DELETED, 1);
+                rowsDeleted = 0;
+                Batch changes = new Batch();
+                for(Shelter shelter : getShelters(uri)) {
+                    joinBatch(shelter);
+
+                    // Get writable database
+                    SQLiteDatabase database = shelter.mDbHelper.getWritableDatabase();
+                    database.beginTransaction();
+                    try {
+                        long[] shelterIds = queryIds(database, selection, selectionArgs);
+                        int shelterRows = database.update(PetEntry.TABLE_NAME, deleted,
+                                selection, selectionArgs);
+                        database.setTransactionSuccessful();
+                        if(shelterRows != 0) {
+                            rowsDeleted += shelterRows;
+                            changes.add(shelterIds);
+                            shelters.add(shelter);
+                        }
+                    } finally {
+                        database.endTransaction();
+                    }
+                }
+                ids = changes.getIds();
                 break;
             case PET_ID:
-                // Delete a single row gievn by the ID in the URI
-                selection = PetEntry._ID + "=?";
-                selectionArgs = new String[] {
-                        String.valueOf(ContentUris.parseId(uri))
-                };
-                rowsDeleted = database.delete(PetEntry.TABLE_NAME, selection, selectionArgs);
+                // Mark a single row gievn by the ID in the URI as deleted with the compiled
+                // statement of its shelter, there is no such pet if that shelter has no database
+                long id = ContentUris.parseId(uri);
+                Shelter shelter = findPetShelter(id);
+                if(shelter == null) {
+                    rowsDeleted = 0;
+                } else {
+                    joinBatch(shelter);
+                    rowsDeleted = shelter.mDbHelper.getStatements().deleteById(id);
+                    shelters.add(shelter);
+                }
+                ids = new long[] { id };
                 break;
             default:
                 throw new IllegalArgumentException("Deletion is not supported for " + uri);
@@ -295,14 +2108,320 @@ public class PetProvider extends ContentProvider {
         // If 1 or more rows were deleted, the notify all listeners that the data at the given
         ;// URI has changed
         if(rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            invalidateCachedPets(ids);
+            notifyPetsChanged(ids);
+
+            // Remove the deleted rows for good once the device is idle
+            boolean schedule = false;
+            for(Shelter shelter : shelters) {
+                if(shelter.mMaintenance.onPetsDeleted()) {
+                    schedule = true;
+                }
+            }
+            if(schedule) {
+                PetMaintenanceService.schedule(getContext());
+            }
         }
 
+        mMetrics.record(getMatchName(match), PetMetrics.DELETE, start, rowsDeleted);
+
         // Return the number of rows deleted
         return rowsDeleted;
 
     }
 
+    /**
+     * Open a file with the given content URI
+     * The export URI is served through a pipe, the pets are written to it by a background
+     * thread as the caller reads them
+     * The photo of a pet is read from its file, or written through a pipe into a new file
+     * that replaces the photo once the pipe is closed. The thumbnail of the photo is made on
+     * the calling thread if it is not cached yet
+     */
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+
+        final int match = sUriMatcher.match(uri);
+
+        switch(match) {
+            case PET_PHOTO:
+                long id = parsePetId(uri);
+                if(mode.startsWith("w")) {
+                    return mPhotos.openPhotoForWriting(id, mPhotoListener);
+                }
+                if(!"r".equals(mode)) {
+                    throw new FileNotFoundException("Cannot open " + uri + " in mode " + mode);
+                }
+                return ParcelFileDescriptor.open(mPhotos.getPhotoFile(queryPhoto(uri)),
+                        ParcelFileDescriptor.MODE_READ_ONLY);
+            case PET_THUMBNAIL:
+                if(!"r".equals(mode)) {
+                    throw new FileNotFoundException("Cannot open " + uri + " in mode " + mode);
+                }
+                return ParcelFileDescriptor.open(mPhotos.getThumbnailFile(queryPhoto(uri)),
+                        ParcelFileDescriptor.MODE_READ_ONLY);
+            case PETS_EXPORT:
+                if(!"r".equals(mode)) {
+                    throw new FileNotFoundException("Cannot open " + uri + " in mode " + mode);
+                }
+                // Check the parameters before the pipe is opened, so the caller gets the error
+                getExportFormat(uri);
+                getExportColumns(uri);
+                checkExportSelection(uri);
+                return openPipeHelper(uri, getType(uri), null, null, mExportWriter);
+            default:
+                return super.openFile(uri, mode);
+        }
+    }
+
+    /**
+     * Gives the photos written through openFile to their pets
+     */
+    private final PetPhotos.Listener mPhotoListener = new PetPhotos.Listener() {
+        @Override
+        public boolean onPhotoWritten(long id, String name) {
+            return setPhoto(id, name);
+        }
+    };
+
+    /**
+     * Return the _ID of the pet in the given photo or thumbnail URI
+     */
+    private static long parsePetId(Uri uri) {
+        return Long.parseLong(uri.getPathSegments().get(1));
+    }
+
+    /**
+     * Return the name of the photo of the live pet in the given photo or thumbnail URI
+     * Throw a FileNotFoundException if there is no such pet or it has no photo
+     */
+    private String queryPhoto(Uri uri) throws FileNotFoundException {
+        long id = parsePetId(uri);
+        Shelter shelter = findPetShelter(id);
+        if(shelter == null) {
+            throw new FileNotFoundException("No photo for " + uri);
+        }
+        Cursor cursor = shelter.mDbHelper.getReadableDatabase().query(PetEntry.TABLE_NAME,
+                new String[] { PetEntry.COLUMN_PET_PHOTO }, LIVE_PET_BY_ID,
+                new String[] { String.valueOf(id) }, null, null, null);
+        try {
+            if(!cursor.moveToFirst() || cursor.isNull(0)) {
+                throw new FileNotFoundException("No photo for " + uri);
+            }
+            return cursor.getString(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Give the photo with the given name to the live pet with the given ID, or remove its
+     * photo if the name is null
+     * The previous photo of the pet is deleted once the change has committed, which is when
+     * the batch commits if a batch is being applied on this thread
+     * Return false if there is no such pet
+     */
+    private boolean setPhoto(long id, String name) {
+        Shelter shelter = findPetShelter(id);
+        if(shelter == null) {
+            return false;
+        }
+        joinBatch(shelter);
+        SQLiteDatabase database = shelter.mDbHelper.getWritableDatabase();
+        String[] idArgs = { String.valueOf(id) };
+        ContentValues values = new ContentValues(1);
+        values.put(PetEntry.COLUMN_PET_PHOTO, name);
+        String previousName;
+        database.beginTransaction();
+        try {
+            Cursor cursor = database.query(PetEntry.TABLE_NAME,
+                    new String[] { PetEntry.COLUMN_PET_PHOTO }, LIVE_PET_BY_ID, idArgs,
+                    null, null, null);
+            try {
+                if(!cursor.moveToFirst()) {
+                    return false;
+                }
+                previousName = cursor.getString(0);
+            } finally {
+                cursor.close();
+            }
+            database.update(PetEntry.TABLE_NAME, values, LIVE_PET_BY_ID, idArgs);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        if(previousName != null) {
+            Batch batch = mActiveBatch.get();
+            if(batch != null) {
+                batch.mReplacedPhotos.add(previousName);
+            } else {
+                mPhotos.delete(previousName);
+            }
+        }
+        long[] ids = { id };
+        invalidateCachedPets(ids);
+        notifyPetsChanged(ids);
+        return true;
+    }
+
+    /**
+     * Writes the pets exported by an export URI to the pipe returned by openFile
+     */
+    private final PipeDataWriter<Object> mExportWriter = new PipeDataWriter<Object>() {
+        @Override
+        public void writeDataToPipe(ParcelFileDescriptor output, Uri uri, String mimeType,
+                                    Bundle opts, Object args) {
+            // The pipe is closed by openPipeHelper once this returns, so the reader sees the end
+            // of the file even if the export fails
+            FileOutputStream out = new FileOutputStream(output.getFileDescriptor());
+            try {
+                new PetExporter(getContext().getContentResolver()).export(out,
+                        getExportFormat(uri), getExportColumns(uri), getExportSelection(uri),
+                        getExportSelectionArgs(uri));
+            } catch(IOException e) {
+                // Such as when the reader closes its end of the pipe early
+                Log.w(LOG_TAG, "Export of " + uri + " stopped", e);
+            } catch(RuntimeException e) {
+                // Such as an SQLiteException, which would otherwise crash the writing thread
+                // and leave the reader waiting on the pipe
+                Log.e(LOG_TAG, "Export of " + uri + " failed", e);
+            }
+        }
+    };
+
+    /**
+     * Return the format requested by the given export URI
+     */
+    private static String getExportFormat(Uri uri) {
+        String format = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_FORMAT);
+        if(format == null || PetEntry.FORMAT_CSV.equals(format)) {
+            return PetEntry.FORMAT_CSV;
+        }
+        if(PetEntry.FORMAT_JSON.equals(format)) {
+            return PetEntry.FORMAT_JSON;
+        }
+        throw new IllegalArgumentException("Invalid " + PetEntry.QUERY_PARAMETER_FORMAT + " "
+                + format + " in " + uri);
+    }
+
+    /**
+     * Return the columns requested by the given export URI, null for all of them
+     */
+    private static String[] getExportColumns(Uri uri) {
+        String value = uri.getQueryParameter(PetEntry.QUERY_PARAMETER_COLUMNS);
+        if(value == null) {
+            return null;
+        }
+        String[] columns = value.split(",");
+        if(!isPetColumns(columns)) {
+            throw new IllegalArgumentException("Invalid " + PetEntry.QUERY_PARAMETER_COLUMNS
+                    + " " + value + " in " + uri);
+        }
+        return columns;
+    }
+
+    /**
+     * Return the selection of the pets requested by the given export URI, null for every pet
+     */
+    private static String getExportSelection(Uri uri) {
+        return uri.getQueryParameter(PetEntry.QUERY_PARAMETER_SELECTION);
+    }
+
+    /**
+     * Return the arguments of the selection of the given export URI, null if it has none
+     */
+    private static String[] getExportSelectionArgs(Uri uri) {
+        List<String> args = uri.getQueryParameters(PetEntry.QUERY_PARAMETER_SELECTION_ARG);
+        return args.isEmpty() ? null : args.toArray(new String[args.size()]);
+    }
+
+    /**
+     * Check that the selection of the given export URI and its arguments can be queried,
+     * by compiling a query of the pets that reads none of them
+     */
+    private void checkExportSelection(Uri uri) {
+        String selection = getExportSelection(uri);
+        if(selection == null) {
+            return;
+        }
+        Uri checkUri = PetEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(PetEntry.QUERY_PARAMETER_LIMIT, "0")
+                .build();
+        Cursor cursor;
+        try {
+            cursor = query(checkUri, new String[] { PetEntry._ID }, selection,
+                    getExportSelectionArgs(uri), null);
+        } catch(SQLiteException e) {
+            throw new IllegalArgumentException("Invalid " + PetEntry.QUERY_PARAMETER_SELECTION
+                    + " " + selection + " in " + uri, e);
+        }
+        cursor.close();
+    }
+
+    /**
+     * Call a provider method that is not tied to a content URI
+     */
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if(PetContract.METHOD_GET_CACHE_STATS.equals(method)) {
+            Bundle result = new Bundle();
+            result.putLong(PetContract.KEY_CACHE_HITS, mPetCache.getHitCount());
+            result.putLong(PetContract.KEY_CACHE_MISSES, mPetCache.getMissCount());
+            return result;
+        }
+        if(PetContract.METHOD_SET_METRICS_ENABLED.equals(method)) {
+            mMetrics.setEnabled(Boolean.parseBoolean(arg));
+            return null;
+        }
+        if(PetContract.METHOD_GET_METRICS.equals(method)) {
+            return mMetrics.snapshot();
+        }
+        if(PetContract.METHOD_SET_GROUP_COMMIT.equals(method)) {
+            long windowMillis = PetGroupCommit.DEFAULT_WINDOW_MILLIS;
+            int maxWrites = PetGroupCommit.DEFAULT_MAX_WRITES;
+            if(extras != null) {
+                windowMillis = extras.getLong(PetContract.KEY_GROUP_COMMIT_WINDOW_MILLIS,
+                        windowMillis);
+                maxWrites = extras.getInt(PetContract.KEY_GROUP_COMMIT_MAX_WRITES, maxWrites);
+            }
+            // The settings also apply to the shelters created later
+            synchronized(mShelters) {
+                mGroupCommitEnabled = Boolean.parseBoolean(arg);
+                mGroupCommitWindowMillis = windowMillis;
+                mGroupCommitMaxWrites = maxWrites;
+                for(Shelter shelter : mShelters.values()) {
+                    shelter.mGroupCommit.setEnabled(mGroupCommitEnabled, windowMillis, maxWrites);
+                }
+            }
+            return null;
+        }
+        if(PetContract.METHOD_GET_STARTUP_MARKS.equals(method)) {
+            return PetStartup.getMarks();
+        }
+        if(PetContract.METHOD_RUN_MAINTENANCE_STEP.equals(method)) {
+            // The shelters in the middle of a pass take their next step, or every shelter
+            // starts a new pass if none is running
+            List<Shelter> shelters = getShelters();
+            List<Shelter> running = new ArrayList<Shelter>();
+            for(Shelter shelter : shelters) {
+                if(shelter.mMaintenance.isRunning()) {
+                    running.add(shelter);
+                }
+            }
+            boolean pending = false;
+            for(Shelter shelter : running.isEmpty() ? shelters : running) {
+                if(shelter.mMaintenance.runStep()) {
+                    pending = true;
+                }
+            }
+            Bundle result = new Bundle();
+            result.putBoolean(PetContract.KEY_MAINTENANCE_PENDING, pending);
+            return result;
+        }
+        return super.call(method, arg, extras);
+    }
+
     /**
      * Return the MIME type of data for the content URI
      */
@@ -316,6 +2435,22 @@ public class PetProvider extends ContentProvider {
                 return PetEntry.CONTENT_LIST_TYPE;
             case PET_ID:
                 return PetEntry.CONTENT_ITEM_TYPE;
+            case PET_SEARCH:
+                return PetEntry.CONTENT_LIST_TYPE;
+            case PETS_STATS:
+            case PETS_STATS_GENDER:
+            case PETS_STATS_BREED:
+                return PetStatsEntry.CONTENT_LIST_TYPE;
+            case PETS_EXPORT:
+                return PetEntry.FORMAT_JSON.equals(getExportFormat(uri))
+                        ? PetEntry.JSON_TYPE : PetEntry.CSV_TYPE;
+            case PET_PHOTO:
+                // Photos are stored as they were written, in any image format
+                return null;
+            case PET_THUMBNAIL:
+                return PetEntry.THUMBNAIL_TYPE;
+            case PETS_CHANGES:
+                return PetChangeEntry.CONTENT_LIST_TYPE;
             default:
                 throw new IllegalArgumentException("Unknown URI " + uri + " with match " + match);
         }
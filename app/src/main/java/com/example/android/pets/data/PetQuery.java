@@ -0,0 +1,477 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Filters, sort order and limit of a query of the pets, built with PetQuery.Builder
+ *
+ * The filters are compiled to a parameterized selection that PetProvider serves from the
+ * indexes of the pets table, and the sort order and limit go into the content URI, so the
+ * provider can page through the pets in that order
+ * For example, the female pets of 10 kg or more sorted by name:
+ *
+ *     PetQuery query = new PetQuery.Builder()
+ *             .setGender(PetEntry.GENDER_FEMALE)
+ *             .setMinWeight(10)
+ *             .addSortKey(PetEntry.COLUMN_PET_NAME, false)
+ *             .build();
+ *     resolver.query(query.getUri(), projection, query.getSelection(),
+ *             query.getSelectionArgs(), null);
+ */
+public final class PetQuery {
+
+    /* Character sorting after any other one, bounds the names starting with a prefix */
+    private static final String MAX_CHARACTER =
+            new String(Character.toChars(Character.MAX_CODE_POINT));
+
+    /* Keys of the query in a Bundle */
+    private static final String KEY_GENDER = "gender";
+    private static final String KEY_MIN_WEIGHT = "min_weight";
+    private static final String KEY_MAX_WEIGHT = "max_weight";
+    private static final String KEY_BREED = "breed";
+    private static final String KEY_NAME_PREFIX = "name_prefix";
+    private static final String KEY_SORT = "sort";
+    private static final String KEY_LIMIT = "limit";
+
+    /* Filters of the query, null when they are not set */
+    private final Integer mGender;
+    private final Integer mMinWeight;
+    private final Integer mMaxWeight;
+    private final String mBreed;
+    private final String mNamePrefix;
+
+    /* Value of QUERY_PARAMETER_SORT, null for the _ID order */
+    private final String mSort;
+
+    /* Maximum number of pets returned, 0 for no limit */
+    private final int mLimit;
+
+    /* Compiled selection and its arguments, null if there is no filter */
+    private final String mSelection;
+    private final String[] mSelectionArgs;
+
+    private PetQuery(Builder builder) {
+        mGender = builder.mGender;
+        mMinWeight = builder.mMinWeight;
+        mMaxWeight = builder.mMaxWeight;
+        mBreed = builder.mBreed;
+        mNamePrefix = builder.mNamePrefix;
+        mSort = builder.mSort.length() == 0 ? null : builder.mSort.toString();
+        mLimit = builder.mLimit;
+
+        StringBuilder selection = new StringBuilder();
+        List<String> args = new ArrayList<String>();
+        if(mGender != null) {
+            appendCondition(selection, PetEntry.COLUMN_PET_GENDER + "=?");
+            args.add(String.valueOf(mGender));
+        }
+        if(mMinWeight != null) {
+            appendCondition(selection, PetEntry.COLUMN_PET_WEIGHT + ">=?");
+            args.add(String.valueOf(mMinWeight));
+        }
+        if(mMaxWeight != null) {
+            appendCondition(selection, PetEntry.COLUMN_PET_WEIGHT + "<=?");
+            args.add(String.valueOf(mMaxWeight));
+        }
+        if(mBreed != null) {
+            appendCondition(selection, PetEntry.COLUMN_PET_BREED + "=?");
+            args.add(mBreed);
+        }
+        if(mNamePrefix != null) {
+            // A range rather than LIKE, so the case-insensitive index on the names is used
+            appendCondition(selection, PetEntry.COLUMN_PET_NAME + " COLLATE NOCASE>=? AND "
+                    + PetEntry.COLUMN_PET_NAME + " COLLATE NOCASE<?");
+            args.add(mNamePrefix);
+            args.add(mNamePrefix + MAX_CHARACTER);
+        }
+        mSelection = selection.length() == 0 ? null : selection.toString();
+        mSelectionArgs = args.isEmpty() ? null : args.toArray(new String[args.size()]);
+    }
+
+    private static void appendCondition(StringBuilder selection, String condition) {
+        if(selection.length() != 0) {
+            selection.append(" AND ");
+        }
+        selection.append(condition);
+    }
+
+    /**
+     * Return the content URI to query, with the sort order and limit of the query
+     */
+    public Uri getUri() {
+        return buildUri(null, null, null, null, mLimit);
+    }
+
+    /**
+     * Return the content URI for a page of at most limit pets that follow the pet with the
+     * given afterId in the sort order of the query (use 0 for the first page)
+     */
+    public Uri buildPageUri(long afterId, int limit) {
+        return buildUri(afterId, null, null, null, limit);
+    }
+
+    /**
+     * Return the content URI for a page of at most limit pets that follow the pet with the
+     * given afterId, whose values of getSortColumns() are afterValues
+     * The page keeps its place once that pet is deleted, since it is never read
+     */
+    public Uri buildPageUri(long afterId, String[] afterValues, int limit) {
+        return buildUri(afterId, afterValues, null, null, limit);
+    }
+
+    /**
+     * Return the content URI for a page of at most limit pets that follow the pet with the
+     * given afterId, up to the pet with the given untilId included
+     * The values of getSortColumns() of both pets may be null, they are then read from the pets
+     */
+    public Uri buildPageUri(long afterId, String[] afterValues, long untilId,
+                            String[] untilValues, int limit) {
+        return buildUri(afterId, afterValues, untilId, untilValues, limit);
+    }
+
+    private Uri buildUri(Long afterId, String[] afterValues, Long untilId, String[] untilValues,
+                         int limit) {
+        Uri.Builder builder = PetEntry.CONTENT_URI.buildUpon();
+        if(mSort != null) {
+            builder.appendQueryParameter(PetEntry.QUERY_PARAMETER_SORT, mSort);
+        }
+        if(afterId != null) {
+            builder.appendQueryParameter(PetEntry.QUERY_PARAMETER_AFTER_ID,
+                    String.valueOf(afterId));
+            appendSortValues(builder, PetEntry.QUERY_PARAMETER_AFTER_VALUE, afterValues);
+        }
+        if(untilId != null) {
+            builder.appendQueryParameter(PetEntry.QUERY_PARAMETER_UNTIL_ID,
+                    String.valueOf(untilId));
+            appendSortValues(builder, PetEntry.QUERY_PARAMETER_UNTIL_VALUE, untilValues);
+        }
+        if(limit != 0) {
+            builder.appendQueryParameter(PetEntry.QUERY_PARAMETER_LIMIT, String.valueOf(limit));
+        }
+        return builder.build();
+    }
+
+    private void appendSortValues(Uri.Builder builder, String parameter, String[] values) {
+        if(values == null) {
+            return;
+        }
+        if(values.length != getSortColumns().length) {
+            throw new IllegalArgumentException("Expected " + getSortColumns().length
+                    + " sort values, got " + values.length);
+        }
+        for(String value : values) {
+            builder.appendQueryParameter(parameter, value);
+        }
+    }
+
+    /**
+     * Return the columns the pets are sorted by before their _ID, empty for the _ID order
+     */
+    public String[] getSortColumns() {
+        List<String> columns = new ArrayList<String>();
+        if(mSort != null) {
+            for(String key : mSort.split(",")) {
+                String column = key.startsWith("-") ? key.substring(1) : key;
+                // The pets are never compared past their _ID
+                if(PetEntry._ID.equals(column)) {
+                    break;
+                }
+                columns.add(column);
+            }
+        }
+        return columns.toArray(new String[columns.size()]);
+    }
+
+    /**
+     * Return the given projection, followed by the columns of getSortColumns() it lacks
+     * The pages of the query are queried with it, so readSortValues() can read their rows
+     */
+    public String[] addSortColumns(String[] projection) {
+        List<String> columns = new ArrayList<String>(Arrays.asList(projection));
+        for(String column : getSortColumns()) {
+            if(!columns.contains(column)) {
+                columns.add(column);
+            }
+        }
+        return columns.size() == projection.length
+                ? projection : columns.toArray(new String[columns.size()]);
+    }
+
+    /**
+     * Return the values of getSortColumns() in the current row of the given cursor, which
+     * must have these columns
+     * Together with its _ID, they are where a page after that row starts
+     */
+    public String[] readSortValues(Cursor cursor) {
+        String[] columns = getSortColumns();
+        String[] values = new String[columns.length];
+        for(int i = 0; i < columns.length; i++) {
+            values[i] = cursor.getString(cursor.getColumnIndexOrThrow(columns[i]));
+        }
+        return values;
+    }
+
+    /**
+     * Return the selection of the filters of the query, null if it has none
+     */
+    public String getSelection() {
+        return mSelection;
+    }
+
+    /**
+     * Return the arguments of the selection, null if it has none
+     * The array must not be modified
+     */
+    public String[] getSelectionArgs() {
+        return mSelectionArgs;
+    }
+
+    /* Filters of the query, null when they are not set */
+
+    public Integer getGender() {
+        return mGender;
+    }
+
+    public Integer getMinWeight() {
+        return mMinWeight;
+    }
+
+    public Integer getMaxWeight() {
+        return mMaxWeight;
+    }
+
+    public String getBreed() {
+        return mBreed;
+    }
+
+    public String getNamePrefix() {
+        return mNamePrefix;
+    }
+
+    /**
+     * Return the value of QUERY_PARAMETER_SORT for this query, null for the _ID order
+     */
+    public String getSort() {
+        return mSort;
+    }
+
+    /**
+     * Return whether the query has any filter, otherwise it selects every pet
+     */
+    public boolean hasFilters() {
+        return mSelection != null;
+    }
+
+    /**
+     * Return a builder that starts from the filters, sort order and limit of this query
+     */
+    public Builder buildUpon() {
+        Builder builder = new Builder();
+        builder.mGender = mGender;
+        builder.mMinWeight = mMinWeight;
+        builder.mMaxWeight = mMaxWeight;
+        builder.mBreed = mBreed;
+        builder.mNamePrefix = mNamePrefix;
+        if(mSort != null) {
+            builder.mSort.append(mSort);
+        }
+        builder.mLimit = mLimit;
+        return builder;
+    }
+
+    /**
+     * Return the query as a Bundle, such as to save it in the instance state of an activity
+     */
+    public Bundle toBundle() {
+        Bundle bundle = new Bundle();
+        putInteger(bundle, KEY_GENDER, mGender);
+        putInteger(bundle, KEY_MIN_WEIGHT, mMinWeight);
+        putInteger(bundle, KEY_MAX_WEIGHT, mMaxWeight);
+        bundle.putString(KEY_BREED, mBreed);
+        bundle.putString(KEY_NAME_PREFIX, mNamePrefix);
+        bundle.putString(KEY_SORT, mSort);
+        bundle.putInt(KEY_LIMIT, mLimit);
+        return bundle;
+    }
+
+    /**
+     * Return the query saved in the given Bundle by toBundle()
+     */
+    public static PetQuery fromBundle(Bundle bundle) {
+        Builder builder = new Builder();
+        builder.mGender = getInteger(bundle, KEY_GENDER);
+        builder.mMinWeight = getInteger(bundle, KEY_MIN_WEIGHT);
+        builder.mMaxWeight = getInteger(bundle, KEY_MAX_WEIGHT);
+        builder.mBreed = bundle.getString(KEY_BREED);
+        builder.mNamePrefix = bundle.getString(KEY_NAME_PREFIX);
+        String sort = bundle.getString(KEY_SORT);
+        if(sort != null) {
+            builder.mSort.append(sort);
+        }
+        builder.setLimit(bundle.getInt(KEY_LIMIT));
+        return builder.build();
+    }
+
+    private static void putInteger(Bundle bundle, String key, Integer value) {
+        if(value != null) {
+            bundle.putInt(key, value);
+        }
+    }
+
+    private static Integer getInteger(Bundle bundle, String key) {
+        return bundle.containsKey(key) ? bundle.getInt(key) : null;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if(this == o) {
+            return true;
+        }
+        if(!(o instanceof PetQuery)) {
+            return false;
+        }
+        PetQuery query = (PetQuery) o;
+        return mLimit == query.mLimit
+                && equal(mSelection, query.mSelection)
+                && Arrays.equals(mSelectionArgs, query.mSelectionArgs)
+                && equal(mSort, query.mSort);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(new Object[] { mSelection, Arrays.hashCode(mSelectionArgs), mSort,
+                mLimit });
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * Builds a PetQuery, every filter is optional
+     * Without any sort key, the pets are returned in _ID order
+     */
+    public static final class Builder {
+
+        private Integer mGender;
+        private Integer mMinWeight;
+        private Integer mMaxWeight;
+        private String mBreed;
+        private String mNamePrefix;
+        private final StringBuilder mSort = new StringBuilder();
+        private int mLimit;
+
+        /**
+         * Only select the pets of the given gender, GENDER_UNKNOWN, GENDER_MALE or GENDER_FEMALE
+         */
+        public Builder setGender(int gender) {
+            if(!PetEntry.isValidGender(gender)) {
+                throw new IllegalArgumentException("Invalid gender " + gender);
+            }
+            mGender = gender;
+            return this;
+        }
+
+        /**
+         * Only select the pets weighing at least the given weight
+         */
+        public Builder setMinWeight(int weight) {
+            mMinWeight = checkWeight(weight);
+            return this;
+        }
+
+        /**
+         * Only select the pets weighing at most the given weight
+         */
+        public Builder setMaxWeight(int weight) {
+            mMaxWeight = checkWeight(weight);
+            return this;
+        }
+
+        private static int checkWeight(int weight) {
+            if(weight < 0) {
+                throw new IllegalArgumentException("Invalid weight " + weight);
+            }
+            return weight;
+        }
+
+        /**
+         * Only select the pets of the given breed, compared exactly
+         */
+        public Builder setBreed(String breed) {
+            mBreed = breed;
+            return this;
+        }
+
+        /**
+         * Only select the pets whose name starts with the given prefix, ignoring the case of
+         * ASCII letters
+         */
+        public Builder setNamePrefix(String prefix) {
+            mNamePrefix = prefix == null || prefix.length() == 0 ? null : prefix;
+            return this;
+        }
+
+        /**
+         * Sort the pets by the given column, after the sort keys added before it
+         * @param column _ID, COLUMN_PET_NAME or COLUMN_PET_WEIGHT
+         */
+        public Builder addSortKey(String column, boolean descending) {
+            if(!PetEntry._ID.equals(column) && !PetEntry.COLUMN_PET_NAME.equals(column)
+                    && !PetEntry.COLUMN_PET_WEIGHT.equals(column)) {
+                throw new IllegalArgumentException("Cannot sort by " + column);
+            }
+            if(mSort.length() != 0) {
+                mSort.append(',');
+            }
+            if(descending) {
+                mSort.append('-');
+            }
+            mSort.append(column);
+            return this;
+        }
+
+        /**
+         * Remove every filter
+         */
+        public Builder clearFilters() {
+            mGender = null;
+            mMinWeight = null;
+            mMaxWeight = null;
+            mBreed = null;
+            mNamePrefix = null;
+            return this;
+        }
+
+        /**
+         * Remove every sort key, back to the _ID order
+         */
+        public Builder clearSortKeys() {
+            mSort.setLength(0);
+            return this;
+        }
+
+        /**
+         * Return at most the given number of pets, 0 for no limit
+         */
+        public Builder setLimit(int limit) {
+            if(limit < 0) {
+                throw new IllegalArgumentException("Invalid limit " + limit);
+            }
+            mLimit = limit;
+            return this;
+        }
+
+        public PetQuery build() {
+            return new PetQuery(this);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.example.android.pets.data;
+
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+/**
+ * Reads the rows of a cursor of pets, either into a Pet or by copying the text attributes
+ * into buffers without creating any object
+ *
+ * A reader is made for the columns a screen displays, and the screen queries the pets with
+ * getProjection(). The column indices are found once per cursor, the columns missing from
+ * the cursor read as -1 for the _ID, null for the text and photo, GENDER_UNKNOWN and 0 for the
+ * weight
+ * A reader is not thread-safe, each thread uses its own
+ */
+public final class PetReader {
+
+    /* Columns displayed by the list of pets */
+    public static final String[] LIST_COLUMNS = {
+            PetEntry._ID,
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_PHOTO };
+
+    /* Columns edited by the editor, which already knows the _ID from the content URI */
+    public static final String[] EDITOR_COLUMNS = {
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_GENDER,
+            PetEntry.COLUMN_PET_WEIGHT,
+            PetEntry.COLUMN_PET_PHOTO };
+
+    /* _ID read when the cursor has no _ID column */
+    public static final long NO_ID = -1;
+
+    private final String[] mProjection;
+
+    /* Cursor the column indices were found for */
+    private Cursor mCursor;
+
+    /* Index of each column in mCursor, -1 if it is missing */
+    private int mIdIndex;
+    private int mNameIndex;
+    private int mBreedIndex;
+    private int mGenderIndex;
+    private int mWeightIndex;
+    private int mPhotoIndex;
+
+    /**
+     * Construct a reader for the given columns of the pets table
+     */
+    public PetReader(String[] projection) {
+        mProjection = projection;
+    }
+
+    /**
+     * Return the columns to query for this reader, the array must not be modified
+     */
+    public String[] getProjection() {
+        return mProjection;
+    }
+
+    /**
+     * Return the pet at the current position of the given cursor
+     */
+    public Pet read(Cursor cursor) {
+        bind(cursor);
+        return new Pet(
+                mIdIndex == -1 ? NO_ID : cursor.getLong(mIdIndex),
+                mNameIndex == -1 ? null : cursor.getString(mNameIndex),
+                mBreedIndex == -1 ? null : cursor.getString(mBreedIndex),
+                mGenderIndex == -1 ? PetEntry.GENDER_UNKNOWN : cursor.getInt(mGenderIndex),
+                mWeightIndex == -1 ? 0 : cursor.getInt(mWeightIndex),
+                mPhotoIndex == -1 ? null : cursor.getString(mPhotoIndex));
+    }
+
+    /**
+     * Return the _ID of the pet at the current position of the given cursor
+     */
+    public long readId(Cursor cursor) {
+        bind(cursor);
+        return mIdIndex == -1 ? NO_ID : cursor.getLong(mIdIndex);
+    }
+
+    /**
+     * Return the name of the photo of the pet at the current position of the given cursor,
+     * null if it has no photo
+     */
+    public String readPhoto(Cursor cursor) {
+        bind(cursor);
+        return mPhotoIndex == -1 ? null : cursor.getString(mPhotoIndex);
+    }
+
+    /**
+     * Copy the name of the pet at the current position of the given cursor into the buffer
+     */
+    public void copyName(Cursor cursor, CharArrayBuffer buffer) {
+        bind(cursor);
+        copyText(cursor, mNameIndex, buffer);
+    }
+
+    /**
+     * Copy the breed of the pet at the current position of the given cursor into the buffer
+     */
+    public void copyBreed(Cursor cursor, CharArrayBuffer buffer) {
+        bind(cursor);
+        copyText(cursor, mBreedIndex, buffer);
+    }
+
+    /**
+     * Copy the name of the photo of the pet at the current position of the given cursor into
+     * the buffer, nothing is copied if it has no photo
+     */
+    public void copyPhoto(Cursor cursor, CharArrayBuffer buffer) {
+        bind(cursor);
+        copyText(cursor, mPhotoIndex, buffer);
+    }
+
+    /**
+     * Find the columns of the given cursor, unless they were found for it already
+     */
+    private void bind(Cursor cursor) {
+        if(cursor == mCursor) {
+            return;
+        }
+        mCursor = cursor;
+        mIdIndex = cursor.getColumnIndex(PetEntry._ID);
+        mNameIndex = cursor.getColumnIndex(PetEntry.COLUMN_PET_NAME);
+        mBreedIndex = cursor.getColumnIndex(PetEntry.COLUMN_PET_BREED);
+        mGenderIndex = cursor.getColumnIndex(PetEntry.COLUMN_PET_GENDER);
+        mWeightIndex = cursor.getColumnIndex(PetEntry.COLUMN_PET_WEIGHT);
+        mPhotoIndex = cursor.getColumnIndex(PetEntry.COLUMN_PET_PHOTO);
+    }
+
+    private static void copyText(Cursor cursor, int index, CharArrayBuffer buffer) {
+        if(index == -1) {
+            buffer.sizeCopied = 0;
+        } else {
+            cursor.copyStringToBuffer(index, buffer);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.example.android.pets.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * File holding the first page of the catalog as it was after the last change to the pets,
+ * so the catalog can draw it on launch before the database is even opened
+ *
+ * PetProvider writes the file in the background after every committed change, and the catalog
+ * maps it into memory and shows its rows until the first page is loaded from the provider
+ * The file is small and compact: after a header, each row holds the _ID followed by the name,
+ * breed and photo of the pet, each string being its length in UTF-8 bytes, or -1 for null,
+ * then those bytes. A new file is written next to the old one and renamed over it, so a file
+ * that is being read is never changed
+ */
+public final class PetSnapshot {
+
+    /* Tag for the log messages */
+    private static final String LOG_TAG = PetSnapshot.class.getSimpleName();
+
+    /* Name of the file, in the private files of the app */
+    private static final String FILE_NAME = "catalog_snapshot";
+
+    /* Suffix of the file that is still being written */
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    /* First bytes of the file, "PETS" */
+    private static final int MAGIC = 0x50455453;
+
+    /* Version of the layout of the file, the files of other versions are ignored */
+    private static final int FORMAT_VERSION = 1;
+
+    /* Length written for a null string */
+    private static final int NULL_LENGTH = -1;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private PetSnapshot() {
+    }
+
+    /**
+     * Return the rows of the snapshot as a cursor with the columns of PetReader.LIST_COLUMNS,
+     * or null if there is no snapshot or it cannot be read
+     * The file is only a few KiB and mapped into memory, so it can be read on the main thread
+     */
+    public static Cursor read(Context context) {
+        File file = getFile(context);
+        if(!file.isFile()) {
+            return null;
+        }
+        try {
+            RandomAccessFile input = new RandomAccessFile(file, "r");
+            try {
+                ByteBuffer buffer = input.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+                        input.length());
+                if(buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+                    return null;
+                }
+                int count = buffer.getInt();
+                if(count < 0 || count > PetEntry.CATALOG_PAGE_SIZE) {
+                    throw new IOException("Invalid number of rows " + count);
+                }
+                MatrixCursor cursor = new MatrixCursor(PetReader.LIST_COLUMNS, count);
+                for(int i = 0; i < count; i++) {
+                    long id = buffer.getLong();
+                    String name = readString(buffer);
+                    String breed = readString(buffer);
+                    String photo = readString(buffer);
+                    cursor.addRow(new Object[] { id, name, breed, photo });
+                }
+                return cursor;
+            } finally {
+                input.close();
+            }
+        } catch(IOException e) {
+            Log.w(LOG_TAG, "Failed to read " + file, e);
+            return null;
+        } catch(RuntimeException e) {
+            // Such as a truncated file running past the end of the buffer
+            Log.w(LOG_TAG, "Corrupt snapshot " + file, e);
+            return null;
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) throws IOException {
+        int length = buffer.getInt();
+        if(length == NULL_LENGTH) {
+            return null;
+        }
+        if(length < 0 || length > buffer.remaining()) {
+            throw new IOException("Invalid string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * Return whether a snapshot was written
+     */
+    static boolean exists(Context context) {
+        return getFile(context).isFile();
+    }
+
+    /**
+     * Replace the snapshot with the rows of the given cursor of the first page of the catalog,
+     * which has the columns of PetReader.LIST_COLUMNS
+     * The cursor is moved back before its first row afterwards
+     */
+    static void write(Context context, Cursor cursor) throws IOException {
+        File file = getFile(context);
+        File temporary = new File(file.getPath() + TEMPORARY_SUFFIX);
+        int count = Math.min(cursor.getCount(), PetEntry.CATALOG_PAGE_SIZE);
+        try {
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(temporary)));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(count);
+                int idIndex = cursor.getColumnIndexOrThrow(PetEntry._ID);
+                int nameIndex = cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_NAME);
+                int breedIndex = cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_BREED);
+                int photoIndex = cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_PHOTO);
+                for(int position = 0; position < count && cursor.moveToPosition(position);
+                        position++) {
+                    out.writeLong(cursor.getLong(idIndex));
+                    writeString(out, cursor.getString(nameIndex));
+                    writeString(out, cursor.getString(breedIndex));
+                    writeString(out, cursor.getString(photoIndex));
+                }
+            } finally {
+                out.close();
+                cursor.moveToPosition(-1);
+            }
+            if(!temporary.renameTo(file)) {
+                throw new IOException("Cannot rename " + temporary);
+            }
+        } finally {
+            temporary.delete();
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if(value == null) {
+            out.writeInt(NULL_LENGTH);
+            return;
+        }
+        byte[] bytes = value.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static File getFile(Context context) {
+        return new File(context.getFilesDir(), FILE_NAME);
+    }
+}
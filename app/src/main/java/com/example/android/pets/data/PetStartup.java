@@ -0,0 +1,89 @@
+package com.example.android.pets.data;
+
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Markers of a cold start, the time at which each step was first reached since the process
+ * started, from the creation of PetProvider to the first pets shown by the catalog
+ *
+ * Each marker is only recorded once per process and logged as it is reached, so the time
+ * to the first row can be read from the log or through PetContract.METHOD_GET_STARTUP_MARKS
+ */
+public final class PetStartup {
+
+    /* Tag for the log messages */
+    private static final String LOG_TAG = PetStartup.class.getSimpleName();
+
+    /* PetProvider was created, the first step of the process that touches the pets */
+    public static final String MARK_PROVIDER_CREATED = "provider_created";
+
+    /* The database was opened, created or migrated by the warm-up of PetProvider */
+    public static final String MARK_DATABASE_OPENED = "database_opened";
+
+    /* The compiled statements of PetProvider were prepared by the warm-up */
+    public static final String MARK_STATEMENTS_PREPARED = "statements_prepared";
+
+    /* The first page of the catalog was read by the warm-up */
+    public static final String MARK_FIRST_PAGE_READ = "first_page_read";
+
+    /* CatalogActivity was created */
+    public static final String MARK_CATALOG_CREATED = "catalog_created";
+
+    /* CatalogActivity is about to draw its first rows of pets */
+    public static final String MARK_FIRST_ROWS_DRAWN = "first_rows_drawn";
+
+    /* Elapsed realtime of the start of the process, in milliseconds */
+    private static final long sStartMillis = getProcessStartMillis();
+
+    /* Time of each marker reached so far since the start of the process, in milliseconds */
+    private static final LinkedHashMap<String, Long> sMarks = new LinkedHashMap<String, Long>();
+
+    private PetStartup() {
+    }
+
+    /**
+     * Record the given marker, unless it was already reached in this process
+     */
+    public static void mark(String name) {
+        long millis = SystemClock.elapsedRealtime() - sStartMillis;
+        synchronized(sMarks) {
+            if(sMarks.containsKey(name)) {
+                return;
+            }
+            sMarks.put(name, millis);
+        }
+        Log.i(LOG_TAG, name + " at " + millis + " ms");
+    }
+
+    /**
+     * Return the time of each marker reached so far, in milliseconds since the process started
+     */
+    static Bundle getMarks() {
+        Bundle result = new Bundle();
+        synchronized(sMarks) {
+            for(Map.Entry<String, Long> entry : sMarks.entrySet()) {
+                result.putLong(entry.getKey(), entry.getValue());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Return the elapsed realtime at which the process started
+     * Before Android N, the time this class is loaded stands for it, which happens when
+     * PetProvider is created, before the application and its activities
+     */
+    private static long getProcessStartMillis() {
+        if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            return Process.getStartElapsedRealtime();
+        }
+        return SystemClock.elapsedRealtime();
+    }
+}
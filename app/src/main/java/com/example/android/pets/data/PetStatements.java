@@ -0,0 +1,193 @@
+package com.example.android.pets.data;
+
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.util.ArrayDeque;
+
+/**
+ * Cache of the compiled statements used on the hot paths of PetProvider
+ * Each statement is compiled once and then only rebound with the values of the next pet,
+ * instead of building the SQL and its arguments from ContentValues on every call
+ *
+ * Statements are kept in small pools rather than behind a lock, so a thread waiting for the
+ * database never holds up another thread that is inside a transaction
+ */
+final class PetStatements {
+
+    /* SQL statement that inserts a full pet row */
+    private static final String SQL_INSERT = "INSERT INTO " + PetEntry.TABLE_NAME + " ("
+            + PetEntry.COLUMN_PET_NAME + ", "
+            + PetEntry.COLUMN_PET_BREED + ", "
+            + PetEntry.COLUMN_PET_GENDER + ", "
+            + PetEntry.COLUMN_PET_WEIGHT + ") VALUES (?, ?, ?, ?)";
+
+    /* SQL statement that updates every column of the live pet with the given _ID */
+    private static final String SQL_UPDATE_BY_ID = "UPDATE " + PetEntry.TABLE_NAME + " SET "
+            + PetEntry.COLUMN_PET_NAME + "=?, "
+            + PetEntry.COLUMN_PET_BREED + "=?, "
+            + PetEntry.COLUMN_PET_GENDER + "=?, "
+            + PetEntry.COLUMN_PET_WEIGHT + "=? WHERE " + PetEntry._ID + "=? AND "
+            + PetEntry.COLUMN_PET_DELETED + "=0";
+
+    /* SQL statement that marks the live pet with the given _ID as deleted */
+    private static final String SQL_DELETE_BY_ID = "UPDATE " + PetEntry.TABLE_NAME + " SET "
+            + PetEntry.COLUMN_PET_DELETED + "=1 WHERE " + PetEntry._ID + "=? AND "
+            + PetEntry.COLUMN_PET_DELETED + "=0";
+
+    /* Maximum number of idle compiled statements kept for each SQL statement */
+    private static final int MAX_IDLE_STATEMENTS = 4;
+
+    /* Database helper that the statements are compiled against */
+    private final PetDbHelper mDbHelper;
+
+    /* Pools of compiled statements, one for each SQL statement */
+    private final Pool mInsertPool = new Pool(SQL_INSERT);
+    private final Pool mUpdateByIdPool = new Pool(SQL_UPDATE_BY_ID);
+    private final Pool mDeleteByIdPool = new Pool(SQL_DELETE_BY_ID);
+
+    /* Incremented every time the cache is cleared, statements from older generations are dropped */
+    private volatile int mGeneration;
+
+    PetStatements(PetDbHelper dbHelper) {
+        mDbHelper = dbHelper;
+    }
+
+    /**
+     * Insert a pet with the given values
+     * Return the _ID of the new row, or -1 if it could not be inserted
+     */
+    long insert(String name, String breed, int gender, int weight) {
+        int generation = mGeneration;
+        SQLiteStatement statement = mInsertPool.acquire();
+        try {
+            bindPet(statement, name, breed, gender, weight);
+            return statement.executeInsert();
+        } finally {
+            mInsertPool.release(statement, generation);
+        }
+    }
+
+    /**
+     * Replace every column of the pet with the given _ID, unless it was deleted
+     * Return the number of rows updated
+     */
+    int updateById(long id, String name, String breed, int gender, int weight) {
+        int generation = mGeneration;
+        SQLiteStatement statement = mUpdateByIdPool.acquire();
+        try {
+            bindPet(statement, name, breed, gender, weight);
+            statement.bindLong(5, id);
+            return statement.executeUpdateDelete();
+        } finally {
+            mUpdateByIdPool.release(statement, generation);
+        }
+    }
+
+    /**
+     * Mark the pet with the given _ID as deleted, the row is purged later by PetMaintenance
+     * Return the number of rows deleted
+     */
+    int deleteById(long id) {
+        int generation = mGeneration;
+        SQLiteStatement statement = mDeleteByIdPool.acquire();
+        try {
+            statement.bindLong(1, id);
+            return statement.executeUpdateDelete();
+        } finally {
+            mDeleteByIdPool.release(statement, generation);
+        }
+    }
+
+    /**
+     * Compile one statement of each kind ahead of their first use, such as at startup
+     */
+    void prepare() {
+        int generation = mGeneration;
+        mInsertPool.release(mInsertPool.acquire(), generation);
+        mUpdateByIdPool.release(mUpdateByIdPool.acquire(), generation);
+        mDeleteByIdPool.release(mDeleteByIdPool.acquire(), generation);
+    }
+
+    /**
+     * Close every idle statement and drop the ones in use once they are released
+     * Called when the schema changes or when the database is closed
+     */
+    void clear() {
+        mGeneration++;
+        mInsertPool.clear();
+        mUpdateByIdPool.clear();
+        mDeleteByIdPool.clear();
+    }
+
+    /**
+     * Bind the values of a pet to the first four arguments of the given statement
+     */
+    private static void bindPet(SQLiteStatement statement, String name, String breed,
+                                int gender, int weight) {
+        statement.bindString(1, name);
+        if(breed == null) {
+            statement.bindNull(2);
+        } else {
+            statement.bindString(2, breed);
+        }
+        statement.bindLong(3, gender);
+        statement.bindLong(4, weight);
+    }
+
+    /**
+     * Pool of compiled statements for a single SQL statement
+     */
+    private final class Pool {
+
+        /* SQL statement compiled by this pool */
+        private final String mSql;
+
+        /* Compiled statements that are not in use */
+        private final ArrayDeque<SQLiteStatement> mIdle = new ArrayDeque<SQLiteStatement>();
+
+        Pool(String sql) {
+            mSql = sql;
+        }
+
+        /**
+         * Return an idle compiled statement, or compile a new one if there is none
+         */
+        SQLiteStatement acquire() {
+            SQLiteStatement statement;
+            synchronized(this) {
+                statement = mIdle.poll();
+            }
+            if(statement == null) {
+                statement = mDbHelper.getWritableDatabase().compileStatement(mSql);
+            }
+            return statement;
+        }
+
+        /**
+         * Give back a statement that was acquired during the given generation
+         * It is closed instead if the cache was cleared since then or if the pool is full
+         */
+        void release(SQLiteStatement statement, int generation) {
+            statement.clearBindings();
+            synchronized(this) {
+                if(generation == mGeneration && mIdle.size() < MAX_IDLE_STATEMENTS) {
+                    mIdle.push(statement);
+                    return;
+                }
+            }
+            statement.close();
+        }
+
+        /**
+         * Close every idle statement
+         */
+        synchronized void clear() {
+            SQLiteStatement statement;
+            while((statement = mIdle.poll()) != null) {
+                statement.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Writes pets to PetProvider on a background thread, so that saving or deleting a pet
+ * never blocks the UI thread
+ *
+ * The writes run one at a time in the order they were queued, so the writes of a pet are
+ * applied in order. An update of a pet that is still waiting in the queue is merged into
+ * the pending one instead of being queued again
+ * A write may also replace the photo of the pet with an image the user picked, which is
+ * copied to the provider once the pet is written
+ * The callbacks are run on the main thread once the write is done
+ */
+public final class PetWriteQueue {
+
+    /* Tag for the log messages */
+    private static final String LOG_TAG = PetWriteQueue.class.getSimpleName();
+
+    /* Size of the buffer the photos are copied through */
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    /**
+     * Receives the result of a queued write, on the main thread
+     */
+    public interface Callback {
+
+        /**
+         * @param success Whether the pet was written, false if the write failed or no pet
+         *                matched its URI
+         */
+        void onWriteFinished(boolean success);
+    }
+
+    private static PetWriteQueue sInstance;
+
+    private final ContentResolver mResolver;
+
+    /* Runs the writes one at a time, in order */
+    private final ExecutorService mExecutor;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /* Updates that have not started yet, by URI of the updated pet */
+    private final HashMap<Uri, Write> mPendingUpdates = new HashMap<Uri, Write>();
+
+    /**
+     * Return the queue of the application
+     */
+    public static synchronized PetWriteQueue getInstance(Context context) {
+        if(sInstance == null) {
+            sInstance = new PetWriteQueue(context.getApplicationContext().getContentResolver());
+        }
+        return sInstance;
+    }
+
+    private PetWriteQueue(ContentResolver resolver) {
+        mResolver = resolver;
+        mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, LOG_TAG);
+            }
+        });
+    }
+
+    /**
+     * Queue the insertion of a new pet
+     * @param photo URI of the image to copy as the photo of the pet, null to leave it without
+     */
+    public void insert(ContentValues values, Uri photo, Callback callback) {
+        mExecutor.execute(new Write(Write.INSERT, PetEntry.CONTENT_URI,
+                new ContentValues(values), photo, callback));
+    }
+
+    /**
+     * Queue the update of the pet with the given content URI
+     * If an update of the same pet has not started yet, the values are merged into it and
+     * both callbacks receive its result
+     * @param photo URI of the image to copy as the new photo of the pet, null to keep its photo
+     */
+    public void update(Uri petUri, ContentValues values, Uri photo, Callback callback) {
+        synchronized(mPendingUpdates) {
+            Write pending = mPendingUpdates.get(petUri);
+            if(pending != null) {
+                pending.mValues.putAll(values);
+                if(photo != null) {
+                    pending.mPhoto = photo;
+                }
+                pending.addCallback(callback);
+                return;
+            }
+            Write write = new Write(Write.UPDATE, petUri, new ContentValues(values), photo,
+                    callback);
+            mPendingUpdates.put(petUri, write);
+            mExecutor.execute(write);
+        }
+    }
+
+    /**
+     * Queue the deletion of the pet with the given content URI
+     */
+    public void delete(Uri petUri, Callback callback) {
+        // Queued after any pending update of the pet, so the update cannot recreate it
+        mExecutor.execute(new Write(Write.DELETE, petUri, null, null, callback));
+    }
+
+    /**
+     * Queue the deletion of every pet
+     * The write succeeds even if there was no pet to delete
+     */
+    public void deleteAll(Callback callback) {
+        mExecutor.execute(new Write(Write.DELETE_ALL, PetEntry.CONTENT_URI, null, null,
+                callback));
+    }
+
+    /**
+     * Copy the image at the given URI to the given photo URI of a pet
+     * The provider replaces the photo of the pet once the copy is complete
+     */
+    private void copyPhoto(Uri source, Uri photoUri) throws IOException {
+        InputStream in = mResolver.openInputStream(source);
+        if(in == null) {
+            throw new IOException("Cannot open " + source);
+        }
+        try {
+            OutputStream out = mResolver.openOutputStream(photoUri);
+            if(out == null) {
+                throw new IOException("Cannot open " + photoUri);
+            }
+            try {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int count;
+                while((count = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, count);
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * A single queued write and the callbacks waiting for its result
+     */
+    private final class Write implements Runnable {
+
+        static final int INSERT = 0;
+        static final int UPDATE = 1;
+        static final int DELETE = 2;
+        static final int DELETE_ALL = 3;
+
+        private final int mOperation;
+        private final Uri mUri;
+        private final ContentValues mValues;
+        private final List<Callback> mCallbacks = new ArrayList<Callback>(1);
+
+        /* Image to copy as the photo of the pet, guarded by mPendingUpdates until it starts */
+        private Uri mPhoto;
+
+        Write(int operation, Uri uri, ContentValues values, Uri photo, Callback callback) {
+            mOperation = operation;
+            mUri = uri;
+            mValues = values;
+            mPhoto = photo;
+            addCallback(callback);
+        }
+
+        void addCallback(Callback callback) {
+            if(callback != null) {
+                mCallbacks.add(callback);
+            }
+        }
+
+        @Override
+        public void run() {
+            Uri photo;
+            synchronized(mPendingUpdates) {
+                if(mOperation == UPDATE) {
+                    // From now on, further updates of the pet are queued after this one
+                    mPendingUpdates.remove(mUri);
+                }
+                photo = mPhoto;
+            }
+
+            boolean success;
+            try {
+                Uri petUri;
+                switch(mOperation) {
+                    case INSERT:
+                        petUri = mResolver.insert(mUri, mValues);
+                        success = petUri != null;
+                        break;
+                    case UPDATE:
+                        petUri = mUri;
+                        success = mResolver.update(mUri, mValues, null, null) > 0;
+                        break;
+                    case DELETE:
+                        petUri = mUri;
+                        success = mResolver.delete(mUri, null, null) > 0;
+                        break;
+                    default:
+                        petUri = mUri;
+                        int rowsDeleted = mResolver.delete(mUri, null, null);
+                        Log.v(LOG_TAG, rowsDeleted + " rows deleted from pet database");
+                        success = true;
+                        break;
+                }
+                if(success && photo != null) {
+                    copyPhoto(photo, PetEntry.buildPhotoUri(ContentUris.parseId(petUri)));
+                }
+            } catch(IllegalArgumentException e) {
+                // The values were rejected by the provider
+                Log.e(LOG_TAG, "Failed to write " + mUri, e);
+                success = false;
+            } catch(IOException e) {
+                // The picked image could not be read, or the provider refused it
+                Log.e(LOG_TAG, "Failed to copy the photo " + photo + " of " + mUri, e);
+                success = false;
+            } catch(SecurityException e) {
+                // The permission to read the picked image was revoked
+                Log.e(LOG_TAG, "Failed to copy the photo " + photo + " of " + mUri, e);
+                success = false;
+            } catch(RuntimeException e) {
+                // Such as an SQLiteException from the provider, which would otherwise stop the
+                // thread of the queue without ever calling back
+                Log.e(LOG_TAG, "Failed to write " + mUri, e);
+                success = false;
+            }
+
+            final boolean result = success;
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    for(Callback callback : mCallbacks) {
+                        callback.onWriteFinished(result);
+                    }
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package com.example.android.pets.benchmark;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the throughput of concurrent single-pet updates committed one by one, as PetProvider
+ * does by default, with updates gathered into groups committed together, as PetGroupCommit does
+ * Every writer thread shares one connection, as the writes of the provider share the primary
+ * connection of SQLiteDatabase
+ */
+final class GroupCommitBenchmark {
+
+    /* Number of pets in the updated table */
+    private static final int ROWS = 100000;
+
+    /* Number of concurrent writer threads of each run */
+    private static final int[] WRITER_THREADS = { 1, 4, 16 };
+
+    /* Number of updates issued by each writer thread */
+    private static final int UPDATES_PER_THREAD = 500;
+
+    /* Group commit windows measured, in milliseconds, the default of PetGroupCommit is 0 */
+    private static final long[] WINDOW_MILLIS = { 0, 2 };
+
+    /* Number of writes that commits a group before the end of its window */
+    private static final int MAX_WRITES = 64;
+
+    /* SQL statement issued by PetProvider to update a whole pet by ID */
+    private static final String SQL_UPDATE_BY_ID =
+            "UPDATE pets SET name=?, breed=?, gender=?, weight=? WHERE _id=? AND deleted=0";
+
+    // Static helpers only
+    private GroupCommitBenchmark() {
+
+    }
+
+    /**
+     * Measure per-call and group commit with each number of writer threads, in the given
+     * journal mode
+     */
+    static void run(String journalMode) throws Exception {
+        File file = PetSchema.createDatabase(journalMode);
+        Connection connection = PetSchema.open(file, journalMode);
+        try {
+            PetData.populate(connection, ROWS);
+            PreparedStatement update = connection.prepareStatement(SQL_UPDATE_BY_ID);
+            try {
+                for(int threads : WRITER_THREADS) {
+                    measure(connection, update, threads, null, journalMode);
+                    for(long windowMillis : WINDOW_MILLIS) {
+                        measure(connection, update, threads,
+                                new GroupCommitter(connection, update, windowMillis), journalMode);
+                    }
+                }
+            } finally {
+                update.close();
+            }
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * Run the given number of writer threads, committing each update on its own if the
+     * committer is null, or through the committer, and print the resulting throughput
+     */
+    private static void measure(final Connection connection, final PreparedStatement update,
+                                int threads, final GroupCommitter committer,
+                                String journalMode) throws Exception {
+        final LatencyRecorder[] recorders = new LatencyRecorder[threads];
+        final Exception[] errors = new Exception[threads];
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] writers = new Thread[threads];
+        for(int thread = 0; thread < threads; thread++) {
+            final int index = thread;
+            recorders[index] = new LatencyRecorder();
+            writers[index] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Random random = new Random(index);
+                    try {
+                        start.await();
+                        for(int i = 0; i < UPDATES_PER_THREAD; i++) {
+                            long begin = System.nanoTime();
+                            int number = random.nextInt(ROWS);
+                            int seed = random.nextInt();
+                            if(committer == null) {
+                                synchronized(connection) {
+                                    bindUpdate(update, number, seed);
+                                    update.executeUpdate();
+                                }
+                            } else {
+                                committer.submit(number, seed);
+                            }
+                            recorders[index].record(System.nanoTime() - begin);
+                        }
+                    } catch(Exception e) {
+                        errors[index] = e;
+                    }
+                }
+            });
+            writers[index].start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        for(Thread writer : writers) {
+            writer.join();
+        }
+        long wallNanos = System.nanoTime() - begin;
+
+        LatencyRecorder total = new LatencyRecorder();
+        for(int thread = 0; thread < threads; thread++) {
+            if(errors[thread] != null) {
+                throw errors[thread];
+            }
+            total.addAll(recorders[thread]);
+        }
+        String name = (committer == null ? "per-call commit"
+                : "group commit " + committer.mWindowNanos / 1000000 + "ms") + " x" + threads
+                + " (" + journalMode + ")";
+        System.out.println(total.reportConcurrent(name, wallNanos));
+    }
+
+    /**
+     * Bind the values of an update of the pet with the given number, derived from the seed
+     */
+    private static void bindUpdate(PreparedStatement update, int number, int seed)
+            throws SQLException {
+        PetData.bindPet(update, number, new Random(seed));
+        update.setLong(5, 1 + number);
+    }
+
+    /**
+     * Gathers the updates of concurrent threads into groups committed in one transaction,
+     * with the same leader and follower protocol as PetGroupCommit
+     */
+    private static final class GroupCommitter {
+
+        private final Connection mConnection;
+        private final PreparedStatement mUpdate;
+        private final Object mLock = new Object();
+        private final long mWindowNanos;
+
+        /* Group taking new updates, null if there is none */
+        private Group mOpenGroup;
+
+        GroupCommitter(Connection connection, PreparedStatement update, long windowMillis) {
+            mConnection = connection;
+            mUpdate = update;
+            mWindowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        }
+
+        /**
+         * Update the pet with the given number as part of a group, and return once the group
+         * has committed
+         */
+        void submit(int number, int seed) throws Exception {
+            Group group;
+            boolean leader;
+            synchronized(mLock) {
+                leader = mOpenGroup == null;
+                if(leader) {
+                    mOpenGroup = new Group();
+                }
+                group = mOpenGroup;
+                group.mWrites.add(new int[] { number, seed });
+                if(group.mWrites.size() >= MAX_WRITES) {
+                    mOpenGroup = null;
+                    mLock.notifyAll();
+                }
+            }
+
+            if(!leader) {
+                synchronized(mLock) {
+                    while(!group.mDone) {
+                        mLock.wait();
+                    }
+                }
+                return;
+            }
+
+            // The group stays open while the previous group commits, then for the window
+            synchronized(mConnection) {
+                synchronized(mLock) {
+                    long deadline = System.nanoTime() + mWindowNanos;
+                    while(mOpenGroup == group) {
+                        long remaining = deadline - System.nanoTime();
+                        if(remaining <= 0) {
+                            mOpenGroup = null;
+                            break;
+                        }
+                        TimeUnit.NANOSECONDS.timedWait(mLock, remaining);
+                    }
+                }
+                try {
+                    mConnection.setAutoCommit(false);
+                    try {
+                        for(int[] write : group.mWrites) {
+                            bindUpdate(mUpdate, write[0], write[1]);
+                            mUpdate.executeUpdate();
+                        }
+                        mConnection.commit();
+                    } finally {
+                        mConnection.setAutoCommit(true);
+                    }
+                } finally {
+                    synchronized(mLock) {
+                        group.mDone = true;
+                        mLock.notifyAll();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Updates committed together, as the number and seed of each updated pet
+     */
+    private static final class Group {
+        final List<int[]> mWrites = new ArrayList<int[]>();
+        boolean mDone;
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.android.pets.benchmark;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Records the latency of individual operations and reports their throughput and percentiles
+ * Not thread-safe, each thread uses its own recorder
+ */
+final class LatencyRecorder {
+
+    /* Latency of each recorded operation, in nanoseconds */
+    private long[] mSamples = new long[1024];
+
+    /* Number of recorded operations */
+    private int mCount;
+
+    /* Total time spent in the recorded operations, in nanoseconds */
+    private long mTotalNanos;
+
+    /**
+     * Record one operation that took the given number of nanoseconds
+     */
+    void record(long nanos) {
+        if(mCount == mSamples.length) {
+            mSamples = Arrays.copyOf(mSamples, mCount * 2);
+        }
+        mSamples[mCount++] = nanos;
+        mTotalNanos += nanos;
+    }
+
+    /**
+     * Return the number of recorded operations
+     */
+    int count() {
+        return mCount;
+    }
+
+    /**
+     * Return the latency below which the given fraction of the operations completed, in nanoseconds
+     */
+    long percentile(double fraction) {
+        if(mCount == 0) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(mSamples, mCount);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(fraction * mCount) - 1;
+        return sorted[Math.max(0, Math.min(index, mCount - 1))];
+    }
+
+    /**
+     * Return the number of operations per second, counting each operation as the given
+     * number of rows (use 1 for single-row operations)
+     */
+    double opsPerSecond(long rowsPerOperation) {
+        if(mTotalNanos == 0) {
+            return 0;
+        }
+        return mCount * rowsPerOperation * 1e9 / mTotalNanos;
+    }
+
+    /**
+     * Add the operations recorded by the given recorder to this one
+     */
+    void addAll(LatencyRecorder other) {
+        for(int i = 0; i < other.mCount; i++) {
+            record(other.mSamples[i]);
+        }
+    }
+
+    /**
+     * Return a one-line report of the recorded operations
+     */
+    String report(String name, long rowsPerOperation) {
+        return report(name, opsPerSecond(rowsPerOperation));
+    }
+
+    /**
+     * Return a one-line report of operations recorded by concurrent threads, with the throughput
+     * measured over the given wall-clock time rather than the sum of their latencies
+     */
+    String reportConcurrent(String name, long wallNanos) {
+        return report(name, wallNanos == 0 ? 0 : mCount * 1e9 / wallNanos);
+    }
+
+    private String report(String name, double opsPerSecond) {
+        return String.format(Locale.ROOT,
+                "%-40s %8d ops %12.0f ops/s   p50 %9.1f us   p90 %9.1f us   p99 %9.1f us   max %10.1f us",
+                name, mCount, opsPerSecond,
+                percentile(0.50) / 1e3, percentile(0.90) / 1e3, percentile(0.99) / 1e3,
+                percentile(1.0) / 1e3);
+    }
+}
@@ -0,0 +1,278 @@
+package com.example.android.pets.benchmark;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Random;
+
+/**
+ * Benchmarks of the single operations of PetProvider on a pets table of a given size
+ * Every operation runs on its own copy of a populated database, first for warm-up iterations
+ * that are not recorded, then for the measured iterations
+ */
+final class OperationBenchmark {
+
+    /* Operations that can be measured, in the order they are run by default */
+    static final String QUERY_BY_ID = "query_by_id";
+    static final String FULL_SCAN = "full_scan";
+    static final String FILTERED_SCAN = "filtered_scan";
+    static final String UPDATE = "update";
+    static final String INSERT = "insert";
+    static final String BULK_INSERT = "bulk_insert";
+    static final String DELETE = "delete";
+    static final String[] OPERATIONS = {
+            QUERY_BY_ID, FULL_SCAN, FILTERED_SCAN, UPDATE, INSERT, BULK_INSERT, DELETE
+    };
+
+    /* Number of rows inserted in each transaction by bulk_insert, as a bulkInsert() call */
+    private static final int BULK_INSERT_ROWS = 500;
+
+    /* Number of rows read by all the iterations of a scan together, to bound its duration */
+    private static final long SCAN_ROWS = 5000000;
+
+    /* SQL statements issued by PetProvider for each operation */
+    private static final String SQL_QUERY_BY_ID =
+            "SELECT _id, name, breed, gender, weight FROM pets WHERE _id=? AND deleted=0";
+    private static final String SQL_FULL_SCAN =
+            "SELECT _id, name, breed FROM pets WHERE deleted=0";
+    private static final String SQL_FILTERED_SCAN =
+            "SELECT _id, name, breed FROM pets WHERE gender=? AND weight>=? AND deleted=0";
+    private static final String SQL_UPDATE_BY_ID =
+            "UPDATE pets SET name=?, breed=?, gender=?, weight=? WHERE _id=? AND deleted=0";
+    private static final String SQL_DELETE_BY_ID =
+            "UPDATE pets SET deleted=1 WHERE _id=? AND deleted=0";
+
+    // Static helpers only
+    private OperationBenchmark() {
+
+    }
+
+    /**
+     * Return whether the given name is one of the measured operations
+     */
+    static boolean isOperation(String name) {
+        for(String operation : OPERATIONS) {
+            if(operation.equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Measure each of the given operations on a table of the given number of pets
+     * The table is populated once, then copied for every operation so none of them sees the
+     * changes of another
+     */
+    static void run(String[] operations, int rows) throws Exception {
+        File template = PetSchema.createDatabase("WAL");
+        Connection connection = PetSchema.open(template, "WAL");
+        try {
+            PetData.populate(connection, rows);
+        } finally {
+            // Closing the last connection checkpoints the log into the database file
+            connection.close();
+        }
+
+        for(String operation : operations) {
+            File file = File.createTempFile("shelter", ".db");
+            file.deleteOnExit();
+            Files.copy(template.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            connection = PetSchema.open(file, "WAL");
+            try {
+                // The throughput of bulk_insert is reported in rows rather than transactions
+                LatencyRecorder recorder = measure(connection, operation, rows);
+                if(BULK_INSERT.equals(operation)) {
+                    System.out.println(recorder.report(operation + " x" + BULK_INSERT_ROWS
+                            + " (" + rows + " rows)", BULK_INSERT_ROWS));
+                } else {
+                    System.out.println(recorder.report(operation + " (" + rows + " rows)", 1));
+                }
+            } finally {
+                connection.close();
+                new File(file.getPath() + "-wal").delete();
+                new File(file.getPath() + "-shm").delete();
+                file.delete();
+            }
+        }
+        template.delete();
+    }
+
+    /**
+     * Run the given operation on a table of the given number of pets and return the latencies
+     * of its measured iterations
+     */
+    private static LatencyRecorder measure(final Connection connection, String operation,
+                                           final int rows) throws SQLException {
+        final Random random = new Random(rows);
+
+        if(QUERY_BY_ID.equals(operation)) {
+            final PreparedStatement query = connection.prepareStatement(SQL_QUERY_BY_ID);
+            try {
+                return measure(1000, 20000, new Operation() {
+                    @Override
+                    void run(int iteration) throws SQLException {
+                        query.setLong(1, 1 + random.nextInt(rows));
+                        readRows(query.executeQuery(), 5);
+                    }
+                });
+            } finally {
+                query.close();
+            }
+        }
+
+        if(FULL_SCAN.equals(operation) || FILTERED_SCAN.equals(operation)) {
+            final boolean filtered = FILTERED_SCAN.equals(operation);
+            final PreparedStatement query = connection.prepareStatement(
+                    filtered ? SQL_FILTERED_SCAN : SQL_FULL_SCAN);
+            int iterations = (int) Math.max(5, Math.min(200, SCAN_ROWS / rows));
+            try {
+                return measure(iterations / 5, iterations, new Operation() {
+                    @Override
+                    void run(int iteration) throws SQLException {
+                        if(filtered) {
+                            // About one pet in eighteen, found through the gender and weight index
+                            query.setInt(1, random.nextInt(3));
+                            query.setInt(2, 50);
+                        }
+                        readRows(query.executeQuery(), 3);
+                    }
+                });
+            } finally {
+                query.close();
+            }
+        }
+
+        if(UPDATE.equals(operation)) {
+            final PreparedStatement update = connection.prepareStatement(SQL_UPDATE_BY_ID);
+            try {
+                return measure(200, 2000, new Operation() {
+                    @Override
+                    void run(int iteration) throws SQLException {
+                        int number = random.nextInt(rows);
+                        PetData.bindPet(update, number, random);
+                        update.setLong(5, 1 + number);
+                        update.executeUpdate();
+                    }
+                });
+            } finally {
+                update.close();
+            }
+        }
+
+        if(INSERT.equals(operation)) {
+            final PreparedStatement insert = connection.prepareStatement(PetSchema.SQL_INSERT_PET);
+            try {
+                return measure(200, 2000, new Operation() {
+                    @Override
+                    void run(int iteration) throws SQLException {
+                        PetData.bindPet(insert, rows + iteration, random);
+                        insert.executeUpdate();
+                    }
+                });
+            } finally {
+                insert.close();
+            }
+        }
+
+        if(BULK_INSERT.equals(operation)) {
+            final PreparedStatement insert = connection.prepareStatement(PetSchema.SQL_INSERT_PET);
+            try {
+                return measure(4, 40, new Operation() {
+                    @Override
+                    void run(int iteration) throws SQLException {
+                        connection.setAutoCommit(false);
+                        try {
+                            int first = rows + iteration * BULK_INSERT_ROWS;
+                            for(int number = first; number < first + BULK_INSERT_ROWS; number++) {
+                                PetData.bindPet(insert, number, random);
+                                insert.executeUpdate();
+                            }
+                            connection.commit();
+                        } finally {
+                            connection.setAutoCommit(true);
+                        }
+                    }
+                });
+            } finally {
+                insert.close();
+            }
+        }
+
+        if(DELETE.equals(operation)) {
+            // Delete distinct pets in a random order, up to half of the table
+            final long[] ids = new long[rows];
+            for(int i = 0; i < rows; i++) {
+                ids[i] = i + 1;
+            }
+            for(int i = rows - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                long id = ids[i];
+                ids[i] = ids[j];
+                ids[j] = id;
+            }
+            final PreparedStatement delete = connection.prepareStatement(SQL_DELETE_BY_ID);
+            try {
+                return measure(Math.min(200, rows / 10), Math.min(2000, rows / 2), new Operation() {
+                    @Override
+                    void run(int iteration) throws SQLException {
+                        delete.setLong(1, ids[iteration]);
+                        delete.executeUpdate();
+                    }
+                });
+            } finally {
+                delete.close();
+            }
+        }
+
+        throw new IllegalArgumentException("Unknown operation " + operation);
+    }
+
+    /**
+     * Run the given number of warm-up iterations of the operation, then record the latency
+     * of each of the measured iterations
+     */
+    private static LatencyRecorder measure(int warmUpIterations, int iterations,
+                                           Operation operation) throws SQLException {
+        for(int iteration = 0; iteration < warmUpIterations; iteration++) {
+            operation.run(iteration);
+        }
+        LatencyRecorder recorder = new LatencyRecorder();
+        for(int iteration = 0; iteration < iterations; iteration++) {
+            long start = System.nanoTime();
+            operation.run(warmUpIterations + iteration);
+            recorder.record(System.nanoTime() - start);
+        }
+        return recorder;
+    }
+
+    /**
+     * Read every row of the given result, as a cursor filling a window does, then close it
+     */
+    private static void readRows(ResultSet rows, int columns) throws SQLException {
+        try {
+            while(rows.next()) {
+                for(int column = 1; column <= columns; column++) {
+                    rows.getObject(column);
+                }
+            }
+        } finally {
+            rows.close();
+        }
+    }
+
+    /**
+     * A single iteration of a measured operation
+     */
+    private abstract static class Operation {
+
+        /**
+         * Run the operation once, iterations are numbered from 0 across warm-up and measurement
+         */
+        abstract void run(int iteration) throws SQLException;
+    }
+}
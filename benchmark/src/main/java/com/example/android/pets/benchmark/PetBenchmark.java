@@ -0,0 +1,164 @@
+package com.example.android.pets.benchmark;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs the benchmarks of the pets database and prints one report line per measurement
+ *
+ * Usage: PetBenchmark [rows=count,...] [scenario...]
+ * Available scenarios: readers_during_write, group_commit, and the single operations
+ * query_by_id, full_scan, filtered_scan, update, insert, bulk_insert and delete
+ * The operations are measured on tables of 1k, 100k and 1M pets unless other row counts are given
+ * Without scenarios every scenario is run
+ */
+public final class PetBenchmark {
+
+    /* Scenario measuring the latency of catalog queries while all the pets are being deleted */
+    private static final String READERS_DURING_WRITE = "readers_during_write";
+
+    /* Scenario comparing concurrent updates committed one by one and committed in groups */
+    private static final String GROUP_COMMIT = "group_commit";
+
+    /* Number of pets in the table deleted by the readers_during_write scenario */
+    private static final int READERS_DURING_WRITE_ROWS = 100000;
+
+    /* Argument prefix of the table sizes the single operations are measured at */
+    private static final String ROWS_ARGUMENT = "rows=";
+
+    /* Table sizes the single operations are measured at by default */
+    private static final int[] DEFAULT_ROWS = { 1000, 100000, 1000000 };
+
+    /* SQL statement of a catalog page query, as issued by CatalogActivity */
+    private static final String SQL_QUERY_PAGE =
+            "SELECT _id, name, breed FROM pets WHERE deleted=0 AND _id>? ORDER BY _id ASC LIMIT 50";
+
+    // Entry point only
+    private PetBenchmark() {
+
+    }
+
+    public static void main(String[] args) throws Exception {
+        int[] rowCounts = DEFAULT_ROWS;
+        boolean readersDuringWrite = false;
+        boolean groupCommit = false;
+        List<String> operations = new ArrayList<String>();
+        for(String arg : args) {
+            if(arg.startsWith(ROWS_ARGUMENT)) {
+                String[] values = arg.substring(ROWS_ARGUMENT.length()).split(",");
+                rowCounts = new int[values.length];
+                for(int i = 0; i < values.length; i++) {
+                    rowCounts[i] = Integer.parseInt(values[i]);
+                }
+            } else if(READERS_DURING_WRITE.equals(arg)) {
+                readersDuringWrite = true;
+            } else if(GROUP_COMMIT.equals(arg)) {
+                groupCommit = true;
+            } else if(OperationBenchmark.isOperation(arg)) {
+                operations.add(arg);
+            } else {
+                throw new IllegalArgumentException("Unknown scenario " + arg);
+            }
+        }
+        if(!readersDuringWrite && !groupCommit && operations.isEmpty()) {
+            readersDuringWrite = true;
+            groupCommit = true;
+            operations.addAll(Arrays.asList(OperationBenchmark.OPERATIONS));
+        }
+
+        if(readersDuringWrite) {
+            readersDuringWrite("DELETE");
+            readersDuringWrite("WAL");
+        }
+        if(groupCommit) {
+            GroupCommitBenchmark.run("DELETE");
+            GroupCommitBenchmark.run("WAL");
+        }
+        if(!operations.isEmpty()) {
+            for(int rows : rowCounts) {
+                OperationBenchmark.run(operations.toArray(new String[operations.size()]), rows);
+            }
+        }
+    }
+
+    /**
+     * Measure the latency of catalog page queries on one connection while another connection
+     * deletes every pet in a single transaction, as CatalogActivity.deleteAllPets does
+     * With the rollback journal the readers wait for the writer to commit, with write-ahead
+     * logging they keep reading the last committed state
+     */
+    private static void readersDuringWrite(String journalMode) throws Exception {
+        File file = PetSchema.createDatabase(journalMode);
+        Connection writer = PetSchema.open(file, journalMode);
+        final Connection reader = PetSchema.open(file, journalMode);
+        try {
+            PetData.populate(writer, READERS_DURING_WRITE_ROWS);
+
+            final LatencyRecorder recorder = new LatencyRecorder();
+            final AtomicBoolean writing = new AtomicBoolean(true);
+            final CountDownLatch readerStarted = new CountDownLatch(1);
+            final Exception[] readerError = new Exception[1];
+
+            Thread readerThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        PreparedStatement query = reader.prepareStatement(SQL_QUERY_PAGE);
+                        Random random = new Random(42);
+                        readerStarted.countDown();
+                        while(writing.get()) {
+                            long start = System.nanoTime();
+                            query.setLong(1, random.nextInt(READERS_DURING_WRITE_ROWS));
+                            ResultSet rows = query.executeQuery();
+                            while(rows.next()) {
+                                rows.getLong(1);
+                                rows.getString(2);
+                                rows.getString(3);
+                            }
+                            rows.close();
+                            recorder.record(System.nanoTime() - start);
+                        }
+                        query.close();
+                    } catch(SQLException e) {
+                        readerError[0] = e;
+                        readerStarted.countDown();
+                    }
+                }
+            });
+            readerThread.start();
+            readerStarted.await();
+
+            // Mark every pet as deleted in one transaction while the reader keeps querying
+            long start = System.nanoTime();
+            writer.setAutoCommit(false);
+            Statement delete = writer.createStatement();
+            delete.executeUpdate("UPDATE pets SET deleted=1 WHERE deleted=0");
+            delete.close();
+            writer.commit();
+            long writeNanos = System.nanoTime() - start;
+
+            writing.set(false);
+            readerThread.join();
+            if(readerError[0] != null) {
+                throw readerError[0];
+            }
+
+            System.out.println(recorder.report("catalog page during delete-all ("
+                    + journalMode + ")", 1)
+                    + String.format(java.util.Locale.ROOT, "   write %.1f ms", writeNanos / 1e6));
+        } finally {
+            reader.close();
+            writer.close();
+        }
+    }
+}
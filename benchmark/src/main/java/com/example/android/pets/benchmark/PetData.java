@@ -0,0 +1,77 @@
+package com.example.android.pets.benchmark;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Random;
+
+/**
+ * Generates deterministic pet rows for the benchmarks
+ */
+final class PetData {
+
+    /* Names given to the generated pets, suffixed with a number */
+    private static final String[] NAMES = {
+            "Toto", "Binx", "Garfield", "Lassie", "Rex", "Milo", "Luna", "Bella", "Simba", "Nala"
+    };
+
+    /* Breeds given to the generated pets, null stands for an unknown breed */
+    private static final String[] BREEDS = {
+            "Terrier", "Tabby", "Labrador", "Persian", "Beagle", "Siamese", null, "Poodle"
+    };
+
+    // Static helpers only
+    private PetData() {
+
+    }
+
+    /**
+     * Return the name of the generated pet with the given number
+     */
+    static String name(int number) {
+        return NAMES[number % NAMES.length] + " " + number;
+    }
+
+    /**
+     * Return the breed of the generated pet with the given number
+     */
+    static String breed(int number) {
+        return BREEDS[number % BREEDS.length];
+    }
+
+    /**
+     * Bind the values of the generated pet with the given number to the insert statement
+     */
+    static void bindPet(PreparedStatement statement, int number, Random random)
+            throws SQLException {
+        statement.setString(1, name(number));
+        String breed = breed(number);
+        if(breed == null) {
+            statement.setNull(2, java.sql.Types.VARCHAR);
+        } else {
+            statement.setString(2, breed);
+        }
+        statement.setInt(3, random.nextInt(3));
+        statement.setInt(4, random.nextInt(60));
+    }
+
+    /**
+     * Insert the given number of generated pets in a single transaction
+     */
+    static void populate(Connection connection, int rows) throws SQLException {
+        Random random = new Random(rows);
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        PreparedStatement statement = connection.prepareStatement(PetSchema.SQL_INSERT_PET);
+        try {
+            for(int number = 0; number < rows; number++) {
+                bindPet(statement, number, random);
+                statement.executeUpdate();
+            }
+            connection.commit();
+        } finally {
+            statement.close();
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package com.example.android.pets.benchmark;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Schema of the pets database, mirrored from PetDbHelper so it can be created through JDBC
+ * Must be kept in sync with the migrations of PetDbHelper
+ */
+final class PetSchema {
+
+    /* Statements that create the current version of the pets database */
+    private static final String[] CREATE_STATEMENTS = {
+            "CREATE TABLE pets (_id INTEGER PRIMARY KEY AUTOINCREMENT, name TEXT NOT NULL, "
+                    + "breed TEXT, gender INTEGER NOT NULL, weight INTEGER NOT NULL DEFAULT 0, "
+                    + "deleted INTEGER NOT NULL DEFAULT 0, photo TEXT);",
+
+            "CREATE INDEX pets_name_index ON pets (name COLLATE NOCASE);",
+            "CREATE INDEX pets_gender_deleted_weight_index ON pets (gender, deleted, weight);",
+            "CREATE INDEX pets_breed_deleted_weight_index ON pets (breed, deleted, weight);",
+            "CREATE INDEX pets_weight_index ON pets (weight);",
+
+            "CREATE VIRTUAL TABLE pets_search USING fts4(content=\"pets\", name, breed);",
+            "CREATE TRIGGER pets_search_before_update BEFORE UPDATE OF name, breed ON pets "
+                    + "BEGIN DELETE FROM pets_search WHERE docid=old._id; END;",
+            "CREATE TRIGGER pets_search_before_delete BEFORE DELETE ON pets BEGIN DELETE FROM "
+                    + "pets_search WHERE docid=old._id; END;",
+            "CREATE TRIGGER pets_search_after_update AFTER UPDATE OF name, breed ON pets BEGIN "
+                    + "INSERT INTO pets_search(docid, name, breed) VALUES(new._id, new.name, "
+                    + "new.breed); END;",
+            "CREATE TRIGGER pets_search_after_insert AFTER INSERT ON pets BEGIN INSERT INTO "
+                    + "pets_search(docid, name, breed) VALUES(new._id, new.name, new.breed); END;",
+
+            "CREATE TABLE pet_gender_stats (gender INTEGER PRIMARY KEY, pet_count INTEGER NOT "
+                    + "NULL DEFAULT 0, weight_sum INTEGER NOT NULL DEFAULT 0, min_weight INTEGER, "
+                    + "max_weight INTEGER);",
+
+            "CREATE TABLE pet_breed_stats (breed TEXT PRIMARY KEY NOT NULL, pet_count INTEGER "
+                    + "NOT NULL DEFAULT 0, weight_sum INTEGER NOT NULL DEFAULT 0, min_weight "
+                    + "INTEGER, max_weight INTEGER);",
+
+            "CREATE TRIGGER pet_gender_stats_after_insert AFTER INSERT ON pets BEGIN INSERT OR "
+                    + "IGNORE INTO pet_gender_stats (gender) VALUES (new.gender); UPDATE "
+                    + "pet_gender_stats SET pet_count = pet_count + 1, weight_sum = weight_sum + "
+                    + "new.weight, min_weight = CASE WHEN min_weight IS NULL OR new.weight < "
+                    + "min_weight THEN new.weight ELSE min_weight END, max_weight = CASE WHEN "
+                    + "max_weight IS NULL OR new.weight > max_weight THEN new.weight ELSE "
+                    + "max_weight END WHERE gender = new.gender; END;",
+
+            "CREATE TRIGGER pet_gender_stats_after_delete AFTER DELETE ON pets WHEN old.deleted "
+                    + "= 0 BEGIN UPDATE pet_gender_stats SET pet_count = pet_count - 1, "
+                    + "weight_sum = weight_sum - old.weight, min_weight = CASE WHEN old.weight = "
+                    + "min_weight THEN (SELECT MIN(weight) FROM pets WHERE gender = old.gender "
+                    + "AND deleted = 0) ELSE min_weight END, max_weight = CASE WHEN old.weight = "
+                    + "max_weight THEN (SELECT MAX(weight) FROM pets WHERE gender = old.gender "
+                    + "AND deleted = 0) ELSE max_weight END WHERE gender = old.gender; DELETE "
+                    + "FROM pet_gender_stats WHERE gender = old.gender AND pet_count = 0; END;",
+
+            "CREATE TRIGGER pet_gender_stats_after_update AFTER UPDATE OF gender, weight ON "
+                    + "pets WHEN old.deleted = 0 AND new.deleted = 0 AND (old.gender IS NOT "
+                    + "new.gender OR old.weight IS NOT new.weight) BEGIN UPDATE pet_gender_stats "
+                    + "SET pet_count = pet_count - 1, weight_sum = weight_sum - old.weight, "
+                    + "min_weight = CASE WHEN old.weight = min_weight THEN (SELECT MIN(weight) "
+                    + "FROM pets WHERE gender = old.gender AND deleted = 0) ELSE min_weight END, "
+                    + "max_weight = CASE WHEN old.weight = max_weight THEN (SELECT MAX(weight) "
+                    + "FROM pets WHERE gender = old.gender AND deleted = 0) ELSE max_weight END "
+                    + "WHERE gender = old.gender; DELETE FROM pet_gender_stats WHERE gender = "
+                    + "old.gender AND pet_count = 0; INSERT OR IGNORE INTO pet_gender_stats "
+                    + "(gender) VALUES (new.gender); UPDATE pet_gender_stats SET pet_count = "
+                    + "pet_count + 1, weight_sum = weight_sum + new.weight, min_weight = CASE "
+                    + "WHEN min_weight IS NULL OR new.weight < min_weight THEN new.weight ELSE "
+                    + "min_weight END, max_weight = CASE WHEN max_weight IS NULL OR new.weight > "
+                    + "max_weight THEN new.weight ELSE max_weight END WHERE gender = new.gender; "
+                    + "END;",
+
+            "CREATE TRIGGER pet_gender_stats_after_mark_deleted AFTER UPDATE OF deleted ON pets "
+                    + "WHEN old.deleted = 0 AND new.deleted = 1 BEGIN UPDATE pet_gender_stats SET "
+                    + "pet_count = pet_count - 1, weight_sum = weight_sum - old.weight, "
+                    + "min_weight = CASE WHEN old.weight = min_weight THEN (SELECT MIN(weight) "
+                    + "FROM pets WHERE gender = old.gender AND deleted = 0) ELSE min_weight END, "
+                    + "max_weight = CASE WHEN old.weight = max_weight THEN (SELECT MAX(weight) "
+                    + "FROM pets WHERE gender = old.gender AND deleted = 0) ELSE max_weight END "
+                    + "WHERE gender = old.gender; DELETE FROM pet_gender_stats WHERE gender = "
+                    + "old.gender AND pet_count = 0; END;",
+
+            "CREATE TRIGGER pet_breed_stats_after_insert AFTER INSERT ON pets BEGIN INSERT OR "
+                    + "IGNORE INTO pet_breed_stats (breed) VALUES (IFNULL(new.breed, '')); UPDATE "
+                    + "pet_breed_stats SET pet_count = pet_count + 1, weight_sum = weight_sum + "
+                    + "new.weight, min_weight = CASE WHEN min_weight IS NULL OR new.weight < "
+                    + "min_weight THEN new.weight ELSE min_weight END, max_weight = CASE WHEN "
+                    + "max_weight IS NULL OR new.weight > max_weight THEN new.weight ELSE "
+                    + "max_weight END WHERE breed = IFNULL(new.breed, ''); END;",
+
+            "CREATE TRIGGER pet_breed_stats_after_delete AFTER DELETE ON pets WHEN old.deleted "
+                    + "= 0 BEGIN UPDATE pet_breed_stats SET pet_count = pet_count - 1, weight_sum "
+                    + "= weight_sum - old.weight, min_weight = CASE WHEN old.weight = min_weight "
+                    + "THEN (CASE WHEN IFNULL(old.breed, '') = '' THEN (SELECT MIN(weight) FROM "
+                    + "pets WHERE (breed IS NULL OR breed = '') AND deleted = 0) ELSE (SELECT "
+                    + "MIN(weight) FROM pets WHERE breed = old.breed AND deleted = 0) END) ELSE "
+                    + "min_weight END, max_weight = CASE WHEN old.weight = max_weight THEN (CASE "
+                    + "WHEN IFNULL(old.breed, '') = '' THEN (SELECT MAX(weight) FROM pets WHERE "
+                    + "(breed IS NULL OR breed = '') AND deleted = 0) ELSE (SELECT MAX(weight) "
+                    + "FROM pets WHERE breed = old.breed AND deleted = 0) END) ELSE max_weight "
+                    + "END WHERE breed = IFNULL(old.breed, ''); DELETE FROM pet_breed_stats WHERE "
+                    + "breed = IFNULL(old.breed, '') AND pet_count = 0; END;",
+
+            "CREATE TRIGGER pet_breed_stats_after_update AFTER UPDATE OF breed, weight ON pets "
+                    + "WHEN old.deleted = 0 AND new.deleted = 0 AND (old.breed IS NOT new.breed "
+                    + "OR old.weight IS NOT new.weight) BEGIN UPDATE pet_breed_stats SET "
+                    + "pet_count = pet_count - 1, weight_sum = weight_sum - old.weight, "
+                    + "min_weight = CASE WHEN old.weight = min_weight THEN (CASE WHEN "
+                    + "IFNULL(old.breed, '') = '' THEN (SELECT MIN(weight) FROM pets WHERE (breed "
+                    + "IS NULL OR breed = '') AND deleted = 0) ELSE (SELECT MIN(weight) FROM pets "
+                    + "WHERE breed = old.breed AND deleted = 0) END) ELSE min_weight END, "
+                    + "max_weight = CASE WHEN old.weight = max_weight THEN (CASE WHEN "
+                    + "IFNULL(old.breed, '') = '' THEN (SELECT MAX(weight) FROM pets WHERE (breed "
+                    + "IS NULL OR breed = '') AND deleted = 0) ELSE (SELECT MAX(weight) FROM pets "
+                    + "WHERE breed = old.breed AND deleted = 0) END) ELSE max_weight END WHERE "
+                    + "breed = IFNULL(old.breed, ''); DELETE FROM pet_breed_stats WHERE breed = "
+                    + "IFNULL(old.breed, '') AND pet_count = 0; INSERT OR IGNORE INTO "
+                    + "pet_breed_stats (breed) VALUES (IFNULL(new.breed, '')); UPDATE "
+                    + "pet_breed_stats SET pet_count = pet_count + 1, weight_sum = weight_sum + "
+                    + "new.weight, min_weight = CASE WHEN min_weight IS NULL OR new.weight < "
+                    + "min_weight THEN new.weight ELSE min_weight END, max_weight = CASE WHEN "
+                    + "max_weight IS NULL OR new.weight > max_weight THEN new.weight ELSE "
+                    + "max_weight END WHERE breed = IFNULL(new.breed, ''); END;",
+
+            "CREATE TRIGGER pet_breed_stats_after_mark_deleted AFTER UPDATE OF deleted ON pets "
+                    + "WHEN old.deleted = 0 AND new.deleted = 1 BEGIN UPDATE pet_breed_stats SET "
+                    + "pet_count = pet_count - 1, weight_sum = weight_sum - old.weight, "
+                    + "min_weight = CASE WHEN old.weight = min_weight THEN (CASE WHEN "
+                    + "IFNULL(old.breed, '') = '' THEN (SELECT MIN(weight) FROM pets WHERE (breed "
+                    + "IS NULL OR breed = '') AND deleted = 0) ELSE (SELECT MIN(weight) FROM pets "
+                    + "WHERE breed = old.breed AND deleted = 0) END) ELSE min_weight END, "
+                    + "max_weight = CASE WHEN old.weight = max_weight THEN (CASE WHEN "
+                    + "IFNULL(old.breed, '') = '' THEN (SELECT MAX(weight) FROM pets WHERE (breed "
+                    + "IS NULL OR breed = '') AND deleted = 0) ELSE (SELECT MAX(weight) FROM pets "
+                    + "WHERE breed = old.breed AND deleted = 0) END) ELSE max_weight END WHERE "
+                    + "breed = IFNULL(old.breed, ''); DELETE FROM pet_breed_stats WHERE breed = "
+                    + "IFNULL(old.breed, '') AND pet_count = 0; END;",
+
+            "CREATE TABLE pet_changes (seq INTEGER PRIMARY KEY, pet_id INTEGER NOT NULL, "
+                    + "operation INTEGER NOT NULL);",
+            "CREATE INDEX pet_changes_pet_index ON pet_changes (pet_id, seq);",
+            "CREATE TRIGGER pet_changes_after_insert AFTER INSERT ON pets BEGIN INSERT INTO "
+                    + "pet_changes (pet_id, operation) VALUES (new._id, 1); END;",
+            "CREATE TRIGGER pet_changes_after_update AFTER UPDATE ON pets WHEN old.deleted = 0 "
+                    + "BEGIN INSERT INTO pet_changes (pet_id, operation) VALUES (new._id, CASE "
+                    + "WHEN new.deleted = 0 THEN 2 ELSE 3 END); END;",
+            "CREATE TRIGGER pet_changes_after_delete AFTER DELETE ON pets WHEN old.deleted = 0 "
+                    + "BEGIN INSERT INTO pet_changes (pet_id, operation) VALUES (old._id, 3); END;"
+    };
+
+    /* SQL statement used by PetProvider to insert a full pet row */
+    static final String SQL_INSERT_PET =
+            "INSERT INTO pets (name, breed, gender, weight) VALUES (?, ?, ?, ?)";
+
+    // Static helpers only
+    private PetSchema() {
+
+    }
+
+    /**
+     * Open a connection to the database in the given file
+     * Journal mode is either "WAL", as configured by PetDbHelper, or "DELETE" for the
+     * rollback journal SQLite uses by default
+     */
+    static Connection open(File file, String journalMode) throws SQLException {
+        Connection connection = DriverManager.getConnection("jdbc:sqlite:" + file.getPath());
+        Statement statement = connection.createStatement();
+        try {
+            statement.execute("PRAGMA journal_mode = " + journalMode + ";");
+            if("WAL".equals(journalMode)) {
+                // Same settings as PetDbHelper.onConfigure
+                statement.execute("PRAGMA synchronous = NORMAL;");
+            } else {
+                // Android syncs the rollback journal fully
+                statement.execute("PRAGMA synchronous = FULL;");
+            }
+            statement.execute("PRAGMA cache_size = -2048;");
+            statement.execute("PRAGMA auto_vacuum = INCREMENTAL;");
+
+            // Wait for locks instead of failing, the waiting time is what we measure
+            statement.execute("PRAGMA busy_timeout = 60000;");
+        } finally {
+            statement.close();
+        }
+        return connection;
+    }
+
+    /**
+     * Create the pets schema in the database of the given connection
+     */
+    static void create(Connection connection) throws SQLException {
+        Statement statement = connection.createStatement();
+        try {
+            for(String sql : CREATE_STATEMENTS) {
+                statement.execute(sql);
+            }
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Create a new database file with the pets schema in the given journal mode
+     */
+    static File createDatabase(String journalMode) throws Exception {
+        File file = File.createTempFile("shelter", ".db");
+        file.deleteOnExit();
+        new File(file.getPath() + "-wal").deleteOnExit();
+        new File(file.getPath() + "-shm").deleteOnExit();
+        new File(file.getPath() + "-journal").deleteOnExit();
+
+        Connection connection = open(file, journalMode);
+        try {
+            create(connection);
+        } finally {
+            connection.close();
+        }
+        return file;
+    }
+}